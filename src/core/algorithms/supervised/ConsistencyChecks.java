@@ -0,0 +1,493 @@
+package core.algorithms.supervised;
+
+import core.algorithms.supervised.classification.DecisionTreeClassifier;
+import core.algorithms.supervised.classification.GradientBoostingClassifier;
+import core.algorithms.supervised.classification.RandomForestClassifier;
+import core.algorithms.supervised.regression.DecisionTreeRegressor;
+import core.algorithms.supervised.regression.GradientBoostingRegressor;
+import core.algorithms.supervised.regression.LinearRegression;
+import core.algorithms.supervised.regression.ModularLinearRegression;
+import core.algorithms.supervised.regression.RandomForestRegressor;
+import core.algorithms.supervised.regression.costFunction.MeanSquaredError;
+import core.algorithms.supervised.regression.interfaces.Optimizer;
+import core.algorithms.supervised.regression.optimizer.AdamOptimizer;
+import core.algorithms.supervised.regression.optimizer.BatchGradientDescent;
+import core.algorithms.supervised.regression.optimizer.MiniBatchGradientDescent;
+import core.algorithms.supervised.tree.FlatTree;
+import core.algorithms.supervised.tree.QuickScorer;
+import core.algorithms.supervised.tree.ScoringMode;
+import core.algorithms.supervised.tree.SparseMatrix;
+import core.algorithms.supervised.tree.TreePredictor;
+import core.algorithms.supervised.tree.distributed.ShardJob;
+import core.algorithms.supervised.tree.distributed.ShardedForestTrainer;
+import core.algorithms.supervised.tree.distributed.SocketTransport;
+import gui.BackendService;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// Checks that the faster paths give the same models and predictions as the plain ones.
+// Every check draws its own seeded data. Prints every check and exits with 1 when one of them fails.
+// usage: java core.algorithms.supervised.ConsistencyChecks
+public class ConsistencyChecks {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        parallelForests();
+        flatTrees();
+        quickScorer();
+        compiledTrees();
+        deepTrees();
+        shardedForests();
+        boostingJson();
+        sparseSplits();
+        linearRegressionJobs();
+        hogwildFit();
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    // every tree draws from its own stream split off the seed, so the thread count cannot change a tree
+    private static void parallelForests() {
+        Random rand = new Random(3);
+        double[][] X = randomMatrix(rand, 2000, 8, 0.0);
+        double[] yreg = regressionTarget(rand, X);
+        int[] yclf = classTarget(yreg);
+        FlatTree[] reg = null, clf = null;
+        boolean sameReg = true, sameClf = true;
+        for (int nJobs : new int[]{1, 2, 4, -1}) {
+            RandomForestRegressor forest = new RandomForestRegressor(8, 6, 2);
+            forest.setRandomState(5);
+            forest.setNJobs(nJobs);
+            forest.fit(X, yreg);
+            RandomForestClassifier classifier = new RandomForestClassifier(8, 6, 2);
+            classifier.setRandomState(5);
+            classifier.setNJobs(nJobs);
+            classifier.fit(X, yclf);
+            if (reg == null) {
+                reg = forest.getFlatTrees();
+                clf = classifier.getFlatTrees();
+            } else {
+                sameReg &= sameTrees(reg, forest.getFlatTrees());
+                sameClf &= sameTrees(clf, classifier.getFlatTrees());
+            }
+        }
+        check("RandomForestRegressor grows the same trees for nJobs 1/2/4/-1", sameReg);
+        check("RandomForestClassifier grows the same trees for nJobs 1/2/4/-1", sameClf);
+    }
+
+    private static void flatTrees() throws Exception {
+        Random rand = new Random(5);
+        double[][] Xtrain = randomMatrix(rand, 3000, 8, 0.0);
+        double[] y = regressionTarget(rand, Xtrain);
+        double[][] X = randomMatrix(rand, 2000, 8, 0.0);
+        DecisionTreeRegressor tree = new DecisionTreeRegressor(10, 2);
+        tree.fit(Xtrain, y);
+        check("FlatTree predicts like the linked nodes", Arrays.equals(tree.predict(X), linkedWalk(tree, X)));
+    }
+
+    // the linked nodes are private to the tree, reached here only to compare against the flat copy
+    private static double[] linkedWalk(DecisionTreeRegressor tree, double[][] X) throws Exception {
+        Field rootField = DecisionTreeRegressor.class.getDeclaredField("root");
+        rootField.setAccessible(true);
+        Object root = rootField.get(tree);
+        Method traverse = DecisionTreeRegressor.class.getMethod("traverse", rootField.getType(), double[].class);
+        double[] out = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            out[i] = (double) traverse.invoke(tree, root, X[i]);
+        }
+        return out;
+    }
+
+    private static void quickScorer() {
+        Random rand = new Random(6);
+        double[][] Xtrain = randomMatrix(rand, 3000, 8, 0.0);
+        double[] yreg = regressionTarget(rand, Xtrain);
+        double[][] X = randomMatrix(rand, 2000, 8, 0.0);
+        RandomForestRegressor reg = new RandomForestRegressor(20, 6, 2);
+        reg.setRandomState(1);
+        reg.fit(Xtrain, yreg);
+        RandomForestClassifier clf = new RandomForestClassifier(20, 6, 2);
+        clf.setRandomState(1);
+        clf.fit(Xtrain, classTarget(yreg));
+        // forests QuickScorer cannot take fall back to the tree walk and would pass trivially
+        check("QuickScorer supports both forests", QuickScorer.supports(reg.getFlatTrees()) && QuickScorer.supports(clf.getFlatTrees()));
+        check("QUICK_SCORER RandomForestRegressor predicts like the tree walk",
+                Arrays.equals(reg.predict(X, ScoringMode.TREE_WALK), reg.predict(X, ScoringMode.QUICK_SCORER)));
+        check("QUICK_SCORER RandomForestClassifier predicts like the tree walk",
+                Arrays.equals(clf.predict(X, ScoringMode.TREE_WALK), clf.predict(X, ScoringMode.QUICK_SCORER)));
+    }
+
+    private static void compiledTrees() {
+        Random rand = new Random(7);
+        double[][] Xtrain = randomMatrix(rand, 3000, 8, 0.0);
+        double[] yreg = regressionTarget(rand, Xtrain);
+        double[][] X = randomMatrix(rand, 2000, 8, 0.0);
+        DecisionTreeRegressor tree = new DecisionTreeRegressor(10, 2);
+        tree.fit(Xtrain, yreg);
+        TreePredictor generated = tree.compileBytecode();
+        double[] compiled = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            compiled[i] = generated.mean(X[i]);
+        }
+        // a predictor that is not generated walks the flat trees and would pass trivially
+        check("DecisionTreeRegressor compiles to bytecode", generated.isGenerated());
+        check("compiled DecisionTreeRegressor predicts like the tree walk", Arrays.equals(tree.predict(X), compiled));
+
+        RandomForestRegressor reg = new RandomForestRegressor(20, 6, 2);
+        reg.setRandomState(1);
+        reg.fit(Xtrain, yreg);
+        RandomForestClassifier clf = new RandomForestClassifier(20, 6, 2);
+        clf.setRandomState(1);
+        clf.fit(Xtrain, classTarget(yreg));
+        check("both forests compile to bytecode", reg.compileBytecode().isGenerated() && clf.compileBytecode().isGenerated());
+        check("COMPILED RandomForestRegressor predicts like the tree walk",
+                Arrays.equals(reg.predict(X, ScoringMode.TREE_WALK), reg.predict(X, ScoringMode.COMPILED)));
+        check("COMPILED RandomForestClassifier predicts like the tree walk",
+                Arrays.equals(clf.predict(X, ScoringMode.TREE_WALK), clf.predict(X, ScoringMode.COMPILED)));
+    }
+
+    // a chain of 100000 splits, far deeper than the call stack allows for recursion: split i sends
+    // x[0] < i + 0.5 to a leaf of value i and the rest on down the chain, which ends in a leaf
+    private static void deepTrees() {
+        int depth = 100000;
+        Map<String, Object> root = jsonLeaf(depth);
+        for (int i = depth - 1; i >= 0; i--) {
+            Map<String, Object> split = new HashMap<>();
+            split.put("type", "split");
+            split.put("feature_index", 0.0);
+            split.put("threshold", i + 0.5);
+            split.put("left", jsonLeaf(i));
+            split.put("right", root);
+            root = split;
+        }
+        DecisionTreeRegressor tree = DecisionTreeRegressor.fromJson(root);
+        check("deep tree loads from json with its depth", tree.getDepth() == depth + 1);
+        check("deep tree predicts down the whole chain",
+                tree.predict_row(new double[]{0}) == 0 && tree.predict_row(new double[]{depth - 1}) == depth - 1);
+        String json = tree.getTreeJson();
+        check("deep tree writes every node to json", json.split("\"leaf\"", -1).length - 1 == depth + 1);
+    }
+
+    private static Map<String, Object> jsonLeaf(double value) {
+        Map<String, Object> leaf = new HashMap<>();
+        leaf.put("type", "leaf");
+        leaf.put("value", value);
+        return leaf;
+    }
+
+    // the merged forest of two worker JVMs equals a single-JVM fit with the same seed
+    private static void shardedForests() throws Exception {
+        Random rand = new Random(15);
+        double[][] X = randomMatrix(rand, 3000, 8, 0.0);
+        double[] yreg = regressionTarget(rand, X);
+        int[] yclf = classTarget(yreg);
+        ShardJob job = new ShardJob(6, 6, 2);
+        job.setRandomState(7);
+        job.setMinSamplesLeaf(3);
+        job.setCcpAlpha(0.001);
+        job.setMaxFeatures("sqrt");
+
+        RandomForestRegressor reg = new RandomForestRegressor(6, 6, 2);
+        reg.setRandomState(7);
+        reg.setMinSamplesLeaf(3);
+        reg.setCcpAlpha(0.001);
+        reg.setMaxFeatures("sqrt");
+        reg.fit(X, yreg);
+        RandomForestClassifier clf = new RandomForestClassifier(6, 6, 2);
+        clf.setRandomState(7);
+        clf.setMinSamplesLeaf(3);
+        clf.setCcpAlpha(0.001);
+        clf.setMaxFeatures("sqrt");
+        clf.fit(X, yclf);
+
+        SocketTransport transport = SocketTransport.launchLocal(2, "-Xmx256m");
+        try {
+            ShardedForestTrainer trainer = new ShardedForestTrainer(transport);
+            check("sharded RandomForestRegressor equals single-process fit",
+                    sameTrees(trainer.fitRegressor(job, X, yreg).getFlatTrees(), reg.getFlatTrees()));
+            check("sharded RandomForestClassifier equals single-process fit",
+                    sameTrees(trainer.fitClassifier(job, X, yclf).getFlatTrees(), clf.getFlatTrees()));
+        } finally {
+            transport.close();
+        }
+    }
+
+    // the GUI predicts by rebuilding the model from its json, so the json must hold every leaf
+    // value and threshold exactly
+    private static void boostingJson() {
+        Random rand = new Random(16);
+        double[][] Xtrain = randomMatrix(rand, 2000, 6, 0.0);
+        double[] yreg = regressionTarget(rand, Xtrain);
+        double[][] X = randomMatrix(rand, 100, 6, 0.0);
+        GradientBoostingRegressor reg = new GradientBoostingRegressor(30, 4, 2);
+        reg.setRandomState(1);
+        reg.fit(Xtrain, yreg);
+        GradientBoostingClassifier clf = new GradientBoostingClassifier(30, 4, 2);
+        clf.setRandomState(1);
+        clf.fit(Xtrain, classTarget(yreg));
+
+        BackendService backend = new BackendService();
+        boolean sameReg = true, sameClf = true;
+        for (double[] row : X) {
+            sameReg &= String.valueOf(reg.predict_row(row))
+                    .equals(guiPrediction(backend, "gradientBoostingRegressor", reg.getModelJson(), row));
+            sameClf &= String.valueOf(clf.predict(row))
+                    .equals(guiPrediction(backend, "gradientBoostingClassifier", clf.getModelJson(), row));
+        }
+        check("GradientBoostingRegressor loaded from its json predicts like the fitted model", sameReg);
+        check("GradientBoostingClassifier loaded from its json predicts like the fitted model", sameClf);
+    }
+
+    // the prediction the GUI's predict request returns for a model sent back as json, null on an error
+    private static String guiPrediction(BackendService backend, String algorithm, String modelJson, double[] row) {
+        StringBuilder data = new StringBuilder();
+        for (double v : row) {
+            data.append(data.length() == 0 ? "" : ", ").append(v);
+        }
+        String request = "{\"trainedModel\": {\"algorithm\": \"" + algorithm + "\", \"model_details\": {\"modelStructure\": "
+                + modelJson + "}}, \"predictionData\": [" + data + "]}";
+        String response = backend.handlePredictRequest(request);
+        String key = "\"prediction\": \"";
+        int start = response.indexOf(key);
+        return start < 0 ? null : response.substring(start + key.length(), response.lastIndexOf('"'));
+    }
+
+    // class counts of the zero bucket are exact, so sparse classifier trees equal the dense ones.
+    // Regression sums of the zero bucket come from a subtraction, so on a near tie the sparse tree
+    // may split elsewhere; every split it makes must still gain as much as the best dense split of
+    // its node, up to rounding. The target is not quantized, ties are left to chance
+    private static void sparseSplits() {
+        Random rand = new Random(18);
+        double[][] X = randomMatrix(rand, 3000, 10, 0.8);
+        double[] yreg = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            yreg[i] = 2 * X[i][0] + X[i][4] - X[i][7] * X[i][1] + 0.3 * rand.nextGaussian();
+        }
+        int[] yclf = classTarget(yreg);
+        SparseMatrix sparse = SparseMatrix.fromDense(X);
+
+        DecisionTreeClassifier clfDense = new DecisionTreeClassifier(8, 2);
+        clfDense.fit(X, yclf);
+        DecisionTreeClassifier clfSparse = new DecisionTreeClassifier(8, 2);
+        clfSparse.fit(sparse, yclf);
+        check("sparse DecisionTreeClassifier equals dense fit", sameTree(clfSparse.getFlatTree(), clfDense.getFlatTree()));
+        check("DecisionTreeClassifier predicts sparse rows like dense rows",
+                Arrays.equals(clfSparse.predict(sparse), clfSparse.predict(X)));
+
+        DecisionTreeRegressor regSparse = new DecisionTreeRegressor(8, 2);
+        regSparse.fit(sparse, yreg);
+        check("sparse DecisionTreeRegressor splits gain as much as the best dense split",
+                bestSplits(regSparse.getFlatTree(), X, yreg));
+        check("DecisionTreeRegressor predicts sparse rows like dense rows",
+                Arrays.equals(regSparse.predict(sparse), regSparse.predict(X)));
+    }
+
+    // routes the rows down tree and compares the squared error each split removes with that of a
+    // dense stump fitted on the rows of its node
+    private static boolean bestSplits(FlatTree tree, double[][] X, double[] y) {
+        ArrayDeque<Object[]> stack = new ArrayDeque<>();
+        int[] all = new int[X.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        stack.push(new Object[]{0, all});
+        while (!stack.isEmpty()) {
+            Object[] top = stack.pop();
+            int n = (Integer) top[0];
+            int[] rows = (int[]) top[1];
+            if (tree.isLeaf(n)) {
+                continue;
+            }
+            double[][] nodeX = new double[rows.length][];
+            double[] nodeY = new double[rows.length];
+            for (int k = 0; k < rows.length; k++) {
+                nodeX[k] = X[rows[k]];
+                nodeY[k] = y[rows[k]];
+            }
+            DecisionTreeRegressor stump = new DecisionTreeRegressor(1, 2);
+            stump.fit(nodeX, nodeY);
+            FlatTree best = stump.getFlatTree();
+            double parent = squaredError(nodeX, nodeY, -1, 0, true);
+            double gain = parent - splitError(nodeX, nodeY, tree.feature(n), tree.threshold(n));
+            double bestGain = best.isLeaf(0) ? 0 : parent - splitError(nodeX, nodeY, best.feature(0), best.threshold(0));
+            if (Math.abs(gain - bestGain) > 1e-9 * parent) {
+                return false;
+            }
+            int[] left = Arrays.stream(rows).filter(i -> X[i][tree.feature(n)] < tree.threshold(n)).toArray();
+            int[] right = Arrays.stream(rows).filter(i -> X[i][tree.feature(n)] >= tree.threshold(n)).toArray();
+            stack.push(new Object[]{tree.left(n), left});
+            stack.push(new Object[]{tree.right(n), right});
+        }
+        return true;
+    }
+
+    private static double splitError(double[][] X, double[] y, int feature, double threshold) {
+        return squaredError(X, y, feature, threshold, true) + squaredError(X, y, feature, threshold, false);
+    }
+
+    // squared error around the mean of the rows on one side of x[feature] < threshold, all rows for feature -1
+    private static double squaredError(double[][] X, double[] y, int feature, double threshold, boolean left) {
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < y.length; i++) {
+            if (feature < 0 || (X[i][feature] < threshold) == left) {
+                sum += y[i];
+                count++;
+            }
+        }
+        double mean = count == 0 ? 0 : sum / count;
+        double error = 0;
+        for (int i = 0; i < y.length; i++) {
+            if (feature < 0 || (X[i][feature] < threshold) == left) {
+                error += (y[i] - mean) * (y[i] - mean);
+            }
+        }
+        return error;
+    }
+
+    // gradients are summed shard by shard in a fixed tree, so every nJobs gives the same bits
+    private static void linearRegressionJobs() {
+        Random rand = new Random(24);
+        // more rows than one shard, otherwise every nJobs runs on the calling thread anyway
+        double[][] X = randomMatrix(rand, 20000, 6, 0.0);
+        double[] y = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = 1.5 * X[i][0] - X[i][3] + 0.7 + 0.1 * rand.nextGaussian();
+        }
+        check("ModularLinearRegression batch gd, nJobs 1/2/4/-1", sameFit(X, y, BatchGradientDescent::new));
+        check("ModularLinearRegression mini-batch gd, nJobs 1/2/4/-1", sameFit(X, y, () -> new MiniBatchGradientDescent(8192)));
+        check("ModularLinearRegression adam, nJobs 1/2/4/-1", sameFit(X, y, AdamOptimizer::new));
+    }
+
+    private static boolean sameFit(double[][] X, double[] y, Supplier<Optimizer> optimizer) {
+        double[] weights = null;
+        double bias = 0;
+        for (int nJobs : new int[]{1, 2, 4, -1}) {
+            ModularLinearRegression model = new ModularLinearRegression(0.05, 20, X[0].length,
+                    new MeanSquaredError(), optimizer.get());
+            model.setNJobs(nJobs);
+            model.setRandomState(3);
+            model.fit(X, y);
+            if (weights == null) {
+                weights = model.getWeights().clone();
+                bias = model.getBias();
+            } else if (!Arrays.equals(weights, model.getWeights()) || Double.compare(bias, model.getBias()) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // hogwild updates race, so the weights vary from run to run; they must still land where the
+    // sequential sgd does
+    private static void hogwildFit() {
+        Random rand = new Random(25);
+        double[][] X = randomMatrix(rand, 20000, 6, 0.0);
+        double[] w = {1.5, 0, 0, -1, 0.5, 2};
+        double[] y = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = 0.7 + 0.1 * rand.nextGaussian();
+            for (int j = 0; j < w.length; j++) {
+                y[i] += w[j] * X[i][j];
+            }
+        }
+        LinearRegression sequential = new LinearRegression(0.005, 20, X[0].length);
+        sequential.fit(X, y);
+        LinearRegression hogwild = new LinearRegression(0.005, 20, X[0].length);
+        hogwild.setNJobs(4);
+        hogwild.fit(X, y);
+
+        double[] a = sequential.getWeights(), b = hogwild.getWeights();
+        double distance = Math.abs(sequential.getBias() - hogwild.getBias());
+        double fromTruth = Math.abs(hogwild.getBias() - 0.7);
+        for (int j = 0; j < a.length; j++) {
+            distance = Math.max(distance, Math.abs(a[j] - b[j]));
+            fromTruth = Math.max(fromTruth, Math.abs(b[j] - w[j]));
+        }
+        double mse = sequential.error_cal(X, y);
+        check("LinearRegression with nJobs 4 converges like the sequential fit",
+                distance < 0.02 && hogwild.error_cal(X, y) < 1.1 * mse + 1e-3);
+        check("LinearRegression with nJobs 4 recovers the true weights", fromTruth < 0.05);
+    }
+
+    private static boolean sameTrees(FlatTree[] a, FlatTree[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int t = 0; t < a.length; t++) {
+            if (!sameTree(a[t], b[t])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // same shape, features, thresholds and leaf values, bit for bit
+    private static boolean sameTree(FlatTree a, FlatTree b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int n = 0; n < a.size(); n++) {
+            if (a.isLeaf(n) != b.isLeaf(n)) {
+                return false;
+            }
+            if (a.isLeaf(n)) {
+                if (Double.compare(a.leafValue(n), b.leafValue(n)) != 0) {
+                    return false;
+                }
+            } else if (a.feature(n) != b.feature(n) || Double.compare(a.threshold(n), b.threshold(n)) != 0
+                    || a.left(n) != b.left(n) || a.right(n) != b.right(n)
+                    || !Arrays.equals(a.categories(n), b.categories(n))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "ok     " : "FAILED ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    // a non-linear target with noise, shared by the tree checks
+    private static double[] regressionTarget(Random rand, double[][] X) {
+        double[] y = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = 3 * X[i][0] - 2 * X[i][1] * X[i][2] + 0.5 * rand.nextGaussian();
+        }
+        return y;
+    }
+
+    // three classes cut from a regression target
+    private static int[] classTarget(double[] y) {
+        int[] classes = new int[y.length];
+        for (int i = 0; i < y.length; i++) {
+            classes[i] = y[i] > 1 ? 2 : (y[i] > -1 ? 1 : 0);
+        }
+        return classes;
+    }
+
+    // gaussian entries, each one zero with probability zeros
+    private static double[][] randomMatrix(Random rand, int rows, int cols, double zeros) {
+        double[][] X = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                X[i][j] = rand.nextDouble() < zeros ? 0.0 : rand.nextGaussian();
+            }
+        }
+        return X;
+    }
+}
@@ -0,0 +1,65 @@
+package core.algorithms.supervised;
+
+import core.algorithms.supervised.classification.RandomForestClassifier;
+import core.algorithms.supervised.regression.RandomForestRegressor;
+import core.algorithms.supervised.tree.ScoringMode;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Compares batch scoring of the forests: walking every tree vs QuickScorer vs generated bytecode.
+// usage: java core.algorithms.supervised.ForestScoringBenchmark [rows] [trees] [depth]
+public class ForestScoringBenchmark {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int numTrees = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        int features = 10;
+
+        Random rand = new Random(42);
+        double[][] Xtrain = randomMatrix(rand, 5000, features);
+        double[] yreg = new double[Xtrain.length];
+        int[] yclf = new int[Xtrain.length];
+        for (int i = 0; i < Xtrain.length; i++) {
+            yreg[i] = 3 * Xtrain[i][0] - 2 * Xtrain[i][1] * Xtrain[i][2] + rand.nextGaussian();
+            yclf[i] = yreg[i] > 0 ? 1 : 0;
+        }
+        double[][] X = randomMatrix(rand, rows, features);
+
+        RandomForestRegressor reg = new RandomForestRegressor(numTrees, depth, 2);
+        reg.setRandomState(1);
+        reg.setNJobs(-1);
+        reg.fit(Xtrain, yreg);
+        RandomForestClassifier clf = new RandomForestClassifier(numTrees, depth, 2);
+        clf.setRandomState(1);
+        clf.setNJobs(-1);
+        clf.fit(Xtrain, yclf);
+
+        System.out.println("Scoring " + rows + " rows with " + numTrees + " trees of depth " + depth);
+        for (ScoringMode mode : ScoringMode.values()) {
+            // first pass warms up the JIT (and builds the scorer), second pass is timed
+            reg.predict(X, mode);
+            long start = System.nanoTime();
+            double[] p = reg.predict(X, mode);
+            long regMs = (System.nanoTime() - start) / 1_000_000;
+
+            clf.predict(X, mode);
+            start = System.nanoTime();
+            int[] c = clf.predict(X, mode);
+            long clfMs = (System.nanoTime() - start) / 1_000_000;
+
+            boolean same = Arrays.equals(p, reg.predict(X)) && Arrays.equals(c, clf.predict(X));
+            System.out.println(mode + ": regressor " + regMs + " ms, classifier " + clfMs + " ms, matches tree walk: " + same);
+        }
+    }
+
+    private static double[][] randomMatrix(Random rand, int rows, int cols) {
+        double[][] X = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                X[i][j] = rand.nextGaussian();
+            }
+        }
+        return X;
+    }
+}
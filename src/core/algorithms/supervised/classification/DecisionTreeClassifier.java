@@ -1,17 +1,50 @@
 package core.algorithms.supervised.classification;
 
+import core.algorithms.supervised.tree.BinnedMatrix;
+import core.algorithms.supervised.tree.CategorySet;
+import core.algorithms.supervised.tree.FeatureSampler;
+import core.algorithms.supervised.tree.FlatTree;
+import core.algorithms.supervised.tree.TreeCompiler;
+import core.algorithms.supervised.tree.TreePredictor;
+import core.algorithms.supervised.tree.ClassCriterion;
+import core.algorithms.supervised.tree.ClassLabels;
+import core.algorithms.supervised.tree.HistogramSplitEngine;
+import core.algorithms.supervised.tree.PresortedColumns;
+import core.algorithms.supervised.tree.RandomSplitEngine;
+import core.algorithms.supervised.tree.SparseMatrix;
+import core.algorithms.supervised.tree.SparseSplitEngine;
+import core.algorithms.supervised.tree.SplitEngine;
+import core.algorithms.supervised.tree.TreeBuilder;
+import core.algorithms.supervised.tree.TreePruning;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 public class DecisionTreeClassifier {
 
     private int maxdepth;  //max tree depth 
     private int minsamplesplit; //min samples needed for a split
     private Node root;
+    private FlatTree flat; //compiled copy of root used by predict
+    private int maxBins; //0 = exact thresholds, otherwise histogram mode with at most this many bins
+    private String criterion="gini"; //impurity used to pick splits: "gini" or "entropy"
+    private int nJobs=1; //threads growing the tree, -1 = all cores
+    private ForkJoinPool pool; //optional pool to grow on instead of creating one per fit
+    private int maxLeafNodes=-1; //-1 = grow depth-first without a leaf budget
+    private String splitter="best"; //"best" or "random"
+    private String maxFeatures; //features tried at each split, null = all
+    private long seed=new Random().nextLong(); //drives the random splitter and max_features sampling
+    private double minImpurityDecrease; //0 = take any split found
+    private int minSamplesLeaf=1; //samples each side of a split must keep
+    private double ccpAlpha; //cost-complexity pruning after fit, 0 = none
+    private int[] categoricalFeatures; //columns holding category codes, null = all numeric
+    private PresortedColumns presorted; //shared feature order of X, null = sort at every node
 
     public DecisionTreeClassifier(int maxdepth, int minsamplesplit) {
         this.maxdepth = maxdepth;
@@ -19,7 +52,7 @@ public class DecisionTreeClassifier {
     }
 
     private DecisionTreeClassifier(Node root) {
-        this.root = root;
+        setRoot(root);
     }
 
     // node
@@ -28,7 +61,10 @@ public class DecisionTreeClassifier {
         int fidx; //feature index : idx chosen for fitting
         double threshold;   //cutoff value for feature
         Node left,right;
-        int classlabel;    // majority vote (only set for leaf nodes)
+        int classlabel;    // majority vote, kept on splits too so pruning can turn them into leaves
+        long[] categories; // categorical split: codes going left (CategorySet), null = threshold split
+        double weight=Double.NaN; // fit statistics for pruning, NaN on trees loaded from json
+        double impurity;
 
         //constructor for leaf node
         Node(int classlabel){
@@ -46,197 +82,335 @@ public class DecisionTreeClassifier {
         }
     }
 
-    //train
-    public void fit(double[][] X,int[] y){
-        this.root=buildtree(X,y,0);
-        //initial depth=0
+    //quantize features into at most maxBins bins (<=256) and search splits on histograms
+    public void setMaxBins(int maxBins){
+        this.maxBins=maxBins;
     }
 
-    //build tree recursively
-    private Node buildtree(double[][] X,int[] y,int depth){
-        if(depth>=maxdepth || y.length<minsamplesplit || ispure(y)){
-            return new Node(majorityclass(y));
-            //make leaf node with majorityclass (votes)
-        }
+    public void setCriterion(String criterion){
+        this.criterion=criterion;
+    }
+
+    //n_jobs semantics: positive = that many threads, -1 = all cores, -2 = all but one
+    public void setNJobs(int nJobs){
+        this.nJobs=nJobs;
+    }
+
+    public void setPool(ForkJoinPool pool){
+        this.pool=pool;
+    }
+
+    //grow best-first (largest impurity decrease first) until the tree has this many leaves, -1 = no limit
+    public void setMaxLeafNodes(int maxLeafNodes){
+        this.maxLeafNodes=maxLeafNodes;
+    }
+
+    //split only when (node weight/total weight)*(impurity decrease) reaches this
+    public void setMinImpurityDecrease(double minImpurityDecrease){
+        this.minImpurityDecrease=minImpurityDecrease;
+    }
 
-        SplitResult split=findbestsplit(X,y);
-        if(split==null){
-            return new Node(majorityclass(y));
-            //if no good split
+    //"best" = exact search over every boundary, "random" = one random threshold per feature (ExtraTrees).
+    //the random splitter works on the raw values, maxBins is ignored with it
+    public void setSplitter(String splitter){
+        if(!splitter.equals("best") && !splitter.equals("random")){
+            throw new IllegalArgumentException("Unknown splitter: "+splitter);
         }
+        this.splitter=splitter;
+    }
 
-        //else split the dataset 
-        Node left=buildtree(split.Xleft,split.yleft, depth+1);
-        Node right=buildtree(split.Xright,split.yright, depth+1);
-        //decision node
-        return new Node(split.fidx,split.threshold,left,right);
+    //features tried at each split: "sqrt", "log2", a fraction like "0.3", a count like "12", null = all
+    public void setMaxFeatures(String maxFeatures){
+        FeatureSampler.resolve(maxFeatures,1); //rejects unknown settings now rather than at fit
+        this.maxFeatures=maxFeatures;
     }
 
-    //if all labels are same
-    private boolean ispure(int[] y){
-        int first=y[0]; 
-        for(int val:y){
-            if(val!=first){
-                return false;
-            }
+    public void setRandomState(long seed){
+        this.seed=seed;
+    }
+
+    //splits leaving fewer samples than this on either side are never taken
+    public void setMinSamplesLeaf(int minSamplesLeaf){
+        if(minSamplesLeaf<1){
+            throw new IllegalArgumentException("min_samples_leaf must be at least 1: "+minSamplesLeaf);
         }
-        return true;
+        this.minSamplesLeaf=minSamplesLeaf;
     }
 
-    //counts clasees and returns majority class
-    private int majorityclass(int[] y){
-        Map<Integer,Integer> count=new HashMap<>();
-        //store keyclass label(0,1,2...) and value=frequency
-        for(int val: y){
-            count.put(val,count.getOrDefault(val,0)+1);
-            //if val not in map assume count=0 and add 1 for every occurrence
+    //minimal cost-complexity pruning with this alpha after every fit, 0 = keep the grown tree
+    public void setCcpAlpha(double ccpAlpha){
+        if(ccpAlpha<0){
+            throw new IllegalArgumentException("ccp_alpha must be non-negative: "+ccpAlpha);
         }
-        return Collections.max(count.entrySet(), Map.Entry.comparingByValue()).getKey();
-        //count.entrySet() → gives all (key, value) pairs.
-        //Map.Entry.comparingByValue() → tells max to compare by the frequency, not the key.
-        //find the max and return its key
+        this.ccpAlpha=ccpAlpha;
     }
 
-    public int predict(double[] x){
-        Node node=root;
-        while(!node.isleaf){
-            if(x[node.fidx]<node.threshold){
-                //value at fidx is less than the threshold
-                node=node.left;
-            }
-            else{
-                node=node.right;
-            }
+    //these columns hold integer category codes (>= 0) and are split by subsets of codes instead of
+    //thresholds; no one-hot encoding needed. With two classes the codes are ordered by class share,
+    //which finds the best subset; with more, one order per class is tried. Exact dense search only:
+    //not with the random splitter, maxBins or sparse X. Codes unseen in training go right
+    public void setCategoricalFeatures(int... features){
+        this.categoricalFeatures=(features==null || features.length==0)?null:features.clone();
+    }
+
+    //exact search on dense X reads large nodes in feature order from this index instead of sorting them.
+    //it must be built on the X passed to fit; a forest builds one for all its trees
+    public void setPresorted(PresortedColumns presorted){
+        this.presorted=presorted;
+    }
+
+    private void requireNumeric(){
+        if(categoricalFeatures!=null){
+            throw new IllegalArgumentException("Categorical features need the best splitter on dense X without maxBins");
         }
-        return node.classlabel;
     }
 
-    //predict multiple rows
-    public int[] predict(double[][] X){
-        int[] predictions=new int[X.length];
-        for(int i=0;i<X.length;i++){
-            predictions[i]=predict(X[i]);
+    //train
+    public void fit(double[][] X,int[] y){
+        fit(X,y,null);
+    }
+
+    //sampleCounts[i] = how many times row i is used (e.g. a bootstrap), null = every row once.
+    //rows are weighted in place, X and y are never copied
+    public void fit(double[][] X,int[] y,int[] sampleCounts){
+        fit(X,new ClassLabels(y),sampleCounts);
+    }
+
+    //labels already encoded to dense ids (a forest encodes y once for all its trees)
+    public void fit(double[][] X,ClassLabels labels,int[] sampleCounts){
+        if(splitter.equals("random")){
+            requireNumeric();
+            ClassCriterion impurity=ClassCriterion.of(criterion,labels);
+            setRoot(buildtree(new RandomSplitEngine(X,impurity,sampleCounts),impurity));
+            return;
         }
-        return predictions;
+        if(maxBins>0){
+            fit(BinnedMatrix.fromMatrix(X,maxBins),labels,sampleCounts);
+            return;
+        }
+        ClassCriterion impurity=ClassCriterion.of(criterion,labels);
+        SplitEngine engine=new SplitEngine(X,impurity,false,sampleCounts);
+        if(categoricalFeatures!=null){
+            engine.setCategoricalFeatures(categoricalFeatures);
+        }
+        if(presorted!=null){
+            engine.setPresorted(presorted);
+        }
+        setRoot(buildtree(engine,impurity));
     }
-        
-    //stores the best split
-    private class SplitResult{
-        int fidx;
-        double threshold;
-        double[][] Xleft,Xright;
-        int[] yleft,yright;
 
-        SplitResult(int fidx,double threshold,double[][] Xleft,int[] yleft,double[][] Xright,int[] yright){
-            this.fidx=fidx;
-            this.threshold=threshold;
-            this.Xleft=Xleft;
-            this.yleft=yleft;
-            this.Xright=Xright;
-            this.yright=yright;
+    //sparse X: exact search over the non-zeros, the zeros of a feature are one bucket.
+    //Class counts are exact, so the tree is the one fit(double[][]) grows on the same values.
+    //maxBins does not apply here, the random splitter needs dense X
+    public void fit(SparseMatrix X,int[] y){
+        fit(X,y,null);
+    }
+
+    public void fit(SparseMatrix X,int[] y,int[] sampleCounts){
+        fit(X,new ClassLabels(y),sampleCounts);
+    }
+
+    public void fit(SparseMatrix X,ClassLabels labels,int[] sampleCounts){
+        if(splitter.equals("random")){
+            throw new IllegalArgumentException("The random splitter needs a dense X");
         }
+        requireNumeric();
+        ClassCriterion impurity=ClassCriterion.of(criterion,labels);
+        setRoot(buildtree(new SparseSplitEngine(X,impurity,false,sampleCounts),impurity));
+    }
+
+    //train on an already quantized matrix, thresholds are taken from its bin edges
+    public void fit(BinnedMatrix bins,int[] y){
+        fit(bins,y,null);
     }
 
-    private SplitResult findbestsplit(double[][] X,int[] y){
-        int nSamples=X.length,nFeatures=X[0].length;
-        double bestgini=Double.MAX_VALUE;
-        SplitResult bestsplit=null;
+    public void fit(BinnedMatrix bins,int[] y,int[] sampleCounts){
+        fit(bins,new ClassLabels(y),sampleCounts);
+    }
+
+    public void fit(BinnedMatrix bins,ClassLabels labels,int[] sampleCounts){
+        requireNumeric();
+        ClassCriterion impurity=ClassCriterion.of(criterion,labels);
+        SplitEngine engine=new HistogramSplitEngine(bins,impurity,sampleCounts);
+        setRoot(buildtree(engine,impurity));
+    }
 
-        //looping through all features n thresholds to get minimized weighted gini impurity
-        for(int feature=0;feature<nFeatures;feature++){
-            double[] values=new double[nSamples];
-            for(int i=0;i<nSamples;i++){
-                values[i]=X[i][feature];
+    //grown without recursion by TreeBuilder, a node is the range [start,end) of the engine's row index
+    private Node buildtree(SplitEngine engine,ClassCriterion criterion){
+        int featuresToTry=FeatureSampler.resolve(maxFeatures,engine.numFeatures());
+        TreeBuilder.Grower<Node> grower=new TreeBuilder.Grower<Node>(){
+            //leaf when too deep, too few samples or a single class left
+            public boolean isLeaf(double[] stats,int depth){
+                return depth>=maxdepth || stats[0]<minsamplesplit || criterion.isPure(stats,0);
             }
-            Arrays.sort(values);
-
-            //sorted feature values to try thresholds
-            for(double threshold:values){
-                List<double[]> leftX=new ArrayList<>();
-                List<Integer> leftY=new ArrayList<>();
-                List<double[]> rightX=new ArrayList<>();
-                List<Integer> rightY=new ArrayList<>();
-
-                for(int i=0;i<nSamples;i++){
-                    if(X[i][feature]<threshold){
-                        leftX.add(X[i]);
-                        leftY.add(y[i]);
-                    }
-                    else{
-                        rightX.add(X[i]);
-                        rightY.add(y[i]);
-                    }
-                }             
-
-                //partition into left n right threshold
-                if(leftY.size()==0 || rightY.size()==0){
-                    continue;
-                }
-                //Compute Gini impurity for both sides. Weighted avg impurity = impurity of splits
-                double giniLeft = gini(toIntArray(leftY));
-                double giniRight = gini(toIntArray(rightY));
-                double weighted = (leftY.size() / (double)nSamples) * giniLeft + (rightY.size() / (double)nSamples) * giniRight ;
-            
-                if(weighted<bestgini){
-                    bestgini=weighted;
-                    bestsplit=new SplitResult(feature,threshold,leftX.toArray(new double[0][]),toIntArray(leftY),rightX.toArray(new double[0][]),toIntArray(rightY));
-                }
+            //random subset of featuresToTry features (every feature by default)
+            public int features(int[] features,SplittableRandom rng){
+                return FeatureSampler.sample(features,featuresToTry,rng);
+            }
+            //leaf holds the majority class
+            public Node leaf(double value,double weight,double impurity){
+                return withStats(new Node((int)value),value,weight,impurity);
+            }
+            public Node split(int feature,double threshold,long[] categories,Node left,Node right,double value,double weight,double impurity){
+                Node node=new Node(feature,threshold,left,right);
+                node.categories=categories;
+                return withStats(node,value,weight,impurity);
             }
+        };
+        engine.setMinSamplesLeaf(minSamplesLeaf);
+        TreeBuilder<Node> builder=new TreeBuilder<>(engine,grower);
+        builder.setMaxLeafNodes(maxLeafNodes);
+        builder.setMinImpurityDecrease(minImpurityDecrease);
+        Node grown=builder.build(new SplittableRandom(seed),nJobs,pool);
+        if(ccpAlpha>0){
+            collapse(TreePruning.costComplexity(grown,VIEW,ccpAlpha),false);
         }
-        return bestsplit;
+        return grown;
     }
 
-    //gini impurity
-    private double gini(int[] y){
-        Map<Integer,Integer> count=new HashMap<>();
-        for(int val:y){
-            count.put(val,count.getOrDefault(val,0)+1);
-        }
-        double impurity=1.0;
-        int n=y.length;
-        for(int c:count.values()){
-            double p=(double)c/n;
-            impurity-=p*p;
-        }
-        return impurity;
-    }  
-
-    //helper to convert List<Integer> to int[]
-    private int[] toIntArray(List<Integer> list){
-        int[] arr=new int[list.size()];
-        for(int i=0;i<list.size();i++){
-            arr[i]=list.get(i);
+    private static Node withStats(Node node,double value,double weight,double impurity){
+        node.classlabel=(int)value;
+        node.weight=weight;
+        node.impurity=impurity;
+        return node;
+    }
+
+    //cost-complexity prune the fitted tree: the weakest links are cut while their effective alpha <= alpha
+    public void prune(double alpha){
+        collapse(TreePruning.costComplexity(root,VIEW,alpha),false);
+        setRoot(root);
+    }
+
+    //{effective alphas, total leaf impurity after pruning at each} of the fitted tree, to pick an alpha
+    public double[][] costComplexityPruningPath(){
+        return TreePruning.pruningPath(root,VIEW);
+    }
+
+    //collapses splits whose leaves all vote for the same class, predictions do not change.
+    //returns how many nodes were removed
+    public int compact(){
+        int before=flat.size();
+        collapse(TreePruning.redundantSplits(root,VIEW),true);
+        setRoot(root);
+        return before-flat.size();
+    }
+
+    //turns every node in subtrees into a leaf; uniform = use the class of its (identical) leaves
+    private static void collapse(List<Node> subtrees,boolean uniform){
+        for(Node node:subtrees){
+            if(uniform){
+                Node leaf=node;
+                while(!leaf.isleaf){
+                    leaf=leaf.left;
+                }
+                node.classlabel=leaf.classlabel;
+            }
+            node.isleaf=true;
+            node.left=node.right=null;
         }
-        return arr;
     }
 
-    public int getDepth() {
-        return getDepth(root);
+    private static final TreePruning.View<Node> VIEW=new TreePruning.View<Node>(){
+        public boolean isLeaf(Node node){ return node.isleaf; }
+        public int feature(Node node){ return node.fidx; }
+        public double threshold(Node node){ return node.threshold; }
+        public Node left(Node node){ return node.left; }
+        public Node right(Node node){ return node.right; }
+        public double value(Node node){ return node.classlabel; }
+        public double weight(Node node){ return node.weight; }
+        public double impurity(Node node){ return node.impurity; }
+        public long[] categories(Node node){ return node.categories; }
+    };
+
+    //every change of the tree goes through here so the flat copy never goes stale
+    private void setRoot(Node root){
+        this.root=root;
+        this.flat=FlatTree.compile(root,VIEW);
+    }
+
+    public FlatTree getFlatTree(){
+        return flat;
+    }
+
+    //the tree as generated bytecode, mean(x) of the result is the prediction for x
+    public TreePredictor compileBytecode(){
+        return TreeCompiler.compile(new FlatTree[]{flat});
+    }
+
+    //walks the flat arrays: value at fidx less than the threshold goes left
+    public int predict(double[] x){
+        return (int)flat.predict(x);
     }
 
-    private int getDepth(Node node) {
-        if (node == null) {
-            return 0;
+    //predict multiple rows
+    public int[] predict(double[][] X){
+        int[] predictions=new int[X.length];
+        for(int i=0;i<X.length;i++){
+            predictions[i]=predict(X[i]);
         }
-        if (node.isleaf) {
-            return 1;
+        return predictions;
+    }
+
+    public int[] predict(SparseMatrix X){
+        int[] predictions=new int[X.numRows()];
+        for(int i=0;i<predictions.length;i++){
+            predictions[i]=(int)flat.predict(X,i);
         }
-        return 1 + Math.max(getDepth(node.left), getDepth(node.right));
+        return predictions;
     }
 
-    public String getTreeJson() {
-        return nodeToJson(root);
+    //levels are walked one after another, trees grown by TreeBuilder can be deeper than the call stack
+    public int getDepth() {
+        int depth = 0;
+        List<Node> level = new ArrayList<>();
+        if (root != null) {
+            level.add(root);
+        }
+        while (!level.isEmpty()) {
+            depth++;
+            List<Node> next = new ArrayList<>();
+            for (Node node : level) {
+                if (!node.isleaf) {
+                    next.add(node.left);
+                    next.add(node.right);
+                }
+            }
+            level = next;
+        }
+        return depth;
     }
 
-    private String nodeToJson(Node node) {
-        if (node.isleaf) {
-            return String.format("{\"type\": \"leaf\", \"value\": %d}", node.classlabel);
-        } else {
-            String leftJson = nodeToJson(node.left);
-            String rightJson = nodeToJson(node.right);
-            return String.format("{\"type\": \"split\", \"feature_index\": %d, \"threshold\": %.4f, \"left\": %s, \"right\": %s}",
-                    node.fidx, node.threshold, leftJson, rightJson);
+    // numbers are written with Double.toString, so fromJson restores every threshold and value exactly
+    public String getTreeJson() {
+        // written from an explicit stack of nodes still to write and text closing the splits
+        // already opened, so deep trees do not overflow the call stack
+        StringBuilder json = new StringBuilder();
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Object item = stack.pop();
+            if (item instanceof String) {
+                json.append((String) item);
+                continue;
+            }
+            Node node = (Node) item;
+            if (node.isleaf) {
+                json.append(String.format("{\"type\": \"leaf\", \"value\": %d}", node.classlabel));
+                continue;
+            }
+            if (node.categories != null) {
+                json.append(String.format("{\"type\": \"split\", \"feature_index\": %d, \"categories\": %s, \"left\": ",
+                        node.fidx, CategorySet.toJson(node.categories)));
+            } else {
+                json.append(String.format("{\"type\": \"split\", \"feature_index\": %d, \"threshold\": %s, \"left\": ",
+                        node.fidx, node.threshold));
+            }
+            stack.push("}");
+            stack.push(node.right);
+            stack.push(", \"right\": ");
+            stack.push(node.left);
         }
+        return json.toString();
     }
 
     public static DecisionTreeClassifier fromJson(Map<String, Object> treeJson) {
@@ -244,17 +418,43 @@ public class DecisionTreeClassifier {
         return new DecisionTreeClassifier(root);
     }
 
+    // like TreeBuilder.assemble: the json nodes are listed in preorder, then built from the
+    // last one back so both children of a split exist before the split itself
     @SuppressWarnings("unchecked")
-    private static Node nodeFromJson(Map<String, Object> nodeJson) {
-        String type = (String) nodeJson.get("type");
-        if ("leaf".equals(type)) {
-            return new Node(((Double) nodeJson.get("value")).intValue());
-        } else {
-            int featureIndex = ((Double) nodeJson.get("feature_index")).intValue();
-            double threshold = (Double) nodeJson.get("threshold");
-            Node left = nodeFromJson((Map<String, Object>) nodeJson.get("left"));
-            Node right = nodeFromJson((Map<String, Object>) nodeJson.get("right"));
-            return new Node(featureIndex, threshold, left, right);
+    private static Node nodeFromJson(Map<String, Object> rootJson) {
+        List<Map<String, Object>> preorder = new ArrayList<>();
+        ArrayDeque<Map<String, Object>> stack = new ArrayDeque<>();
+        stack.push(rootJson);
+        while (!stack.isEmpty()) {
+            Map<String, Object> nodeJson = stack.pop();
+            preorder.add(nodeJson);
+            if (!"leaf".equals(nodeJson.get("type"))) {
+                stack.push((Map<String, Object>) nodeJson.get("right"));
+                stack.push((Map<String, Object>) nodeJson.get("left"));
+            }
+        }
+
+        // by identity: the hashCode of a parsed json map would walk its whole subtree
+        Map<Map<String, Object>, Node> built = new IdentityHashMap<>();
+        for (int i = preorder.size() - 1; i >= 0; i--) {
+            Map<String, Object> nodeJson = preorder.get(i);
+            Node node;
+            if ("leaf".equals(nodeJson.get("type"))) {
+                node = new Node(((Double) nodeJson.get("value")).intValue());
+            } else {
+                int featureIndex = ((Double) nodeJson.get("feature_index")).intValue();
+                Node left = built.remove(nodeJson.get("left"));
+                Node right = built.remove(nodeJson.get("right"));
+                // categorical splits carry their left codes instead of a threshold
+                if (nodeJson.containsKey("categories")) {
+                    node = new Node(featureIndex, Double.NaN, left, right);
+                    node.categories = CategorySet.of((List<?>) nodeJson.get("categories"));
+                } else {
+                    node = new Node(featureIndex, (Double) nodeJson.get("threshold"), left, right);
+                }
+            }
+            built.put(nodeJson, node);
         }
+        return built.get(rootJson);
     }
 }
\ No newline at end of file
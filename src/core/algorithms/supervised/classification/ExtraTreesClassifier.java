@@ -0,0 +1,31 @@
+package core.algorithms.supervised.classification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Extremely randomized trees: a forest whose trees draw one random threshold per feature
+// at each node instead of searching every boundary, and train on all rows (no bootstrap).
+// Same model and json format as RandomForestClassifier.
+public class ExtraTreesClassifier extends RandomForestClassifier {
+
+    public ExtraTreesClassifier(int numtrees,int maxdepth,int minsamplesplit){
+        super(numtrees,maxdepth,minsamplesplit);
+        setSplitter("random");
+        setBootstrap(false);
+    }
+
+    private ExtraTreesClassifier(List<DecisionTreeClassifier> trees) {
+        super(trees);
+        setSplitter("random"); //trees added with addTrees are extremely randomized too
+        setBootstrap(false);
+    }
+
+    public static ExtraTreesClassifier fromJson(List<Map<String, Object>> forestJson) {
+        List<DecisionTreeClassifier> trees = new ArrayList<>();
+        for (Map<String, Object> treeJson : forestJson) {
+            trees.add(DecisionTreeClassifier.fromJson(treeJson));
+        }
+        return new ExtraTreesClassifier(trees);
+    }
+}
@@ -0,0 +1,329 @@
+package core.algorithms.supervised.classification;
+
+import core.algorithms.supervised.regression.DecisionTreeRegressor;
+import core.algorithms.supervised.regression.costFunction.LogLoss;
+import core.algorithms.supervised.tree.BinnedMatrix;
+import core.algorithms.supervised.tree.ClassLabels;
+import core.algorithms.supervised.tree.FeatureSampler;
+import core.algorithms.supervised.tree.FlatTree;
+import core.algorithms.supervised.tree.GradientCriterion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+// Histogram gradient boosting for classes: regression trees fitted to the gradients and hessians
+// of the log loss on raw scores (see GradientBoostingRegressor). Two classes keep one score per row
+// (LogLoss on the log-odds, one tree per round); more classes keep one score per class with a
+// softmax loss and grow one tree per class per round.
+public class GradientBoostingClassifier {
+    private int numrounds;
+    private int maxdepth;
+    private int minsamplesplit;
+    private double learningRate=0.1;
+    private double subsample=1.0;
+    private double lambda;
+    private int maxBins=255;
+    private int maxLeafNodes=-1;
+    private int nJobs=1;
+    private long seed=new Random().nextLong();
+    private int nIterNoChange;  //early stopping on the validation set, 0 = off
+    private double tol=1e-7;
+
+    private int[] classes=new int[0];  //sorted labels, score k belongs to classes[k] (binary: the score of classes[1])
+    private double[] baseScores;       //initial score of each output
+    private List<DecisionTreeRegressor> trees=new ArrayList<>(); //round-major: tree of output k in round r at r*outputs+k
+    private FlatTree[] compiled=new FlatTree[0];
+    private double[] validationLoss=new double[0];
+
+    public GradientBoostingClassifier(int numrounds,int maxdepth,int minsamplesplit){
+        this.numrounds=numrounds;
+        this.maxdepth=maxdepth;
+        this.minsamplesplit=minsamplesplit;
+    }
+
+    private GradientBoostingClassifier(int[] classes,double[] baseScores,double learningRate,List<DecisionTreeRegressor> trees){
+        this.classes=classes;
+        this.baseScores=baseScores;
+        this.learningRate=learningRate;
+        this.trees=trees;
+        this.numrounds=trees.size()/baseScores.length;
+        compile();
+    }
+
+    public void setLearningRate(double learningRate){
+        this.learningRate=learningRate;
+    }
+
+    public void setSubsample(double subsample){
+        if(subsample<=0 || subsample>1){
+            throw new IllegalArgumentException("subsample must be in (0,1]: "+subsample);
+        }
+        this.subsample=subsample;
+    }
+
+    public void setL2Regularization(double lambda){
+        this.lambda=lambda;
+    }
+
+    public void setMaxBins(int maxBins){
+        this.maxBins=maxBins;
+    }
+
+    public void setMaxLeafNodes(int maxLeafNodes){
+        this.maxLeafNodes=maxLeafNodes;
+    }
+
+    public void setNJobs(int nJobs){
+        this.nJobs=nJobs;
+    }
+
+    public void setRandomState(long seed){
+        this.seed=seed;
+    }
+
+    //with a validation set: stop once its log loss has not improved by more than tol for nIterNoChange
+    //rounds, and keep only the rounds up to the best one
+    public void setEarlyStopping(int nIterNoChange,double tol){
+        this.nIterNoChange=nIterNoChange;
+        this.tol=tol;
+    }
+
+    public void fit(double[][] X,int[] y){
+        fit(X,y,null,null);
+    }
+
+    public void fit(double[][] X,int[] y,double[][] Xval,int[] yval){
+        int n=X.length;
+        ClassLabels labels=new ClassLabels(y);
+        classes=labels.getClasses();
+        int outputs=(classes.length<=2)?1:classes.length;
+        BinnedMatrix bins=BinnedMatrix.fromMatrix(X,maxBins);
+        SplittableRandom rng=new SplittableRandom(seed);
+
+        //start from the class priors (log-odds for two classes)
+        double[] prior=new double[classes.length];
+        for(int i=0;i<n;i++){
+            prior[labels.id(i)]+=1.0/n;
+        }
+        baseScores=new double[outputs];
+        if(outputs==1){
+            double p=Math.min(Math.max(classes.length==2?prior[1]:0.5,1e-12),1-1e-12);
+            baseScores[0]=Math.log(p/(1-p));
+        }
+        else{
+            for(int k=0;k<outputs;k++){
+                baseScores[k]=Math.log(Math.max(prior[k],1e-12));
+            }
+        }
+
+        double[][] scores=new double[n][];
+        for(int i=0;i<n;i++){
+            scores[i]=baseScores.clone();
+        }
+        int[] valIds=null;
+        double[][] valScores=null;
+        if(Xval!=null){
+            valIds=new int[yval.length];
+            valScores=new double[yval.length][];
+            for(int i=0;i<yval.length;i++){
+                valIds[i]=Arrays.binarySearch(classes,yval[i]); //negative for labels not seen in training
+                valScores[i]=baseScores.clone();
+            }
+        }
+
+        double[] gradient=new double[n];
+        double[] hessian=new double[n];
+        GradientCriterion criterion=new GradientCriterion(gradient,hessian,lambda);
+        LogLoss logLoss=new LogLoss();
+        double[] proba=new double[outputs];
+        double[][] probs=(outputs>1)?new double[n][outputs]:null;
+        int[] order=new int[n];
+        for(int i=0;i<n;i++){
+            order[i]=i;
+        }
+        int sampled=Math.max(1,(int)Math.round(subsample*n));
+
+        trees=new ArrayList<>();
+        List<Double> losses=new ArrayList<>();
+        double best=Double.MAX_VALUE;
+        int bestRounds=0;
+        for(int round=0;round<numrounds;round++){
+            int[] counts=null;
+            if(sampled<n){
+                FeatureSampler.sample(order,sampled,rng); //the same rows for every output of a round
+                counts=new int[n];
+                for(int i=0;i<sampled;i++){
+                    counts[order[i]]=1;
+                }
+            }
+            //every output's tree is fitted to the gradients at the scores from before this round
+            if(probs!=null){
+                for(int i=0;i<n;i++){
+                    softmax(scores[i],probs[i]);
+                }
+            }
+            FlatTree[] added=new FlatTree[outputs];
+            for(int k=0;k<outputs;k++){
+                for(int i=0;i<n;i++){
+                    double target=(outputs==1)?labels.id(i):(labels.id(i)==k?1:0);
+                    double h;
+                    if(outputs==1){
+                        gradient[i]=logLoss.calculateBiasGradient(scores[i][0],target);
+                        h=logLoss.calculateBiasHessian(scores[i][0],target);
+                    }
+                    else{
+                        double p=probs[i][k];
+                        gradient[i]=p-target;
+                        h=p*(1-p);
+                    }
+                    hessian[i]=Math.max(h,1e-16);
+                }
+                DecisionTreeRegressor tree=new DecisionTreeRegressor(maxdepth,minsamplesplit,-1,new Random(rng.nextLong()));
+                tree.setMaxLeafNodes(maxLeafNodes);
+                tree.setNJobs(nJobs);
+                tree.fit(bins,criterion,counts);
+                trees.add(tree);
+                added[k]=tree.getFlatTree();
+            }
+            for(int i=0;i<n;i++){
+                for(int k=0;k<outputs;k++){
+                    scores[i][k]+=learningRate*added[k].predict(X[i]);
+                }
+            }
+
+            if(valScores!=null){
+                double cost=0;
+                for(int i=0;i<valScores.length;i++){
+                    for(int k=0;k<outputs;k++){
+                        valScores[i][k]+=learningRate*added[k].predict(Xval[i]);
+                    }
+                    cost+=logLoss(valScores[i],valIds[i],proba);
+                }
+                cost/=valScores.length;
+                losses.add(cost);
+                if(cost<best-tol){
+                    best=cost;
+                    bestRounds=round+1;
+                }
+                else if(nIterNoChange>0 && round+1-bestRounds>=nIterNoChange){
+                    break;
+                }
+            }
+        }
+        if(valScores!=null && nIterNoChange>0){
+            trees=new ArrayList<>(trees.subList(0,Math.max(1,bestRounds)*outputs));
+        }
+        validationLoss=losses.stream().mapToDouble(Double::doubleValue).toArray();
+        compile();
+    }
+
+    //probabilities of a score vector written into proba (returned for chaining)
+    private static double[] softmax(double[] scores,double[] proba){
+        double max=Double.NEGATIVE_INFINITY;
+        for(double s:scores){
+            max=Math.max(max,s);
+        }
+        double sum=0;
+        for(int k=0;k<scores.length;k++){
+            proba[k]=Math.exp(scores[k]-max);
+            sum+=proba[k];
+        }
+        for(int k=0;k<scores.length;k++){
+            proba[k]/=sum;
+        }
+        return proba;
+    }
+
+    //-log p(true class); labels unseen in training count as probability 1e-15
+    private static double logLoss(double[] scores,int id,double[] proba){
+        double p;
+        if(scores.length==1){
+            double p1=LogLoss.sigmoid(scores[0]);
+            p=(id==1)?p1:(id==0?1-p1:0);
+        }
+        else{
+            p=(id>=0)?softmax(scores,proba)[id]:0;
+        }
+        return -Math.log(Math.max(p,1e-15));
+    }
+
+    private void compile(){
+        compiled=new FlatTree[trees.size()];
+        for(int i=0;i<compiled.length;i++){
+            compiled[i]=trees.get(i).getFlatTree();
+        }
+    }
+
+    //raw scores of one row, one per output
+    private double[] scores(double[] x){
+        double[] scores=baseScores.clone();
+        for(int t=0;t<compiled.length;t++){
+            scores[t%scores.length]+=learningRate*compiled[t].predict(x);
+        }
+        return scores;
+    }
+
+    //probability of every label in getClasses() order
+    public double[] predictProba(double[] x){
+        double[] scores=scores(x);
+        if(scores.length==1){
+            double p1=LogLoss.sigmoid(scores[0]);
+            return classes.length==1?new double[]{1}:new double[]{1-p1,p1};
+        }
+        return softmax(scores,new double[scores.length]);
+    }
+
+    //most probable label, ties go to the smallest
+    public int predict(double[] x){
+        double[] proba=predictProba(x);
+        int best=0;
+        for(int k=1;k<proba.length;k++){
+            if(proba[k]>proba[best]){
+                best=k;
+            }
+        }
+        return classes[best];
+    }
+
+    public int[] predict(double[][] X){
+        int[] out=new int[X.length];
+        for(int i=0;i<X.length;i++){
+            out[i]=predict(X[i]);
+        }
+        return out;
+    }
+
+    public int[] getClasses(){
+        return classes.clone();
+    }
+
+    public int getNumberOfTrees(){
+        return trees.size();
+    }
+
+    public double[] getValidationLoss(){
+        return validationLoss.clone();
+    }
+
+    public String getModelJson(){
+        return String.format("{\"classes\": %s, \"base_scores\": %s, \"learning_rate\": %s, \"trees\": [%s]}",
+                Arrays.toString(classes),Arrays.toString(baseScores),learningRate,
+                trees.stream().map(DecisionTreeRegressor::getTreeJson).collect(Collectors.joining(",")));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static GradientBoostingClassifier fromJson(Map<String, Object> modelJson){
+        int[] classes=((List<Double>)modelJson.get("classes")).stream().mapToInt(Double::intValue).toArray();
+        double[] baseScores=((List<Double>)modelJson.get("base_scores")).stream().mapToDouble(Double::doubleValue).toArray();
+        List<DecisionTreeRegressor> trees=new ArrayList<>();
+        for(Map<String, Object> treeJson:(List<Map<String, Object>>)modelJson.get("trees")){
+            trees.add(DecisionTreeRegressor.fromJson(treeJson));
+        }
+        return new GradientBoostingClassifier(classes,baseScores,(Double)modelJson.get("learning_rate"),trees);
+    }
+}
@@ -1,11 +1,25 @@
 package core.algorithms.supervised.classification;
 
+import core.algorithms.supervised.tree.BinnedMatrix;
+import core.algorithms.supervised.tree.FeatureSampler;
+import core.algorithms.supervised.tree.ClassLabels;
+import core.algorithms.supervised.tree.FlatTree;
+import core.algorithms.supervised.tree.OutOfBag;
+import core.algorithms.supervised.tree.PresortedColumns;
+import core.algorithms.supervised.tree.QuickScorer;
+import core.algorithms.supervised.tree.ScoringMode;
+import core.algorithms.supervised.tree.SparseMatrix;
+import core.algorithms.supervised.tree.TreeCompiler;
+import core.algorithms.supervised.tree.TreePredictor;
+import core.utils.ParallelRunner;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 public class RandomForestClassifier {
@@ -13,7 +27,34 @@ public class RandomForestClassifier {
     private int maxdepth;
     private int minsamplesplit;
     private List<DecisionTreeClassifier> trees;  //stores all decision trees
-    private Random rand;   //used for bootstrap sampling
+    private FlatTree[] compiled=new FlatTree[0]; //flat form of every tree, used by predict
+    private QuickScorer quickScorer; //built on first QUICK_SCORER predict
+    private TreePredictor generated; //built on first COMPILED predict
+    private int[] classes=new int[0]; //sorted labels the trees can vote for, index = slot in the vote array
+    private String criterion="gini"; //split criterion of every tree: "gini" or "entropy"
+    private int maxLeafNodes=-1; //passed to every tree
+    private boolean bootstrap=true; //false = every tree trains on all rows
+    private boolean presort=true;   //exact trees share one presorted index of X
+    private String splitter="best"; //"random" grows extremely randomized trees
+    private String maxFeatures; //null = every feature at every split
+    private double minImpurityDecrease;
+    private int minSamplesLeaf=1;
+    private double ccpAlpha; //cost-complexity pruning of every tree, 0 = none
+    private int[] categoricalFeatures; //columns split by category subsets, null = all numeric
+
+    //out-of-bag tracking, filled tree by tree during fit when oobScore or early stopping is on
+    private boolean oobScore;
+    private int checkEvery;        //early stopping: trees added between two OOB checks, 0 = off
+    private int nIterNoChange;
+    private double tol;
+    private int[] oobVotes;        //row*k+id: votes for class id from trees the row was out of bag for
+    private ClassLabels oobLabels; //labels of the last fit, ids index oobVotes
+    private Object oobData;        //X (dense or sparse) and y the votes belong to, addTrees on the same X and y keeps adding to them
+    private int[] oobY;
+    private long seed;     //every tree gets its own bootstrap stream split from this seed
+    private int maxBins;   //0 = exact trees, otherwise every tree trains on histograms
+    private int nJobs=1;   //threads used by fit, -1 = all cores
+    private ForkJoinPool pool;   //optional pool to train on instead of creating one per fit
 
 
     public RandomForestClassifier(int numtrees,int maxdepth,int minsamplesplit){
@@ -21,52 +62,366 @@ public class RandomForestClassifier {
         this.maxdepth=maxdepth;
         this.minsamplesplit=minsamplesplit;
         this.trees=new ArrayList<>();
-        this.rand=new Random();
+        this.seed=new Random().nextLong();
     }
 
-    private RandomForestClassifier(List<DecisionTreeClassifier> trees) {
-        this.trees = trees;
+    protected RandomForestClassifier(List<DecisionTreeClassifier> trees) {
+        this.trees = new ArrayList<>(trees);
         this.numtrees = trees.size();
+        //the loaded json does not record how the trees were grown: maxdepth and minsamplesplit
+        //stay unknown (-1) and fit or addTrees refuse to run until both are set
+        this.maxdepth = -1;
+        this.minsamplesplit = -1;
+        this.seed = new Random().nextLong();
+        compile();
+    }
+
+    //depth limit of trees grown from now on (fit or addTrees), trees already in the forest keep theirs
+    public void setMaxDepth(int maxdepth){
+        this.maxdepth=maxdepth;
+    }
+
+    public void setMinSamplesSplit(int minsamplesplit){
+        this.minsamplesplit=minsamplesplit;
+    }
+
+    //quantize X once into at most maxBins bins (<=256) and train every tree on histograms
+    public void setMaxBins(int maxBins){
+        this.maxBins=maxBins;
+    }
+
+    //fixed seed: same forest for the same data, whatever nJobs is
+    public void setRandomState(long seed){
+        this.seed=seed;
+    }
+
+    //n_jobs semantics: positive = that many threads, -1 = all cores, -2 = all but one
+    public void setNJobs(int nJobs){
+        this.nJobs=nJobs;
+    }
+
+    public void setPool(ForkJoinPool pool){
+        this.pool=pool;
     }
 
+    public void setCriterion(String criterion){
+        this.criterion=criterion;
+    }
+
+    //leaf budget of every tree (grown best-first), -1 = no limit
+    public void setMaxLeafNodes(int maxLeafNodes){
+        this.maxLeafNodes=maxLeafNodes;
+    }
+
+    public void setMinImpurityDecrease(double minImpurityDecrease){
+        this.minImpurityDecrease=minImpurityDecrease;
+    }
+
+    public void setMinSamplesLeaf(int minSamplesLeaf){
+        this.minSamplesLeaf=minSamplesLeaf;
+    }
+
+    public void setCcpAlpha(double ccpAlpha){
+        this.ccpAlpha=ccpAlpha;
+    }
+
+    //category-code columns of every tree, see DecisionTreeClassifier.setCategoricalFeatures
+    public void setCategoricalFeatures(int... features){
+        this.categoricalFeatures=(features==null || features.length==0)?null:features.clone();
+    }
+
+    //exact dense fits sort every feature of X once up front and all trees read large nodes in that
+    //order instead of sorting them again (see PresortedColumns). On by default: the index is an int
+    //per value of X, half as much memory again as X itself, held until the fit returns; false skips it
+    public void setPresort(boolean presort){
+        this.presort=presort;
+    }
+
+    //false = every tree sees every row once instead of a bootstrap sample
+    public void setBootstrap(boolean bootstrap){
+        this.bootstrap=bootstrap;
+    }
+
+    //split search of every tree, see DecisionTreeClassifier.setSplitter
+    public void setSplitter(String splitter){
+        this.splitter=splitter;
+    }
+
+    //features tried at each split of every tree: "sqrt", "log2", a fraction like "0.3" or a count like "12"; null = all
+    public void setMaxFeatures(String maxFeatures){
+        FeatureSampler.resolve(maxFeatures,1); //rejects unknown settings now rather than at fit
+        this.maxFeatures=maxFeatures;
+    }
+
+    //keep running out-of-bag votes per row during fit, read back with getOobScore
+    public void setOobScore(boolean oobScore){
+        this.oobScore=oobScore;
+    }
+
+    //grow in blocks of checkEvery trees and stop once the out-of-bag error rate has not improved by more
+    //than tol for nIterNoChange checks in a row (numtrees stays the upper bound)
+    public void setEarlyStopping(int checkEvery,int nIterNoChange,double tol){
+        if(checkEvery<1 || nIterNoChange<1){
+            throw new IllegalArgumentException("checkEvery and nIterNoChange must be at least 1");
+        }
+        this.checkEvery=checkEvery;
+        this.nIterNoChange=nIterNoChange;
+        this.tol=tol;
+    }
+
+    //replaces the forest with numtrees new trees
     public void fit ( double[][] X,int[] y){
+        trees.clear();
+        oobVotes=null;
+        grow(X,null,y,0,numtrees);
+    }
+
+    //sparse X: every tree searches only the non-zeros (see SparseSplitEngine), maxBins does not apply
+    public void fit(SparseMatrix X,int[] y){
+        trees.clear();
+        oobVotes=null;
+        grow(null,X,y,0,numtrees);
+    }
+
+    //warm start: grows count more trees on X,y and appends them, the trees already in the forest
+    //(fitted or loaded with fromJson) are kept as they are. X,y may be new data, even with new labels.
+    //With the same seed, fit followed by addTrees on the same data grows the same trees as one fit
+    //of the combined size. A loaded forest needs setMaxDepth and setMinSamplesSplit first, the
+    //other settings start at the defaults of a new forest
+    public void addTrees(double[][] X,int[] y,int count){
+        grow(X,null,y,trees.size(),count);
+    }
+
+    public void addTrees(SparseMatrix X,int[] y,int count){
+        grow(null,X,y,trees.size(),count);
+    }
+
+    //sharded training: replaces the forest with trees firstTree..firstTree+count-1 of the seed only.
+    //forests grown this way for consecutive ranges, concatenated in order, are the forest one fit
+    //of the whole range would grow (see tree.distributed.ShardedForestTrainer)
+    public void fitShard(double[][] X,int[] y,int firstTree,int count){
+        trees.clear();
+        oobVotes=null;
+        grow(X,null,y,firstTree,count);
+    }
+
+    //exactly one of X and sparse is set
+    private void grow(double[][] X,SparseMatrix sparse,int[] y,int first,int count){
+        if(maxdepth<0 || minsamplesplit<0){
+            throw new IllegalStateException("Growth settings of a forest loaded from json are unknown, call setMaxDepth and setMinSamplesSplit first");
+        }
         //X -> 2D array of input features ( rows=samples,cols=features)
         //y -> labels (0 or 1)
-        int numSamples=X.length;  //number of rows
-        int numFeatures=X[0].length;   //no of cols (features) 
+        //labels encoded to dense ids and X binned once for the whole forest, shared by every tree
+        ClassLabels labels=new ClassLabels(y);
+        if(sparse!=null && splitter.equals("random")){
+            throw new IllegalArgumentException("The random splitter needs a dense X");
+        }
+        BinnedMatrix bins=(X!=null && maxBins>0 && splitter.equals("best"))?BinnedMatrix.fromMatrix(X,maxBins):null;
+        //sorted once here instead of at every node of every tree
+        PresortedColumns presorted=(X!=null && bins==null && presort && splitter.equals("best"))?PresortedColumns.of(X,nJobs,pool):null;
+        int numSamples=(sparse!=null)?sparse.numRows():X.length;
 
-        for(int i=0;i<numtrees;i++){
-            //bootstrap sampling
-            //randomly sampled features
-            double[][] Xsample=new double[numSamples][];
-            int[] ysample=new int[numSamples];
+        SplittableRandom[] streams=streams(first,count);
 
+        boolean trackOob=oobScore || checkEvery>0;
+        if(trackOob && !bootstrap){
+            throw new IllegalStateException("Out-of-bag estimates need bootstrap sampling");
+        }
+        if(!trackOob){
+            oobVotes=null;
+        }
+        //OOB votes carry over only while the forest keeps growing on the same rows
+        else if(oobVotes==null || (sparse!=null?sparse:X)!=oobData || y!=oobY){
+            oobVotes=new int[numSamples*labels.numClasses()];
+            oobLabels=labels;
+            oobData=(sparse!=null)?sparse:X;
+            oobY=y;
+        }
+
+        //trees are trained in blocks and their votes added in tree order, so the OOB votes
+        //(and where early stopping stops) do not depend on the thread count
+        int block=(checkEvery>0)?checkEvery:count;
+        double bestError=Double.MAX_VALUE;
+        int noChange=0;
+        for(int from=0;from<count;from+=block){
+            int offset=from;
+            List<Grown> grown=ParallelRunner.run(Math.min(block,count-from),i->fitTree(X,sparse,labels,bins,presorted,streams[offset+i],trackOob),nJobs,pool);
+            for(Grown g:grown){
+                trees.add(g.tree);
+                if(trackOob){
+                    addOob(g);
+                }
+            }
+            if(checkEvery>0){
+                double error=1-oobAccuracy();
+                if(error<bestError-tol){
+                    bestError=error;
+                    noChange=0;
+                }
+                else if(++noChange>=nIterNoChange){
+                    break;
+                }
+            }
+        }
+        compile();
+    }
+
+    //one independent stream per tree, split in tree order so results don't depend on scheduling;
+    //tree t always gets the t-th stream of the seed, whether it was grown by fit or by addTrees
+    private SplittableRandom[] streams(int first,int count){
+        SplittableRandom master=new SplittableRandom(seed);
+        for(int i=0;i<first;i++){
+            master.split();
+        }
+        SplittableRandom[] streams=new SplittableRandom[count];
+        for(int i=0;i<count;i++){
+            streams[i]=master.split();
+        }
+        return streams;
+    }
+
+    //a trained tree with its out-of-bag rows and the class ids it predicts for them (null when not tracked)
+    private static class Grown{
+        DecisionTreeClassifier tree;
+        long[] oob;
+        int[] oobPredictions;
+    }
+
+    private void addOob(Grown g){
+        int k=oobLabels.numClasses();
+        int n=0;
+        for(int row=OutOfBag.next(g.oob,0);row>=0;row=OutOfBag.next(g.oob,row+1)){
+            oobVotes[row*k+g.oobPredictions[n++]]++;
+        }
+    }
+
+    //share of rows voted for at least once whose OOB majority (ties to the smallest label) is their label
+    private double oobAccuracy(){
+        int k=oobLabels.numClasses();
+        int covered=0,correct=0;
+        for(int row=0;row<oobLabels.numRows();row++){
+            int best=-1,max=0;
+            for(int c=0;c<k;c++){
+                if(oobVotes[row*k+c]>max){
+                    max=oobVotes[row*k+c];
+                    best=c;
+                }
+            }
+            if(best>=0){
+                covered++;
+                if(best==oobLabels.id(row)){
+                    correct++;
+                }
+            }
+        }
+        return covered==0?0:(double)correct/covered;
+    }
+
+    //accuracy of the out-of-bag votes of the last fit, over rows left out by at least one tree
+    public double getOobScore(){
+        if(oobVotes==null){
+            throw new IllegalStateException("Out-of-bag score was not tracked, call setOobScore(true) before fit");
+        }
+        return oobAccuracy();
+    }
+
+    private void compile(){
+        compiled=new FlatTree[trees.size()];
+        for(int i=0;i<compiled.length;i++){
+            compiled[i]=trees.get(i).getFlatTree();
+        }
+        quickScorer=null;
+        generated=null;
+
+        //every label found in a leaf, so trees loaded from json vote the same way as fitted ones
+        int count=0;
+        for(FlatTree tree:compiled){
+            count+=tree.size();
+        }
+        int[] found=new int[count];
+        int k=0;
+        for(FlatTree tree:compiled){
+            for(int n=0;n<tree.size();n++){
+                if(tree.isLeaf(n)){
+                    found[k++]=(int)tree.leafValue(n);
+                }
+            }
+        }
+        classes=Arrays.stream(found,0,k).distinct().sorted().toArray();
+    }
+
+    private Grown fitTree(double[][] X,SparseMatrix sparse,ClassLabels labels,BinnedMatrix bins,PresortedColumns presorted,SplittableRandom rng,boolean trackOob){
+        //bootstrap sampling as a multiplicity per row of the original X, nothing is copied
+        int numSamples=(sparse!=null)?sparse.numRows():X.length;  //number of rows
+        int[] counts=null;
+        if(bootstrap){
+            counts=new int[numSamples];
             for(int j=0;j<numSamples;j++){
-                int idx=rand.nextInt(numSamples);
-                Xsample[j]=Arrays.copyOf(X[idx],numFeatures); // safer copy
-                ysample[j]=y[idx];
+                counts[rng.nextInt(numSamples)]++;
             }
+        }
 
-            //create n train tree
-            DecisionTreeClassifier tree=new DecisionTreeClassifier(maxdepth,minsamplesplit);
-            tree.fit(Xsample,ysample);
-            trees.add(tree);
+        //create n train tree
+        DecisionTreeClassifier tree=new DecisionTreeClassifier(maxdepth,minsamplesplit);
+        tree.setCriterion(criterion);
+        tree.setMaxLeafNodes(maxLeafNodes);
+        tree.setSplitter(splitter);
+        tree.setMaxFeatures(maxFeatures);
+        tree.setRandomState(rng.nextLong());
+        tree.setMinImpurityDecrease(minImpurityDecrease);
+        tree.setMinSamplesLeaf(minSamplesLeaf);
+        tree.setCcpAlpha(ccpAlpha);
+        tree.setCategoricalFeatures(categoricalFeatures);
+        tree.setPresorted(presorted);
+        if(sparse!=null){
+            tree.fit(sparse,labels,counts);
+        }
+        else if(bins!=null){
+            tree.fit(bins,labels,counts);
+        }
+        else{
+            tree.fit(X,labels,counts);
+        }
+        tree.setPresorted(null);   //the index is only needed while growing, the forest keeps no reference to it
+        Grown grown=new Grown();
+        grown.tree=tree;
+        if(trackOob){
+            //predicted here so the OOB pass runs on the same thread as the tree; leaves hold labels
+            //of this fit, so each maps back to its dense id
+            int[] classes=labels.getClasses();
+            grown.oob=OutOfBag.fromCounts(counts);
+            grown.oobPredictions=new int[OutOfBag.count(grown.oob)];
+            FlatTree flat=tree.getFlatTree();
+            int n=0;
+            for(int row=OutOfBag.next(grown.oob,0);row>=0;row=OutOfBag.next(grown.oob,row+1)){
+                grown.oobPredictions[n++]=Arrays.binarySearch(classes,(int)((sparse!=null)?flat.predict(sparse,row):flat.predict(X[row])));
+            }
         }
+        return grown;
     }
+
     //predict one row by majority vote
     public int predict(double[] x){
-        Map<Integer,Integer> votes=new HashMap<>();
-        for(DecisionTreeClassifier tree: trees){
-            int pred=tree.predict(x);
-            votes.put(pred,votes.getOrDefault(pred,0)+1);
+        return predict(x,new int[classes.length]);
+    }
+
+    //votes is scratch with one slot per class, reused across rows
+    private int predict(double[] x,int[] votes){
+        Arrays.fill(votes,0);
+        for(FlatTree tree: compiled){
+            votes[Arrays.binarySearch(classes,(int)tree.predict(x))]++;
         }
+        return majorityvote(votes);
+    }
 
+    //class with the most votes, ties go to the smallest label
+    private int majorityvote(int[] votes){
         int majorityclass=-1,maxvotes=0;
-        for(int cls:votes.keySet()){
-            int count=votes.get(cls);
-            if(count>maxvotes){
-                maxvotes=count;
-                majorityclass=cls;
+        for(int c=0;c<votes.length;c++){
+            if(votes[c]>maxvotes){
+                maxvotes=votes[c];
+                majorityclass=classes[c];
             }
         }
         return majorityclass;
@@ -74,15 +429,95 @@ public class RandomForestClassifier {
 
     //predict multiple rows
     public int[] predict(double[][] X){
+        int[] votes=new int[classes.length];
+        int[] predictions=new int[X.length];
+        for(int i=0;i<X.length;i++){
+            predictions[i]=predict(X[i],votes);
+        }
+        return predictions;
+    }
+
+    public int[] predict(SparseMatrix X){
+        int[] votes=new int[classes.length];
+        int[] predictions=new int[X.numRows()];
+        for(int i=0;i<predictions.length;i++){
+            Arrays.fill(votes,0);
+            for(FlatTree tree: compiled){
+                votes[Arrays.binarySearch(classes,(int)tree.predict(X,i))]++;
+            }
+            predictions[i]=majorityvote(votes);
+        }
+        return predictions;
+    }
+
+    //collapses redundant splits in every tree (see compact of the tree class), predictions do not change.
+    //returns how many nodes were removed
+    public int compact(){
+        int removed=0;
+        for(DecisionTreeClassifier tree:trees){
+            removed+=tree.compact();
+        }
+        compile();
+        return removed;
+    }
+
+    //flat form of every tree in forest order
+    public FlatTree[] getFlatTrees(){
+        return compiled.clone();
+    }
+
+    //whole forest as generated bytecode, falls back to walking the flat trees if it is too large for a class file
+    public TreePredictor compileBytecode(){
+        TreePredictor predictor=generated;
+        if(predictor==null){
+            predictor=TreeCompiler.compile(compiled);
+            generated=predictor;
+        }
+        return predictor;
+    }
+
+    //same predictions as predict(X), QUICK_SCORER avoids per-node branches on large batches,
+    //COMPILED runs the trees as generated code. Forests with categorical splits ignore QUICK_SCORER
+    public int[] predict(double[][] X,ScoringMode mode){
+        if(mode==ScoringMode.TREE_WALK || (mode==ScoringMode.QUICK_SCORER && !QuickScorer.supports(compiled))){
+            return predict(X);
+        }
+        QuickScorer scorer=null;
+        long[] bits=null;
+        TreePredictor predictor=null;
+        if(mode==ScoringMode.QUICK_SCORER){
+            scorer=quickScorer;
+            if(scorer==null){
+                scorer=new QuickScorer(compiled);
+                quickScorer=scorer;
+            }
+            bits=scorer.newBits();
+        }
+        else{
+            predictor=compileBytecode();
+        }
+        double[] labels=new double[compiled.length];
+        int[] votes=new int[classes.length];
         int[] predictions=new int[X.length];
         for(int i=0;i<X.length;i++){
-            predictions[i]=predict(X[i]);
+            if(scorer!=null){
+                scorer.treeValues(X[i],bits,labels);
+            }
+            else{
+                predictor.treeValues(X[i],labels);
+            }
+            Arrays.fill(votes,0);
+            for(double label:labels){
+                votes[Arrays.binarySearch(classes,(int)label)]++;
+            }
+            predictions[i]=majorityvote(votes);
         }
         return predictions;
     }
 
+    //trees actually in the forest (fewer than requested when early stopping ended fit)
     public int getNumberOfTrees() {
-        return numtrees;
+        return trees.size();
     }
 
     public String getForestJson() {
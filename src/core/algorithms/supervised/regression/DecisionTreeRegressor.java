@@ -1,18 +1,49 @@
 package core.algorithms.supervised.regression;
 
+import core.algorithms.supervised.tree.BinnedMatrix;
+import core.algorithms.supervised.tree.CategorySet;
+import core.algorithms.supervised.tree.FeatureSampler;
+import core.algorithms.supervised.tree.FlatTree;
+import core.algorithms.supervised.tree.TreeCompiler;
+import core.algorithms.supervised.tree.TreePredictor;
+import core.algorithms.supervised.tree.HistogramSplitEngine;
+import core.algorithms.supervised.tree.PresortedColumns;
+import core.algorithms.supervised.tree.RandomSplitEngine;
+import core.algorithms.supervised.tree.SplitCriterion;
+import core.algorithms.supervised.tree.SparseMatrix;
+import core.algorithms.supervised.tree.SparseSplitEngine;
+import core.algorithms.supervised.tree.SplitEngine;
+import core.algorithms.supervised.tree.TreeBuilder;
+import core.algorithms.supervised.tree.TreePruning;
+import core.algorithms.supervised.tree.VarianceCriterion;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Arrays;
 import java.util.Map;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 public class DecisionTreeRegressor {
     private int maxdepth;
     private int minsamplesplit;
     private Node root;
+    private FlatTree flat;     // compiled copy of root used by predict
 
-    private int maxFeatures;   // how many features to consider at each split
+    private String maxFeatures; // features to consider at each split: null = all, "sqrt", "log2", "0.3", "12"
     private Random rand;       // random generator for feature sampling
+    private int maxBins;       // 0 = exact thresholds, otherwise histogram mode with at most this many bins
+    private int nJobs=1;       // threads growing the tree, -1 = all cores
+    private ForkJoinPool pool; // optional pool to grow on instead of creating one per fit
+    private int maxLeafNodes=-1;       // -1 = grow depth-first without a leaf budget
+    private String splitter="best";    // "best" or "random"
+    private double minImpurityDecrease; // 0 = take any split found
+    private int minSamplesLeaf=1;      // samples each side of a split must keep
+    private double ccpAlpha;           // cost-complexity pruning after fit, 0 = none
+    private int[] categoricalFeatures; // columns holding category codes, null = all numeric
+    private PresortedColumns presorted; // shared feature order of X, null = sort at every node
 
     public DecisionTreeRegressor(int maxdepth,int minsamplesplit){
         this(maxdepth, minsamplesplit, -1, new Random());
@@ -21,12 +52,12 @@ public class DecisionTreeRegressor {
     public DecisionTreeRegressor(int maxdepth,int minsamplesplit,int maxFeatures,Random rand){
         this.maxdepth=maxdepth;
         this.minsamplesplit=minsamplesplit;
-        this.maxFeatures=maxFeatures; // -1 means all features
+        this.maxFeatures=(maxFeatures==-1)?null:String.valueOf(maxFeatures); // -1 means all features
         this.rand=rand;
     }
 
     private DecisionTreeRegressor(Node root) {
-        this.root = root;
+        setRoot(root);
     }
 
     private static class Node{
@@ -34,8 +65,11 @@ public class DecisionTreeRegressor {
         double threshold;
         Node left;
         Node right;
-        double value;
+        double value;      // mean of the node's rows, kept on splits too so pruning can turn them into leaves
         boolean isleaf;
+        long[] categories; // categorical split: codes going left (CategorySet), null = threshold split
+        double weight=Double.NaN; // fit statistics for pruning, NaN on trees loaded from json
+        double impurity;
 
         Node(double value){
             this.value=value;
@@ -51,190 +85,312 @@ public class DecisionTreeRegressor {
         }
     }
 
-    double mse(double[] y){
-        double mean=0,sum=0,error=0;
-        for(double val:y){
-            sum+=val;
-        }
-        mean=sum/y.length;
-        sum=0;
-        for(double val:y){
-            sum+=(val-mean)*(val-mean);
+    //quantize features into at most maxBins bins (<=256) and search splits on histograms
+    public void setMaxBins(int maxBins){
+        this.maxBins=maxBins;
+    }
+
+    //n_jobs semantics: positive = that many threads, -1 = all cores, -2 = all but one
+    public void setNJobs(int nJobs){
+        this.nJobs=nJobs;
+    }
+
+    public void setPool(ForkJoinPool pool){
+        this.pool=pool;
+    }
+
+    //grow best-first (largest impurity decrease first) until the tree has this many leaves, -1 = no limit
+    public void setMaxLeafNodes(int maxLeafNodes){
+        this.maxLeafNodes=maxLeafNodes;
+    }
+
+    //split only when (node weight/total weight)*(impurity decrease) reaches this
+    public void setMinImpurityDecrease(double minImpurityDecrease){
+        this.minImpurityDecrease=minImpurityDecrease;
+    }
+
+    //"best" = exact search over every boundary, "random" = one random threshold per feature (ExtraTrees).
+    //the random splitter works on the raw values, maxBins is ignored with it
+    public void setSplitter(String splitter){
+        if(!splitter.equals("best") && !splitter.equals("random")){
+            throw new IllegalArgumentException("Unknown splitter: "+splitter);
         }
-        return sum/y.length;
+        this.splitter=splitter;
     }
 
-    public void fit(double[][] x,double[] y){
-        root=buildtree(x,y,0);
+    //features tried at each split: "sqrt", "log2", a fraction like "0.3", a count like "12", null = all
+    public void setMaxFeatures(String maxFeatures){
+        FeatureSampler.resolve(maxFeatures,1); //rejects unknown settings now rather than at fit
+        this.maxFeatures=maxFeatures;
     }
 
-    private Node buildtree(double[][] x,double[] y,int depth){
-        if(depth>=maxdepth || y.length<minsamplesplit){
-            double sum=0;
-            for(double val:y){
-                sum+=val;
-            }
-            return new Node(sum/y.length);
+    //splits leaving fewer samples than this on either side are never taken
+    public void setMinSamplesLeaf(int minSamplesLeaf){
+        if(minSamplesLeaf<1){
+            throw new IllegalArgumentException("min_samples_leaf must be at least 1: "+minSamplesLeaf);
         }
+        this.minSamplesLeaf=minSamplesLeaf;
+    }
 
-        SplitResult bestsplit=findbestsplit(x,y);
-        if(bestsplit==null){
-            double sum=0;
-            for(double val:y){
-                sum+=val;
-            }
-            return new Node(sum/y.length);
+    //minimal cost-complexity pruning with this alpha after every fit, 0 = keep the grown tree
+    public void setCcpAlpha(double ccpAlpha){
+        if(ccpAlpha<0){
+            throw new IllegalArgumentException("ccp_alpha must be non-negative: "+ccpAlpha);
         }
+        this.ccpAlpha=ccpAlpha;
+    }
 
-        Node left=buildtree(bestsplit.Xleft,bestsplit.yleft, depth+1);
-        Node right=buildtree(bestsplit.Xright,bestsplit.yright, depth+1);
+    //these columns hold integer category codes (>= 0) and are split by subsets of codes, ordered by
+    //mean target, instead of thresholds; no one-hot encoding needed. Exact dense search only: not
+    //with the random splitter, maxBins or sparse X. Codes unseen in training go right
+    public void setCategoricalFeatures(int... features){
+        this.categoricalFeatures=(features==null || features.length==0)?null:features.clone();
+    }
 
-        return new Node(bestsplit.featureidx,bestsplit.threshold,left,right);
+    //exact search on dense X reads large nodes in feature order from this index instead of sorting them.
+    //it must be built on the X passed to fit; a forest builds one for all its trees
+    public void setPresorted(PresortedColumns presorted){
+        this.presorted=presorted;
     }
 
-    public double predict_row(double[] x){
-        return traverse(root,x);
+    private void requireNumeric(){
+        if(categoricalFeatures!=null){
+            throw new IllegalArgumentException("Categorical features need the best splitter on dense X without maxBins");
+        }
     }
 
-    public double traverse(Node node,double[] x){
-        if(node.isleaf){
-            return node.value;
+    public void fit(double[][] x,double[] y){
+        fit(x,y,null);
+    }
+
+    //sampleCounts[i] = how many times row i is used (e.g. a bootstrap), null = every row once.
+    //rows are weighted in place, x and y are never copied
+    public void fit(double[][] x,double[] y,int[] sampleCounts){
+        if(splitter.equals("random")){
+            requireNumeric();
+            setRoot(buildtree(new RandomSplitEngine(x,new VarianceCriterion(y),sampleCounts)));
+            return;
+        }
+        if(maxBins>0){
+            fit(BinnedMatrix.fromMatrix(x,maxBins),y,sampleCounts);
+            return;
         }
-        if(x[node.featureidx]<node.threshold){
-            return traverse(node.left,x);
+        SplitEngine engine=new SplitEngine(x,new VarianceCriterion(y),true,sampleCounts);
+        if(categoricalFeatures!=null){
+            engine.setCategoricalFeatures(categoricalFeatures);
         }
-        else{
-            return traverse(node.right, x);
+        if(presorted!=null){
+            engine.setPresorted(presorted);
         }
+        setRoot(buildtree(engine));
     }
 
-    public double[] predict(double[][] x){
-        double[] predictions=new double[x.length];
-        for(int i=0;i<x.length;i++){
-            predictions[i]=predict_row(x[i]);
-        }
-        return predictions;
+    //train on an already quantized matrix, thresholds are taken from its bin edges
+    public void fit(BinnedMatrix bins,double[] y){
+        fit(bins,y,null);
     }
 
-    private class SplitResult{
-        int featureidx;
-        double threshold;
-        double[][] Xleft,Xright;
-        double[] yleft,yright;
+    public void fit(BinnedMatrix bins,double[] y,int[] sampleCounts){
+        fit(bins,new VarianceCriterion(y),sampleCounts);
+    }
 
-        SplitResult(int featureidx,double threshold,double[][] Xleft,double[] yleft,double[][] Xright,double[] yright){
-            this.featureidx=featureidx;
-            this.threshold=threshold;
-            this.Xleft=Xleft;
-            this.yleft=yleft;
-            this.Xright=Xright;
-            this.yright=yright;
+    //sparse X: exact search over the non-zeros, the zeros of a feature are one bucket.
+    //The bucket's sums are the node's minus the non-zeros', so a score can differ from the dense fit
+    //in the last bits and on a near tie the tree may split elsewhere than fit(double[][]) would.
+    //maxBins does not apply here, the random splitter needs dense X
+    public void fit(SparseMatrix x,double[] y){
+        fit(x,y,null);
+    }
+
+    public void fit(SparseMatrix x,double[] y,int[] sampleCounts){
+        if(splitter.equals("random")){
+            throw new IllegalArgumentException("The random splitter needs a dense X");
         }
+        requireNumeric();
+        setRoot(buildtree(new SparseSplitEngine(x,new VarianceCriterion(y),true,sampleCounts)));
     }
 
-    private SplitResult findbestsplit(double[][] X,double[] y){
-        int numSamples=X.length;
-        int numFeatures=X[0].length;
+    //histogram tree on any regression criterion, leaves hold its leafValue
+    //(e.g. GradientCriterion: gradient boosting fits each round's tree this way)
+    public void fit(BinnedMatrix bins,SplitCriterion criterion,int[] sampleCounts){
+        requireNumeric();
+        SplitEngine engine=new HistogramSplitEngine(bins,criterion,sampleCounts);
+        setRoot(buildtree(engine));
+    }
 
-        //pick random subset of features
-        int featuresToTry=(maxFeatures==-1)?numFeatures:Math.min(maxFeatures,numFeatures);
-        List<Integer> featureIndices=new ArrayList<>();
-        while(featureIndices.size()<featuresToTry){
-            int f=rand.nextInt(numFeatures);
-            if(!featureIndices.contains(f)){
-                featureIndices.add(f);
+    //grown without recursion by TreeBuilder, a node is a range [start,end) of the engine's row index
+    private Node buildtree(SplitEngine engine){
+        int featuresToTry=FeatureSampler.resolve(maxFeatures,engine.numFeatures());
+        TreeBuilder.Grower<Node> grower=new TreeBuilder.Grower<Node>(){
+            public boolean isLeaf(double[] stats,int depth){
+                return depth>=maxdepth || stats[0]<minsamplesplit;
             }
+            public int features(int[] features,SplittableRandom rng){
+                return FeatureSampler.sample(features,featuresToTry,rng);
+            }
+            public Node leaf(double value,double weight,double impurity){
+                return withStats(new Node(value),value,weight,impurity);
+            }
+            public Node split(int feature,double threshold,long[] categories,Node left,Node right,double value,double weight,double impurity){
+                Node node=new Node(feature,threshold,left,right);
+                node.categories=categories;
+                return withStats(node,value,weight,impurity);
+            }
+        };
+        engine.setMinSamplesLeaf(minSamplesLeaf);
+        TreeBuilder<Node> builder=new TreeBuilder<>(engine,grower);
+        builder.setMaxLeafNodes(maxLeafNodes);
+        builder.setMinImpurityDecrease(minImpurityDecrease);
+        Node grown=builder.build(new SplittableRandom(rand.nextLong()),nJobs,pool);
+        if(ccpAlpha>0){
+            collapse(TreePruning.costComplexity(grown,VIEW,ccpAlpha),false);
         }
+        return grown;
+    }
 
-        double bestmse=Double.MAX_VALUE; 
-        SplitResult bestsplit=null;
+    private static Node withStats(Node node,double value,double weight,double impurity){
+        node.value=value;
+        node.weight=weight;
+        node.impurity=impurity;
+        return node;
+    }
 
-        // loop only over sampled features
-        for(int feature:featureIndices){
-            double[] featurevalues=new double[numSamples];
-            for(int i=0;i<numSamples;i++){
-                featurevalues[i]=X[i][feature];
-            }
-            Arrays.sort(featurevalues);
-
-            //use midpoints between values
-            for(int t=1;t<featurevalues.length;t++){
-                double threshold=(featurevalues[t-1]+featurevalues[t])/2.0;
-
-                List<double[]> leftXlist=new ArrayList<>();
-                List<Double> leftYlist=new ArrayList<>();
-                List<double[]> rightXlist=new ArrayList<>();
-                List<Double> rightYlist=new ArrayList<>();
-                
-                for(int i=0;i<numSamples;i++){
-                    if(X[i][feature]<threshold){
-                        leftXlist.add(X[i]);
-                        leftYlist.add(y[i]);
-                    }
-                    else{
-                        rightXlist.add(X[i]);
-                        rightYlist.add(y[i]);
-                    }
-                }
+    //cost-complexity prune the fitted tree: the weakest links are cut while their effective alpha <= alpha
+    public void prune(double alpha){
+        collapse(TreePruning.costComplexity(root,VIEW,alpha),false);
+        setRoot(root);
+    }
 
-                if(leftYlist.size()==0 || rightYlist.size()==0){
-                    continue;
-                }
+    //{effective alphas, total leaf impurity after pruning at each} of the fitted tree, to pick an alpha
+    public double[][] costComplexityPruningPath(){
+        return TreePruning.pruningPath(root,VIEW);
+    }
 
-                double[] leftY=new double[leftYlist.size()];
-                for(int i=0;i<leftYlist.size();i++){
-                    leftY[i]=leftYlist.get(i);
-                }
+    //collapses splits whose leaves all predict the same value, predictions do not change.
+    //returns how many nodes were removed
+    public int compact(){
+        int before=flat.size();
+        collapse(TreePruning.redundantSplits(root,VIEW),true);
+        setRoot(root);
+        return before-flat.size();
+    }
 
-                double[] rightY=new double[rightYlist.size()];
-                for(int i=0;i<rightYlist.size();i++){
-                    rightY[i]=rightYlist.get(i);
+    //turns every node in subtrees into a leaf; uniform = use the value of its (identical) leaves
+    private static void collapse(List<Node> subtrees,boolean uniform){
+        for(Node node:subtrees){
+            if(uniform){
+                Node leaf=node;
+                while(!leaf.isleaf){
+                    leaf=leaf.left;
                 }
+                node.value=leaf.value;
+            }
+            node.isleaf=true;
+            node.left=node.right=null;
+        }
+    }
 
-                double mseleft=mse(leftY);
-                double mseright=mse(rightY);
+    private static final TreePruning.View<Node> VIEW=new TreePruning.View<Node>(){
+        public boolean isLeaf(Node node){ return node.isleaf; }
+        public int feature(Node node){ return node.featureidx; }
+        public double threshold(Node node){ return node.threshold; }
+        public Node left(Node node){ return node.left; }
+        public Node right(Node node){ return node.right; }
+        public double value(Node node){ return node.value; }
+        public double weight(Node node){ return node.weight; }
+        public double impurity(Node node){ return node.impurity; }
+        public long[] categories(Node node){ return node.categories; }
+    };
+
+    //every change of the tree goes through here so the flat copy never goes stale
+    private void setRoot(Node root){
+        this.root=root;
+        this.flat=FlatTree.compile(root,VIEW);
+    }
 
-                double weightedmse=((double) leftY.length/numSamples) * mseleft + ((double) rightY.length / numSamples)* mseright;
+    public FlatTree getFlatTree(){
+        return flat;
+    }
 
-                if(weightedmse<bestmse){
-                    bestmse=weightedmse;
-                    double[][] Xleft=leftXlist.toArray(new double[0][]);
-                    double[][] Xright=rightXlist.toArray(new double[0][]);
+    //the tree as generated bytecode, mean(x) of the result is the prediction for x
+    public TreePredictor compileBytecode(){
+        return TreeCompiler.compile(new FlatTree[]{flat});
+    }
 
-                    bestsplit=new SplitResult(feature,threshold, Xleft, leftY, Xright, rightY);
-                }
-            }
+    public double predict_row(double[] x){
+        return flat.predict(x);
+    }
+
+    //walks the linked nodes, predict_row uses the flat layout instead
+    public double traverse(Node node,double[] x){
+        while(!node.isleaf){
+            double v=x[node.featureidx];
+            boolean goleft=(node.categories!=null)?CategorySet.contains(node.categories,v):v<node.threshold;
+            node=goleft?node.left:node.right;
         }
-        return bestsplit;
+        return node.value;
     }
 
-    public int getDepth() {
-        return getDepth(root);
+    public double[] predict(double[][] x){
+        return flat.predict(x);
+    }
+
+    public double[] predict(SparseMatrix x){
+        return flat.predict(x);
     }
 
-    private int getDepth(Node node) {
-        if (node == null) {
-            return 0;
+    //levels are walked one after another, trees grown by TreeBuilder can be deeper than the call stack
+    public int getDepth() {
+        int depth = 0;
+        List<Node> level = new ArrayList<>();
+        if (root != null) {
+            level.add(root);
         }
-        if (node.isleaf) {
-            return 1;
+        while (!level.isEmpty()) {
+            depth++;
+            List<Node> next = new ArrayList<>();
+            for (Node node : level) {
+                if (!node.isleaf) {
+                    next.add(node.left);
+                    next.add(node.right);
+                }
+            }
+            level = next;
         }
-        return 1 + Math.max(getDepth(node.left), getDepth(node.right));
+        return depth;
     }
 
+    // numbers are written with Double.toString, so fromJson restores every threshold and value exactly
     public String getTreeJson() {
-        return nodeToJson(root);
-    }
-
-    private String nodeToJson(Node node) {
-        if (node.isleaf) {
-            return String.format("{\"type\": \"leaf\", \"value\": %.4f}", node.value);
-        } else {
-            String leftJson = nodeToJson(node.left);
-            String rightJson = nodeToJson(node.right);
-            return String.format("{\"type\": \"split\", \"feature_index\": %d, \"threshold\": %.4f, \"left\": %s, \"right\": %s}",
-                    node.featureidx, node.threshold, leftJson, rightJson);
+        // written from an explicit stack of nodes still to write and text closing the splits
+        // already opened, so deep trees do not overflow the call stack
+        StringBuilder json = new StringBuilder();
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Object item = stack.pop();
+            if (item instanceof String) {
+                json.append((String) item);
+                continue;
+            }
+            Node node = (Node) item;
+            if (node.isleaf) {
+                json.append(String.format("{\"type\": \"leaf\", \"value\": %s}", node.value));
+                continue;
+            }
+            if (node.categories != null) {
+                json.append(String.format("{\"type\": \"split\", \"feature_index\": %d, \"categories\": %s, \"left\": ",
+                        node.featureidx, CategorySet.toJson(node.categories)));
+            } else {
+                json.append(String.format("{\"type\": \"split\", \"feature_index\": %d, \"threshold\": %s, \"left\": ",
+                        node.featureidx, node.threshold));
+            }
+            stack.push("}");
+            stack.push(node.right);
+            stack.push(", \"right\": ");
+            stack.push(node.left);
         }
+        return json.toString();
     }
 
     public static DecisionTreeRegressor fromJson(Map<String, Object> treeJson) {
@@ -242,17 +398,43 @@ public class DecisionTreeRegressor {
         return new DecisionTreeRegressor(root);
     }
 
+    // like TreeBuilder.assemble: the json nodes are listed in preorder, then built from the
+    // last one back so both children of a split exist before the split itself
     @SuppressWarnings("unchecked")
-    private static Node nodeFromJson(Map<String, Object> nodeJson) {
-        String type = (String) nodeJson.get("type");
-        if ("leaf".equals(type)) {
-            return new Node((Double) nodeJson.get("value"));
-        } else {
-            int featureIndex = ((Double) nodeJson.get("feature_index")).intValue();
-            double threshold = (Double) nodeJson.get("threshold");
-            Node left = nodeFromJson((Map<String, Object>) nodeJson.get("left"));
-            Node right = nodeFromJson((Map<String, Object>) nodeJson.get("right"));
-            return new Node(featureIndex, threshold, left, right);
+    private static Node nodeFromJson(Map<String, Object> rootJson) {
+        List<Map<String, Object>> preorder = new ArrayList<>();
+        ArrayDeque<Map<String, Object>> stack = new ArrayDeque<>();
+        stack.push(rootJson);
+        while (!stack.isEmpty()) {
+            Map<String, Object> nodeJson = stack.pop();
+            preorder.add(nodeJson);
+            if (!"leaf".equals(nodeJson.get("type"))) {
+                stack.push((Map<String, Object>) nodeJson.get("right"));
+                stack.push((Map<String, Object>) nodeJson.get("left"));
+            }
+        }
+
+        // by identity: the hashCode of a parsed json map would walk its whole subtree
+        Map<Map<String, Object>, Node> built = new IdentityHashMap<>();
+        for (int i = preorder.size() - 1; i >= 0; i--) {
+            Map<String, Object> nodeJson = preorder.get(i);
+            Node node;
+            if ("leaf".equals(nodeJson.get("type"))) {
+                node = new Node((Double) nodeJson.get("value"));
+            } else {
+                int featureIndex = ((Double) nodeJson.get("feature_index")).intValue();
+                Node left = built.remove(nodeJson.get("left"));
+                Node right = built.remove(nodeJson.get("right"));
+                // categorical splits carry their left codes instead of a threshold
+                if (nodeJson.containsKey("categories")) {
+                    node = new Node(featureIndex, Double.NaN, left, right);
+                    node.categories = CategorySet.of((List<?>) nodeJson.get("categories"));
+                } else {
+                    node = new Node(featureIndex, (Double) nodeJson.get("threshold"), left, right);
+                }
+            }
+            built.put(nodeJson, node);
         }
+        return built.get(rootJson);
     }
 }
\ No newline at end of file
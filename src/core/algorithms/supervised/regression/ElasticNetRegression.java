@@ -11,18 +11,19 @@ public class ElasticNetRegression extends LinearRegression {
     }
 
     @Override
-    public void modify(double[] x,double y){
-        double y_pred=predict(x);
+    protected void modify(double[] x,int offset,int stride,double y){
+        double y_pred=predict(x,offset,stride);
         double e=y-y_pred;
-        for(int i=0;i<weights.length;i++){
-            double sign=Math.signum(weights[i]);
-            weights[i]+=learning_rate*(e*x[i]-lambda1*sign - 2*lambda2*weights[i]);
+        for(int i=0,p=offset;i<weights.length;i++,p+=stride){
+            double w=weight(i);
+            double sign=Math.signum(w);
+            setWeight(i,w+learning_rate*(e*x[p]-lambda1*sign - 2*lambda2*w));
             // linear regression  weights[i]+=learning_rate*e*x[i]
             //ridge regression weights[i]+=learning_rate*(e*x[i]- 2*lambda2*weights[i]);
             //lasso regression   weights[i]+=learning_rate*(e*x[i]-lambda1*sign )
             //combining ridge n lasso we get elastic net 
         }
-        bias+=learning_rate*e;
+        setBias(getBias()+learning_rate*e);
     }
 
 
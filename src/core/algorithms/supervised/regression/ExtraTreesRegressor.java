@@ -0,0 +1,31 @@
+package core.algorithms.supervised.regression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Extremely randomized trees: a forest whose trees draw one random threshold per candidate
+// feature at each node instead of searching every boundary, and train on all rows (no bootstrap).
+// Same model and json format as RandomForestRegressor.
+public class ExtraTreesRegressor extends RandomForestRegressor {
+
+    public ExtraTreesRegressor(int numtrees,int maxdepth,int minsamplesplit){
+        super(numtrees,maxdepth,minsamplesplit);
+        setSplitter("random");
+        setBootstrap(false);
+    }
+
+    private ExtraTreesRegressor(List<DecisionTreeRegressor> trees) {
+        super(trees);
+        setSplitter("random"); //trees added with addTrees are extremely randomized too
+        setBootstrap(false);
+    }
+
+    public static ExtraTreesRegressor fromJson(List<Map<String, Object>> forestJson) {
+        List<DecisionTreeRegressor> trees = new ArrayList<>();
+        for (Map<String, Object> treeJson : forestJson) {
+            trees.add(DecisionTreeRegressor.fromJson(treeJson));
+        }
+        return new ExtraTreesRegressor(trees);
+    }
+}
@@ -0,0 +1,232 @@
+package core.algorithms.supervised.regression;
+
+import core.algorithms.supervised.regression.costFunction.MeanSquaredError;
+import core.algorithms.supervised.regression.interfaces.CostFunction;
+import core.algorithms.supervised.tree.BinnedMatrix;
+import core.algorithms.supervised.tree.FeatureSampler;
+import core.algorithms.supervised.tree.FlatTree;
+import core.algorithms.supervised.tree.GradientCriterion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+// Histogram gradient boosting: X is binned once, then every round fits a shallow
+// DecisionTreeRegressor to the gradients and hessians of the loss at the current predictions
+// (GradientCriterion, Newton leaves) and adds it scaled by the learning rate.
+// prediction = baseScore + learningRate * sum of tree values
+public class GradientBoostingRegressor {
+    private int numrounds;
+    private int maxdepth;
+    private int minsamplesplit;
+    private CostFunction loss=new MeanSquaredError();
+    private double learningRate=0.1;
+    private double subsample=1.0;    // share of rows drawn (without replacement) for each round's tree
+    private double lambda;           // L2 penalty on leaf values
+    private int maxBins=255;
+    private int maxLeafNodes=-1;
+    private int nJobs=1;             // threads growing each tree
+    private long seed=new Random().nextLong();
+    private int nIterNoChange;       // early stopping on the validation set, 0 = off
+    private double tol=1e-7;
+
+    private double baseScore;
+    private List<DecisionTreeRegressor> trees=new ArrayList<>();
+    private FlatTree[] compiled=new FlatTree[0];
+    private double[] validationLoss=new double[0]; // mean validation loss after each round of the last fit
+
+    public GradientBoostingRegressor(int numrounds,int maxdepth,int minsamplesplit){
+        this.numrounds=numrounds;
+        this.maxdepth=maxdepth;
+        this.minsamplesplit=minsamplesplit;
+    }
+
+    private GradientBoostingRegressor(double baseScore,double learningRate,List<DecisionTreeRegressor> trees){
+        this.baseScore=baseScore;
+        this.learningRate=learningRate;
+        this.trees=trees;
+        this.numrounds=trees.size();
+        compile();
+    }
+
+    //any CostFunction with a gradient (MeanSquaredError, HuberLoss, LogCoshLoss, ...); rows where the loss
+    //has no curvature (MAE, Huber outside delta) count with hessian 1, i.e. a plain gradient step
+    public void setLoss(CostFunction loss){
+        this.loss=loss;
+    }
+
+    //shrinkage applied to every tree
+    public void setLearningRate(double learningRate){
+        this.learningRate=learningRate;
+    }
+
+    //each round's tree sees this share of the rows, 1 = all
+    public void setSubsample(double subsample){
+        if(subsample<=0 || subsample>1){
+            throw new IllegalArgumentException("subsample must be in (0,1]: "+subsample);
+        }
+        this.subsample=subsample;
+    }
+
+    public void setL2Regularization(double lambda){
+        this.lambda=lambda;
+    }
+
+    //bins per feature (<=256), X is quantized once for all rounds
+    public void setMaxBins(int maxBins){
+        this.maxBins=maxBins;
+    }
+
+    public void setMaxLeafNodes(int maxLeafNodes){
+        this.maxLeafNodes=maxLeafNodes;
+    }
+
+    public void setNJobs(int nJobs){
+        this.nJobs=nJobs;
+    }
+
+    public void setRandomState(long seed){
+        this.seed=seed;
+    }
+
+    //with a validation set: stop once its loss has not improved by more than tol for nIterNoChange
+    //rounds, and keep only the rounds up to the best one
+    public void setEarlyStopping(int nIterNoChange,double tol){
+        this.nIterNoChange=nIterNoChange;
+        this.tol=tol;
+    }
+
+    public void fit(double[][] X,double[] y){
+        fit(X,y,null,null);
+    }
+
+    //Xval,yval only score the rounds (getValidationLoss) and drive early stopping
+    public void fit(double[][] X,double[] y,double[][] Xval,double[] yval){
+        int n=X.length;
+        BinnedMatrix bins=BinnedMatrix.fromMatrix(X,maxBins);
+        SplittableRandom rng=new SplittableRandom(seed);
+
+        // start from the mean, every tree then corrects the current predictions
+        baseScore=0;
+        for(double v:y){
+            baseScore+=v;
+        }
+        baseScore/=n;
+        double[] pred=new double[n];
+        Arrays.fill(pred,baseScore);
+        double[] valPred=null;
+        if(Xval!=null){
+            valPred=new double[Xval.length];
+            Arrays.fill(valPred,baseScore);
+        }
+
+        double[] gradient=new double[n];
+        double[] hessian=new double[n];
+        GradientCriterion criterion=new GradientCriterion(gradient,hessian,lambda);
+        int[] order=new int[n];
+        for(int i=0;i<n;i++){
+            order[i]=i;
+        }
+        int sampled=Math.max(1,(int)Math.round(subsample*n));
+
+        trees=new ArrayList<>();
+        List<Double> scores=new ArrayList<>();
+        double best=Double.MAX_VALUE;
+        int bestRounds=0;
+        for(int round=0;round<numrounds;round++){
+            loss.calculateBiasGradients(pred,y,gradient,n);
+            for(int i=0;i<n;i++){
+                double h=loss.calculateBiasHessian(pred[i],y[i]);
+                hessian[i]=h>0?h:1;
+            }
+            int[] counts=null;
+            if(sampled<n){
+                FeatureSampler.sample(order,sampled,rng); // the first sampled entries become this round's rows
+                counts=new int[n];
+                for(int i=0;i<sampled;i++){
+                    counts[order[i]]=1;
+                }
+            }
+
+            DecisionTreeRegressor tree=new DecisionTreeRegressor(maxdepth,minsamplesplit,-1,new Random(rng.nextLong()));
+            tree.setMaxLeafNodes(maxLeafNodes);
+            tree.setNJobs(nJobs);
+            tree.fit(bins,criterion,counts);
+            trees.add(tree);
+            FlatTree flat=tree.getFlatTree();
+            for(int i=0;i<n;i++){
+                pred[i]+=learningRate*flat.predict(X[i]);
+            }
+
+            if(valPred!=null){
+                for(int i=0;i<valPred.length;i++){
+                    valPred[i]+=learningRate*flat.predict(Xval[i]);
+                }
+                double cost=loss.calculateTotalCost(valPred,yval,valPred.length)/valPred.length;
+                scores.add(cost);
+                if(cost<best-tol){
+                    best=cost;
+                    bestRounds=round+1;
+                }
+                else if(nIterNoChange>0 && round+1-bestRounds>=nIterNoChange){
+                    break;
+                }
+            }
+        }
+        if(valPred!=null && nIterNoChange>0){
+            trees=new ArrayList<>(trees.subList(0,Math.max(1,bestRounds)));
+        }
+        validationLoss=scores.stream().mapToDouble(Double::doubleValue).toArray();
+        compile();
+    }
+
+    private void compile(){
+        compiled=new FlatTree[trees.size()];
+        for(int i=0;i<compiled.length;i++){
+            compiled[i]=trees.get(i).getFlatTree();
+        }
+    }
+
+    public double predict_row(double[] x){
+        double sum=0;
+        for(FlatTree tree:compiled){
+            sum+=tree.predict(x);
+        }
+        return baseScore+learningRate*sum;
+    }
+
+    public double[] predict(double[][] X){
+        double[] out=new double[X.length];
+        for(int i=0;i<X.length;i++){
+            out[i]=predict_row(X[i]);
+        }
+        return out;
+    }
+
+    //trees kept (fewer than the rounds asked for after early stopping)
+    public int getNumberOfTrees(){
+        return trees.size();
+    }
+
+    public double[] getValidationLoss(){
+        return validationLoss.clone();
+    }
+
+    public String getModelJson(){
+        return String.format("{\"base_score\": %s, \"learning_rate\": %s, \"trees\": [%s]}",baseScore,learningRate,
+                trees.stream().map(DecisionTreeRegressor::getTreeJson).collect(Collectors.joining(",")));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static GradientBoostingRegressor fromJson(Map<String, Object> modelJson){
+        List<DecisionTreeRegressor> trees=new ArrayList<>();
+        for(Map<String, Object> treeJson:(List<Map<String, Object>>)modelJson.get("trees")){
+            trees.add(DecisionTreeRegressor.fromJson(treeJson));
+        }
+        return new GradientBoostingRegressor((Double)modelJson.get("base_score"),(Double)modelJson.get("learning_rate"),trees);
+    }
+}
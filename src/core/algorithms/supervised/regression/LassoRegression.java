@@ -9,17 +9,18 @@ public class LassoRegression extends LinearRegression{
     }
 
     @Override
-    public void modify(double[] x,double y){
-        double y_pred=predict(x);
+    protected void modify(double[] x,int offset,int stride,double y){
+        double y_pred=predict(x,offset,stride);
         double e=y-y_pred;
-        for(int i=0;i<weights.length;i++){
-            double sign=Math.signum(weights[i]);
+        for(int i=0,p=offset;i<weights.length;i++,p+=stride){
+            double w=weight(i);
+            double sign=Math.signum(w);
             //we are only interested in the sign of the weights
 
             //sign decides whether to inc or dec the values of weights to make it tend to 0
-            weights[i]+=learning_rate*(e*x[i]-lambda*sign);
+            setWeight(i,w+learning_rate*(e*x[p]-lambda*sign));
         }  
-        bias+=learning_rate*e;
+        setBias(getBias()+learning_rate*e);
     }
     
 }
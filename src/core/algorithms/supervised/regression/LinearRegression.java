@@ -1,10 +1,39 @@
 package core.algorithms.supervised.regression;
 
+import core.utils.DenseMatrix;
+import core.utils.ParallelRunner;
+import core.utils.VectorOps;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class LinearRegression {
+    //rows a worker claims at a time when fitting on several threads
+    private static final int CHUNK_ROWS=256;
+    //opaque access to weights and bias during hogwild fits, see weight/setWeight
+    private static final VarHandle WEIGHT=MethodHandles.arrayElementVarHandle(double[].class);
+    private static final VarHandle BIAS;
+    static{
+        try{
+            BIAS=MethodHandles.lookup().findVarHandle(LinearRegression.class,"bias",double.class);
+        }
+        catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     protected double learning_rate;
     protected int epochs;
     protected double weights[];
     protected double bias;
+    private int nJobs=1;          //threads running sgd, -1 = all cores
+    private ForkJoinPool pool;    //optional pool to train on instead of creating one per fit
+    private int nIterNoChange=0;  //0 = always run every epoch
+    private double tol=1e-4;
+    private int epochsRun;
+    private boolean hogwild;      //true while fit runs modify on several threads at once
 
     public LinearRegression(double learning_rate,int epochs,int n){
         this.learning_rate=learning_rate;
@@ -17,15 +46,75 @@ public class LinearRegression {
         this(0.01, 1000, 1);
     }
 
+    //n_jobs semantics: positive = that many threads, -1 = all cores, -2 = all but one.
+    //with more than one thread fit is hogwild sgd: workers claim chunks of rows from a shared
+    //counter and run modify on them at the same time, reading and writing weights and bias with
+    //opaque accesses (atomic, so a double is never torn, but unordered and without locks).
+    //an update can be overwritten or computed from slightly stale weights; with small steps
+    //that noise is harmless. results then vary from run to run. one thread is the plain
+    //sequential sgd. rows are dense, so every step reads and writes every weight and the threads
+    //contend for those cache lines; the speedup flattens as threads are added. only dense
+    //input is supported, there is no sparse-row path that would touch just a row's non-zeros
+    public void setNJobs(int nJobs){
+        this.nJobs=nJobs;
+    }
+
+    public void setPool(ForkJoinPool pool){
+        this.pool=pool;
+    }
+
+    //stop when the training mse has not improved by more than tol for nIterNoChange epochs.
+    //the mse is recomputed over the whole training set after every epoch, one extra pass
+    //of predictions (roughly half the work of an sgd epoch); off by default
+    public void setEarlyStopping(int nIterNoChange,double tol){
+        this.nIterNoChange=nIterNoChange;
+        this.tol=tol;
+    }
+
     //user does model.fit(int[][] dataset,int[] output)
     public double predict(double[] rowData){
-        double ans=0.0;
-        for(int i=0;i<weights.length;i++){
-            ans+=weights[i]* rowData[i];
-            //just like y=mx+c
+        return predict(rowData,0,1);
+    }
+
+    public double predict(DenseMatrix input_data,int row){
+        return predict(input_data.data(),input_data.rowOffset(row),input_data.colStride());
+    }
+
+    //row stored in a flat array: x[i]=data[offset+i*stride] (a DenseMatrix row, or a plain row with 0,1)
+    protected double predict(double[] data,int offset,int stride){
+        //just like y=mx+c
+        if(hogwild){
+            double ans=0.0;
+            for(int i=0,p=offset;i<weights.length;i++,p+=stride){
+                ans+=weight(i)*data[p];
+            }
+            return ans+getBias();
+        }
+        return VectorOps.dot(weights,data,offset,stride,weights.length)+bias;
+    }
+
+    //weights and bias as modify must read and write them: opaque while a hogwild fit runs,
+    //plain otherwise. subclasses go through these instead of touching the fields directly
+    protected final double weight(int i){
+        return hogwild?(double)WEIGHT.getOpaque(weights,i):weights[i];
+    }
+
+    protected final void setWeight(int i,double value){
+        if(hogwild){
+            WEIGHT.setOpaque(weights,i,value);
+        }
+        else{
+            weights[i]=value;
+        }
+    }
+
+    protected final void setBias(double value){
+        if(hogwild){
+            BIAS.setOpaque(this,value);
+        }
+        else{
+            bias=value;
         }
-        ans=ans+bias;
-        return ans;
     }
 
     public double[] predict_all(double[][] input_data){
@@ -36,6 +125,14 @@ public class LinearRegression {
         return prediction;
     }
 
+    public double[] predict_all(DenseMatrix input_data){
+        double[] prediction=new double[input_data.rows()];
+        for(int i=0;i<prediction.length;i++){
+            prediction[i]=predict(input_data,i);
+        }
+        return prediction;
+    }
+
     public double error_cal(double[][]input_data,double[] output_data){
         //error- mean square error
         double error=0;
@@ -48,24 +145,112 @@ public class LinearRegression {
         return error/n;
 
     }
+
+    public double error_cal(DenseMatrix input_data,double[] output_data){
+        double error=0;
+        int n=output_data.length;
+        for(int i=0;i<n;i++){
+            double predicted_ans=predict(input_data,i);
+            error+=(predicted_ans-output_data[i])*(predicted_ans-output_data[i]);
+        }
+        return error/n;
+    }
+
+    //one gradient descent step on the row x. fit steps through the strided modify below and never
+    //calls this one, so a subclass changing the update overrides that one
     public void modify(double[] x,double y){
+        modify(x,0,1,y);
+    }
+
+    //one gradient descent step on the row at data[offset], values stride apart.
+    //subclasses add their penalty here
+    protected void modify(double[] data,int offset,int stride,double y){
         //handling gradient descent
-        double y_predicted= predict(x);
+        double y_predicted= predict(data,offset,stride);
         double e=y-y_predicted;
 
-        for(int i=0;i<weights.length;i++){
-            weights[i]=weights[i]+(learning_rate*e*x[i]);
+        if(hogwild){
+            double step=learning_rate*e;
+            for(int i=0,p=offset;i<weights.length;i++,p+=stride){
+                setWeight(i,weight(i)+step*data[p]);
+            }
         }
-        bias=bias+(learning_rate * e);
+        else{
+            VectorOps.axpy(learning_rate*e,data,offset,stride,weights,weights.length);
+        }
+        setBias(getBias()+(learning_rate * e));
     }
 
+    //copied once into a contiguous DenseMatrix, every epoch then reads one flat array. the copy
+    //lives as long as the fit, so peak memory is twice the dataset; callers holding the data in
+    //one flat array wrap it in a DenseMatrix (new DenseMatrix(data,rows,cols)) and skip the copy
     public void fit(double[][] input_data,double[] output_data){
-        for(int i=0;i<epochs;i++){
-            for(int j=0;j<input_data.length;j++){
-                //traversing every row
-                modify(input_data[j],output_data[j]);
+        fit(DenseMatrix.fromRows(input_data),output_data);
+    }
+
+    public void fit(DenseMatrix input_data,double[] output_data){
+        int threads=ParallelRunner.resolveJobs(nJobs);
+        ForkJoinPool owned=(pool==null && threads>1)?new ForkJoinPool(threads):null;
+        ForkJoinPool used=(threads>1)?(pool==null?owned:pool):null;
+        double best=Double.MAX_VALUE;
+        int bestEpoch=0;
+        epochsRun=0;
+        try{
+            for(int i=0;i<epochs;i++){
+                if(used==null){
+                    modifyRows(input_data,output_data,0,input_data.rows());
+                }
+                else{
+                    //every worker keeps claiming the next chunk until the epoch is used up; the
+                    //flag is set before the tasks start and cleared after they are joined
+                    AtomicInteger next=new AtomicInteger();
+                    hogwild=true;
+                    try{
+                        ParallelRunner.run(threads,t->{
+                            int from;
+                            while((from=next.getAndAdd(CHUNK_ROWS))<input_data.rows()){
+                                modifyRows(input_data,output_data,from,Math.min(from+CHUNK_ROWS,input_data.rows()));
+                            }
+                            return null;
+                        },nJobs,used);
+                    }
+                    finally{
+                        hogwild=false;
+                    }
+                }
+                epochsRun=i+1;
+
+                if(nIterNoChange>0){
+                    double error=error_cal(input_data,output_data);
+                    if(error<best-tol){
+                        best=error;
+                        bestEpoch=i+1;
+                    }
+                    else if(i+1-bestEpoch>=nIterNoChange){
+                        break;
+                    }
+                }
             }
         }
+        finally{
+            if(owned!=null){
+                owned.shutdown();
+            }
+        }
+    }
+
+    private void modifyRows(DenseMatrix input_data,double[] output_data,int from,int to){
+        double[] data=input_data.data();
+        int stride=input_data.colStride();
+        for(int j=from;j<to;j++){
+            //traversing every row
+            modify(data,input_data.rowOffset(j),stride,output_data[j]);
+        }
+    }
+
+    //epochs actually run by the last fit, fewer than epochs when early stopping kicked in
+    public int getEpochsRun(){
+        return epochsRun;
     }
 
     public double[] getWeights() { 
@@ -73,7 +258,7 @@ public class LinearRegression {
     }
 
     public double getBias() { 
-        return bias;
+        return hogwild?(double)BIAS.getOpaque(this):bias;
     }
 
 }
@@ -2,10 +2,20 @@ package core.algorithms.supervised.regression;
 import core.algorithms.supervised.regression.interfaces.CostFunction;
 import core.algorithms.supervised.regression.interfaces.Optimizer;
 import core.algorithms.supervised.regression.optimizer.MiniBatchGradientDescent;
+import core.utils.DenseMatrix;
+import core.utils.ParallelRunner;
+import core.utils.VectorOps;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class ModularLinearRegression {
+    // rows per gradient shard; fixed, so the order of the sums (and the trained weights)
+    // does not depend on the number of threads. A batch of more than one shard is summed per
+    // shard and then across shards, which differs in the last bits from one pass over its rows
+    private static final int SHARD_ROWS = 4096;
+
     private double learningRate;
     private int epochs;
     private double[] weights;
@@ -13,6 +23,22 @@ public class ModularLinearRegression {
     private CostFunction costFunction;
     private Optimizer optimizer;
     private Random random;
+    private int nJobs = 1;          // threads computing gradients, -1 = all cores
+    private ForkJoinPool pool;      // optional pool to train on instead of creating one per fit
+
+    // predictions, targets, residuals and the gradient sums of one shard of a batch
+    private static class Shard {
+        final double[] predicted, actual, residuals;
+        final double[] weightGradients;
+        double biasGradient;
+
+        Shard(int rows, int numFeatures) {
+            predicted = new double[rows];
+            actual = new double[rows];
+            residuals = new double[rows];
+            weightGradients = new double[numFeatures];
+        }
+    }
 
     public ModularLinearRegression(double learningRate, int epochs, int numFeatures,
                                    CostFunction costFunction, Optimizer optimizer) {
@@ -30,12 +56,33 @@ public class ModularLinearRegression {
         }
     }
 
+    // n_jobs semantics: positive = that many threads, -1 = all cores, -2 = all but one.
+    // A batch is cut into shards of SHARD_ROWS rows whose gradients are summed in a fixed tree,
+    // so the result is the same for every nJobs; batches of one shard run on the calling thread
+    public void setNJobs(int nJobs) {
+        this.nJobs = nJobs;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // seeds the mini-batch shuffle, so two fits on the same data give the same weights
+    public void setRandomState(long seed) {
+        this.random = new Random(seed);
+    }
+
     public double predictOne(double[] rowData) {
-        double result = bias;
-        for (int i = 0; i < weights.length; i++) {
-            result += weights[i] * rowData[i];
-        }
-        return result;
+        return predictRow(rowData, 0, 1);
+    }
+
+    public double predictOne(DenseMatrix inputData, int row) {
+        return predictRow(inputData.data(), inputData.rowOffset(row), inputData.colStride());
+    }
+
+    // bias + w . x for the row x[j] = data[offset + j * stride]
+    private double predictRow(double[] data, int offset, int stride) {
+        return VectorOps.dot(bias, weights, data, offset, stride, weights.length);
     }
 
     public double[] predictAll(double[][] inputData) {
@@ -46,55 +93,83 @@ public class ModularLinearRegression {
         return predictions;
     }
 
-    public double calculateError(double[][] inputData, double[] outputData) {
-        double totalCost = 0;
-        for (int i = 0; i < inputData.length; i++) {
-            double predicted = predictOne(inputData[i]);
-            totalCost += costFunction.calculateCost(predicted, outputData[i]);
+    public double[] predictAll(DenseMatrix inputData) {
+        double[] predictions = new double[inputData.rows()];
+        for (int i = 0; i < predictions.length; i++) {
+            predictions[i] = predictOne(inputData, i);
         }
-        return totalCost / inputData.length;
+        return predictions;
+    }
+
+    public double calculateError(double[][] inputData, double[] outputData) {
+        double[] predicted = predictAll(inputData);
+        return costFunction.calculateTotalCost(predicted, outputData, predicted.length) / predicted.length;
+    }
+
+    public double calculateError(DenseMatrix inputData, double[] outputData) {
+        double[] predicted = predictAll(inputData);
+        return costFunction.calculateTotalCost(predicted, outputData, predicted.length) / predicted.length;
     }
 
+    // copied once into a contiguous DenseMatrix, every epoch then reads one flat array. The copy
+    // lives as long as the fit, so peak memory is twice the dataset; callers holding the data in
+    // one flat array wrap it in a DenseMatrix (new DenseMatrix(data, rows, cols)) and skip the copy
     public void fit(double[][] inputData, double[] outputData) {
+        fit(DenseMatrix.fromRows(inputData), outputData);
+    }
+
+    public void fit(DenseMatrix inputData, double[] outputData) {
         System.out.println("Training with " + costFunction.getName() + " and " + optimizer.getName());
         System.out.println("Initial error: " + calculateError(inputData, outputData));
 
-        for (int epoch = 0; epoch < epochs; epoch++) {
-            if (optimizer instanceof MiniBatchGradientDescent) {
-                fitMiniBatch(inputData, outputData);
-            } else {
-                fitBatch(inputData, outputData);
-            }
+        // shard buffers of one batch, reused by every epoch
+        boolean miniBatch = optimizer instanceof MiniBatchGradientDescent;
+        int batch = miniBatch ? Math.min(((MiniBatchGradientDescent) optimizer).getBatchSize(), inputData.rows())
+                : inputData.rows();
+        Shard[] shards = new Shard[Math.max(1, (batch + SHARD_ROWS - 1) / SHARD_ROWS)];
+        for (int k = 0; k < shards.length; k++) {
+            shards[k] = new Shard(Math.min(batch, SHARD_ROWS), weights.length);
+        }
+        int threads = ParallelRunner.resolveJobs(nJobs);
+        ForkJoinPool owned = (pool == null && threads > 1 && shards.length > 1) ? new ForkJoinPool(threads) : null;
+        ForkJoinPool used = (pool == null) ? owned : pool;
 
-            // Print progress every 100 epochs
-            if ((epoch + 1) % 100 == 0) {
-                double error = calculateError(inputData, outputData);
-                System.out.println("Epoch " + (epoch + 1) + ", Error: " + error);
+        try {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                if (miniBatch) {
+                    fitMiniBatch(inputData, outputData, shards, used);
+                } else {
+                    fitBatch(inputData, outputData, shards, used);
+                }
+
+                // Print progress every 100 epochs
+                if ((epoch + 1) % 100 == 0) {
+                    double error = calculateError(inputData, outputData);
+                    System.out.println("Epoch " + (epoch + 1) + ", Error: " + error);
+                }
+            }
+        } finally {
+            if (owned != null) {
+                owned.shutdown();
             }
         }
 
         System.out.println("Final error: " + calculateError(inputData, outputData));
     }
 
-    private void fitBatch(double[][] inputData, double[] outputData) {
-        double[] weightGradients = new double[weights.length];
-        double biasGradient = 0;
+    private void fitBatch(DenseMatrix inputData, double[] outputData, Shard[] shards, ForkJoinPool pool) {
+        int numSamples = inputData.rows();
 
         // Calculate gradients for all samples
-        for (int i = 0; i < inputData.length; i++) {
-            double predicted = predictOne(inputData[i]);
-
-            for (int j = 0; j < weights.length; j++) {
-                weightGradients[j] += costFunction.calculateGradient(predicted, outputData[i], inputData[i][j]);
-            }
-            biasGradient += costFunction.calculateBiasGradient(predicted, outputData[i]);
-        }
+        Shard sum = gradients(inputData, outputData, null, 0, numSamples, shards, pool);
+        double[] weightGradients = sum.weightGradients;
+        double biasGradient = sum.biasGradient;
 
         // Average gradients
         for (int i = 0; i < weightGradients.length; i++) {
-            weightGradients[i] /= inputData.length;
+            weightGradients[i] /= numSamples;
         }
-        biasGradient /= inputData.length;
+        biasGradient /= numSamples;
 
         // Update parameters
         optimizer.updateWeights(weights, weightGradients, learningRate);
@@ -103,10 +178,10 @@ public class ModularLinearRegression {
         bias = biasArray[0];
     }
 
-    private void fitMiniBatch(double[][] inputData, double[] outputData) {
+    private void fitMiniBatch(DenseMatrix inputData, double[] outputData, Shard[] shards, ForkJoinPool pool) {
         MiniBatchGradientDescent mbgd = (MiniBatchGradientDescent) optimizer;
         int batchSize = mbgd.getBatchSize();
-        int numSamples = inputData.length;
+        int numSamples = inputData.rows();
 
         // Shuffle indices
         int[] indices = new int[numSamples];
@@ -127,19 +202,10 @@ public class ModularLinearRegression {
             int endIdx = Math.min(startIdx + batchSize, numSamples);
             int actualBatchSize = endIdx - startIdx;
 
-            double[] weightGradients = new double[weights.length];
-            double biasGradient = 0;
-
-            // Calculate gradients for this mini-batch
-            for (int i = startIdx; i < endIdx; i++) {
-                int idx = indices[i];
-                double predicted = predictOne(inputData[idx]);
-
-                for (int j = 0; j < weights.length; j++) {
-                    weightGradients[j] += costFunction.calculateGradient(predicted, outputData[idx], inputData[idx][j]);
-                }
-                biasGradient += costFunction.calculateBiasGradient(predicted, outputData[idx]);
-            }
+            // Calculate gradients for this mini-batch, the shuffled rows are visited through indices
+            Shard sum = gradients(inputData, outputData, indices, startIdx, actualBatchSize, shards, pool);
+            double[] weightGradients = sum.weightGradients;
+            double biasGradient = sum.biasGradient;
 
             // Update parameters
             optimizer.updateWeights(weights, weightGradients, learningRate);
@@ -149,6 +215,71 @@ public class ModularLinearRegression {
         }
     }
 
+    // Summed gradients of the rows start..start+count-1 (or indices[start..start+count-1]).
+    // d cost / d w_j = (d cost / d prediction) * x_j, so each shard takes the residuals of its rows
+    // in one call and its weight gradients as X^T residuals; shards run on pool (when there is
+    // more than one) and are then added pairwise in a fixed pattern, shard k absorbing k + step
+    // for step = 1, 2, 4, ... The result is left in shards[0].
+    private Shard gradients(DenseMatrix inputData, double[] outputData, int[] indices, int start, int count,
+                            Shard[] shards, ForkJoinPool pool) {
+        int used = (count + SHARD_ROWS - 1) / SHARD_ROWS;
+        if (used <= 1) {
+            shardGradient(inputData, outputData, indices, start, count, shards[0]);
+            return shards[0];
+        }
+        ParallelRunner.run(used, k -> {
+            int from = k * SHARD_ROWS;
+            shardGradient(inputData, outputData, indices, start + from, Math.min(SHARD_ROWS, count - from), shards[k]);
+            return null;
+        }, nJobs, pool);
+        for (int step = 1; step < used; step *= 2) {
+            for (int k = 0; k + step < used; k += 2 * step) {
+                VectorOps.axpy(1.0, shards[k + step].weightGradients, 0, 1, shards[k].weightGradients, weights.length);
+                shards[k].biasGradient += shards[k + step].biasGradient;
+            }
+        }
+        return shards[0];
+    }
+
+    private void shardGradient(DenseMatrix inputData, double[] outputData, int[] indices, int start, int count,
+                               Shard shard) {
+        double[] predicted = shard.predicted, actual = shard.actual, residuals = shard.residuals;
+        DenseMatrix rows = null;
+        if (indices == null) {
+            rows = inputData.rows(start, start + count);
+            rows.multiply(weights, bias, predicted);
+            for (int k = 0; k < count; k++) {
+                actual[k] = outputData[start + k];
+            }
+        } else {
+            double[] data = inputData.data();
+            int stride = inputData.colStride();
+            for (int k = 0; k < count; k++) {
+                int idx = indices[start + k];
+                predicted[k] = predictRow(data, inputData.rowOffset(idx), stride);
+                actual[k] = outputData[idx];
+            }
+        }
+        costFunction.calculateBiasGradients(predicted, actual, residuals, count);
+
+        if (rows != null) {
+            rows.multiplyTransposed(residuals, shard.weightGradients);
+        } else {
+            double[] data = inputData.data();
+            int stride = inputData.colStride();
+            Arrays.fill(shard.weightGradients, 0.0);
+            for (int k = 0; k < count; k++) {
+                VectorOps.axpy(residuals[k], data, inputData.rowOffset(indices[start + k]), stride,
+                        shard.weightGradients, weights.length);
+            }
+        }
+        double biasGradient = 0;
+        for (int k = 0; k < count; k++) {
+            biasGradient += residuals[k];
+        }
+        shard.biasGradient = biasGradient;
+    }
+
     public double[] getWeights() {
         return weights.clone();
     }
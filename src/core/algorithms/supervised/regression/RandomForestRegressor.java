@@ -1,5 +1,18 @@
 package core.algorithms.supervised.regression;
+import core.algorithms.supervised.tree.BinnedMatrix;
+import core.algorithms.supervised.tree.FeatureSampler;
+import core.algorithms.supervised.tree.FlatTree;
+import core.algorithms.supervised.tree.OutOfBag;
+import core.algorithms.supervised.tree.PresortedColumns;
+import core.algorithms.supervised.tree.QuickScorer;
+import core.algorithms.supervised.tree.ScoringMode;
+import core.algorithms.supervised.tree.SparseMatrix;
+import core.algorithms.supervised.tree.TreeCompiler;
+import core.algorithms.supervised.tree.TreePredictor;
+import core.utils.ParallelRunner;
+
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 public class RandomForestRegressor {
@@ -7,51 +20,390 @@ public class RandomForestRegressor {
     private int maxdepth;
     private int minsamplesplit;
     private List<DecisionTreeRegressor> trees;
-    private Random rand;
+    private FlatTree[] compiled = new FlatTree[0]; // flat form of every tree, used by predict
+    private QuickScorer quickScorer; // built on first QUICK_SCORER predict
+    private TreePredictor generated; // built on first COMPILED predict
+    private long seed;   // every tree gets its own stream split from this seed
+    private int maxBins; // 0 = exact trees, otherwise every tree trains on histograms
+    private int nJobs=1; // threads used by fit, -1 = all cores
+    private ForkJoinPool pool; // optional pool to train on instead of creating one per fit
+    private int maxLeafNodes=-1; // passed to every tree
+    private boolean bootstrap=true; // false = every tree trains on all rows
+    private boolean presort=true;   // exact trees share one presorted index of X
+    private String splitter="best"; // "random" grows extremely randomized trees
+    private String maxFeatures;      // null = numFeatures/3
+    private double minImpurityDecrease;
+    private int minSamplesLeaf=1;
+    private double ccpAlpha; // cost-complexity pruning of every tree, 0 = none
+    private int[] categoricalFeatures; // columns split by category subsets, null = all numeric
+
+    // out-of-bag tracking, filled tree by tree during fit when oobScore or early stopping is on
+    private boolean oobScore;
+    private int checkEvery;          // early stopping: trees added between two OOB checks, 0 = off
+    private int nIterNoChange;
+    private double tol;
+    private double[] oobSum;         // per row: sum of the predictions of the trees it was out of bag for
+    private int[] oobTrees;          // per row: how many such trees
+    private double[] oobTargets;
+    private Object oobData;          // X (dense or sparse) the sums belong to, addTrees on the same X and y keeps adding to them
 
     public RandomForestRegressor(int numtrees,int maxdepth,int minsamplesplit){
         this.numtrees=numtrees;
         this.maxdepth=maxdepth;
         this.minsamplesplit=minsamplesplit;
         this.trees=new ArrayList<>();
-        this.rand=new Random();
+        this.seed=new Random().nextLong();
     }
 
-    private RandomForestRegressor(List<DecisionTreeRegressor> trees) {
-        this.trees = trees;
+    protected RandomForestRegressor(List<DecisionTreeRegressor> trees) {
+        this.trees = new ArrayList<>(trees);
         this.numtrees = trees.size();
+        // the loaded json does not record how the trees were grown: maxdepth and minsamplesplit
+        // stay unknown (-1) and fit or addTrees refuse to run until both are set
+        this.maxdepth = -1;
+        this.minsamplesplit = -1;
+        this.seed = new Random().nextLong();
+        compile();
+    }
+
+    //depth limit of trees grown from now on (fit or addTrees), trees already in the forest keep theirs
+    public void setMaxDepth(int maxdepth){
+        this.maxdepth=maxdepth;
+    }
+
+    public void setMinSamplesSplit(int minsamplesplit){
+        this.minsamplesplit=minsamplesplit;
+    }
+
+    //quantize X once into at most maxBins bins (<=256) and train every tree on histograms
+    public void setMaxBins(int maxBins){
+        this.maxBins=maxBins;
+    }
+
+    //fixed seed: same forest for the same data, whatever nJobs is
+    public void setRandomState(long seed){
+        this.seed=seed;
+    }
+
+    //n_jobs semantics: positive = that many threads, -1 = all cores, -2 = all but one
+    public void setNJobs(int nJobs){
+        this.nJobs=nJobs;
+    }
+
+    public void setPool(ForkJoinPool pool){
+        this.pool=pool;
+    }
+
+    //leaf budget of every tree (grown best-first), -1 = no limit
+    public void setMaxLeafNodes(int maxLeafNodes){
+        this.maxLeafNodes=maxLeafNodes;
+    }
+
+    public void setMinImpurityDecrease(double minImpurityDecrease){
+        this.minImpurityDecrease=minImpurityDecrease;
+    }
+
+    public void setMinSamplesLeaf(int minSamplesLeaf){
+        this.minSamplesLeaf=minSamplesLeaf;
+    }
+
+    public void setCcpAlpha(double ccpAlpha){
+        this.ccpAlpha=ccpAlpha;
+    }
+
+    //category-code columns of every tree, see DecisionTreeRegressor.setCategoricalFeatures
+    public void setCategoricalFeatures(int... features){
+        this.categoricalFeatures=(features==null || features.length==0)?null:features.clone();
+    }
+
+    //exact dense fits sort every feature of X once up front and all trees read large nodes in that
+    //order instead of sorting them again (see PresortedColumns). On by default: the index is an int
+    //per value of X, half as much memory again as X itself, held until the fit returns; false skips it
+    public void setPresort(boolean presort){
+        this.presort=presort;
+    }
+
+    //false = every tree sees every row once instead of a bootstrap sample
+    public void setBootstrap(boolean bootstrap){
+        this.bootstrap=bootstrap;
+    }
+
+    //split search of every tree, see DecisionTreeRegressor.setSplitter
+    public void setSplitter(String splitter){
+        this.splitter=splitter;
+    }
+
+    //features tried at each split of every tree: "sqrt", "log2", a fraction like "0.3" or a count like "12"; null = numFeatures/3
+    public void setMaxFeatures(String maxFeatures){
+        FeatureSampler.resolve(maxFeatures,1); //rejects unknown settings now rather than at fit
+        this.maxFeatures=maxFeatures;
+    }
+
+    //keep a running out-of-bag prediction per row during fit, read back with getOobScore
+    public void setOobScore(boolean oobScore){
+        this.oobScore=oobScore;
     }
 
+    //grow in blocks of checkEvery trees and stop once the out-of-bag MSE has not improved by more
+    //than tol for nIterNoChange checks in a row (numtrees stays the upper bound)
+    public void setEarlyStopping(int checkEvery,int nIterNoChange,double tol){
+        if(checkEvery<1 || nIterNoChange<1){
+            throw new IllegalArgumentException("checkEvery and nIterNoChange must be at least 1");
+        }
+        this.checkEvery=checkEvery;
+        this.nIterNoChange=nIterNoChange;
+        this.tol=tol;
+    }
+
+    //replaces the forest with numtrees new trees
     public void fit ( double[][] X,double[] y){
-        int numSamples=X.length;
-        int numFeatures=X[0].length; // ADDED
+        trees.clear();
+        oobSum=null;
+        grow(X,null,y,0,numtrees);
+    }
+
+    //sparse X: every tree searches only the non-zeros (see SparseSplitEngine), maxBins does not apply.
+    //On near ties a tree may split elsewhere than on dense X, see DecisionTreeRegressor.fit(SparseMatrix,double[])
+    public void fit(SparseMatrix X,double[] y){
+        trees.clear();
+        oobSum=null;
+        grow(null,X,y,0,numtrees);
+    }
+
+    //warm start: grows count more trees on X,y and appends them, the trees already in the forest
+    //(fitted or loaded with fromJson) are kept as they are. X,y may be new data. With the same seed,
+    //fit followed by addTrees on the same data grows the same trees as one fit of the combined size.
+    //a loaded forest needs setMaxDepth and setMinSamplesSplit first, the other settings start at
+    //the defaults of a new forest
+    public void addTrees(double[][] X,double[] y,int count){
+        grow(X,null,y,trees.size(),count);
+    }
+
+    public void addTrees(SparseMatrix X,double[] y,int count){
+        grow(null,X,y,trees.size(),count);
+    }
+
+    // sharded training: replaces the forest with trees firstTree..firstTree+count-1 of the seed only.
+    // forests grown this way for consecutive ranges, concatenated in order, are the forest one fit
+    // of the whole range would grow (see tree.distributed.ShardedForestTrainer)
+    public void fitShard(double[][] X,double[] y,int firstTree,int count){
+        trees.clear();
+        oobSum=null;
+        grow(X,null,y,firstTree,count);
+    }
+
+    // exactly one of X and sparse is set
+    private void grow(double[][] X,SparseMatrix sparse,double[] y,int first,int count){
+        if(maxdepth<0 || minsamplesplit<0){
+            throw new IllegalStateException("Growth settings of a forest loaded from json are unknown, call setMaxDepth and setMinSamplesSplit first");
+        }
+        int numSamples=(sparse!=null)?sparse.numRows():X.length;
+        int numFeatures=(sparse!=null)?sparse.numCols():X[0].length; // ADDED
+        if(sparse!=null && splitter.equals("random")){
+            throw new IllegalArgumentException("The random splitter needs a dense X");
+        }
+
+        // ADDED: set maxFeatures for regression rule (numFeatures/3) unless set explicitly
+        int featuresToTry=(maxFeatures==null)?Math.max(1,numFeatures/3):FeatureSampler.resolve(maxFeatures,numFeatures);
+
+        // binned once for the whole forest and shared by every tree
+        BinnedMatrix bins=(X!=null && maxBins>0 && splitter.equals("best"))?BinnedMatrix.fromMatrix(X,maxBins):null;
+        // sorted once here instead of at every node of every tree
+        PresortedColumns presorted=(X!=null && bins==null && presort && splitter.equals("best"))?PresortedColumns.of(X,nJobs,pool):null;
+
+        SplittableRandom[] streams=streams(first,count);
+
+        boolean trackOob=oobScore || checkEvery>0;
+        if(trackOob && !bootstrap){
+            throw new IllegalStateException("Out-of-bag estimates need bootstrap sampling");
+        }
+        if(!trackOob){
+            oobSum=null;
+        }
+        // OOB sums carry over only while the forest keeps growing on the same rows
+        else if(oobSum==null || (sparse!=null?sparse:X)!=oobData || y!=oobTargets){
+            oobSum=new double[numSamples];
+            oobTrees=new int[numSamples];
+            oobTargets=y;
+            oobData=(sparse!=null)?sparse:X;
+        }
 
-        // ADDED: set maxFeatures for regression rule (numFeatures/3)
-        int maxFeatures=Math.max(1,numFeatures/3);
+        // trees are trained in blocks and folded into the OOB sums in tree order, so the sums
+        // (and where early stopping stops) do not depend on the thread count
+        int block=(checkEvery>0)?checkEvery:count;
+        double bestError=Double.MAX_VALUE;
+        int noChange=0;
+        for(int from=0;from<count;from+=block){
+            int offset=from;
+            List<Grown> grown=ParallelRunner.run(Math.min(block,count-from),i->fitTree(X,sparse,y,bins,presorted,featuresToTry,streams[offset+i],trackOob),nJobs,pool);
+            for(Grown g:grown){
+                trees.add(g.tree);
+                if(trackOob){
+                    addOob(g);
+                }
+            }
+            if(checkEvery>0){
+                double error=oobError();
+                if(error<bestError-tol){
+                    bestError=error;
+                    noChange=0;
+                }
+                else if(++noChange>=nIterNoChange){
+                    break;
+                }
+            }
+        }
+        compile();
+    }
+
+    // one independent stream per tree, split in tree order so results don't depend on scheduling;
+    // tree t always gets the t-th stream of the seed, whether it was grown by fit or by addTrees
+    private SplittableRandom[] streams(int first,int count){
+        SplittableRandom master=new SplittableRandom(seed);
+        for(int i=0;i<first;i++){
+            master.split();
+        }
+        SplittableRandom[] streams=new SplittableRandom[count];
+        for(int i=0;i<count;i++){
+            streams[i]=master.split();
+        }
+        return streams;
+    }
+
+    // a trained tree with its out-of-bag rows and its predictions for them (null when not tracked)
+    private static class Grown{
+        DecisionTreeRegressor tree;
+        long[] oob;
+        double[] oobPredictions;
+    }
+
+    private void addOob(Grown g){
+        int k=0;
+        for(int row=OutOfBag.next(g.oob,0);row>=0;row=OutOfBag.next(g.oob,row+1)){
+            oobSum[row]+=g.oobPredictions[k++];
+            oobTrees[row]++;
+        }
+    }
+
+    // mean squared error of the running OOB prediction over rows that were out of bag at least once
+    private double oobError(){
+        double sse=0;
+        int covered=0;
+        for(int i=0;i<oobSum.length;i++){
+            if(oobTrees[i]>0){
+                double d=oobSum[i]/oobTrees[i]-oobTargets[i];
+                sse+=d*d;
+                covered++;
+            }
+        }
+        return covered==0?Double.MAX_VALUE:sse/covered;
+    }
+
+    //R^2 of the out-of-bag predictions of the last fit, over rows left out by at least one tree.
+    //0 when no row was left out (as the classifier's accuracy); when the targets of those rows are
+    //all equal R^2 is undefined and counts as 1 for exact predictions, 0 otherwise
+    public double getOobScore(){
+        if(oobSum==null){
+            throw new IllegalStateException("Out-of-bag score was not tracked, call setOobScore(true) before fit");
+        }
+        double mean=0;
+        int covered=0;
+        for(int i=0;i<oobSum.length;i++){
+            if(oobTrees[i]>0){
+                mean+=oobTargets[i];
+                covered++;
+            }
+        }
+        if(covered==0){
+            return 0;
+        }
+        mean/=covered;
+        double ssres=0,sstot=0;
+        for(int i=0;i<oobSum.length;i++){
+            if(oobTrees[i]>0){
+                double pred=oobSum[i]/oobTrees[i];
+                ssres+=(oobTargets[i]-pred)*(oobTargets[i]-pred);
+                sstot+=(oobTargets[i]-mean)*(oobTargets[i]-mean);
+            }
+        }
+        if(sstot==0){
+            return ssres==0?1:0;
+        }
+        return 1-ssres/sstot;
+    }
+
+    //running out-of-bag prediction of every training row, NaN for rows no tree left out
+    public double[] getOobPrediction(){
+        if(oobSum==null){
+            throw new IllegalStateException("Out-of-bag score was not tracked, call setOobScore(true) before fit");
+        }
+        double[] out=new double[oobSum.length];
+        for(int i=0;i<out.length;i++){
+            out[i]=oobTrees[i]>0?oobSum[i]/oobTrees[i]:Double.NaN;
+        }
+        return out;
+    }
 
-        for(int i=0;i<numtrees;i++){
-            double[][] Xsample=new double[numSamples][];
-            double[] ysample=new double[numSamples];
+    private void compile(){
+        compiled=new FlatTree[trees.size()];
+        for(int i=0;i<compiled.length;i++){
+            compiled[i]=trees.get(i).getFlatTree();
+        }
+        quickScorer=null;
+        generated=null;
+    }
 
+    private Grown fitTree(double[][] X,SparseMatrix sparse,double[] y,BinnedMatrix bins,PresortedColumns presorted,int featuresToTry,SplittableRandom rng,boolean trackOob){
+        // bootstrap as a multiplicity per row of the original X, nothing is copied
+        int numSamples=(sparse!=null)?sparse.numRows():X.length;
+        int[] counts=null;
+        if(bootstrap){
+            counts=new int[numSamples];
             for(int j=0;j<numSamples;j++){
-                int idx=rand.nextInt(numSamples);
-                Xsample[j]=Arrays.copyOf(X[idx],X[idx].length); // safer copy
-                ysample[j]=y[idx];
+                counts[rng.nextInt(numSamples)]++;
             }
+        }
 
-            // ADDED: pass maxFeatures and rand to each tree
-            DecisionTreeRegressor tree=new DecisionTreeRegressor(maxdepth,minsamplesplit,maxFeatures,rand);
-            tree.fit(Xsample,ysample);
-            trees.add(tree);
+        // ADDED: pass maxFeatures and a per-tree random to each tree
+        DecisionTreeRegressor tree=new DecisionTreeRegressor(maxdepth,minsamplesplit,featuresToTry,new Random(rng.nextLong()));
+        tree.setMaxLeafNodes(maxLeafNodes);
+        tree.setSplitter(splitter);
+        tree.setMinImpurityDecrease(minImpurityDecrease);
+        tree.setMinSamplesLeaf(minSamplesLeaf);
+        tree.setCcpAlpha(ccpAlpha);
+        tree.setCategoricalFeatures(categoricalFeatures);
+        tree.setPresorted(presorted);
+        if(sparse!=null){
+            tree.fit(sparse,y,counts);
+        }
+        else if(bins!=null){
+            tree.fit(bins,y,counts);
+        }
+        else{
+            tree.fit(X,y,counts);
+        }
+        tree.setPresorted(null);   //the index is only needed while growing, the forest keeps no reference to it
+        Grown grown=new Grown();
+        grown.tree=tree;
+        if(trackOob){
+            // predicted here so the OOB pass runs on the same thread as the tree
+            grown.oob=OutOfBag.fromCounts(counts);
+            grown.oobPredictions=new double[OutOfBag.count(grown.oob)];
+            FlatTree flat=tree.getFlatTree();
+            int k=0;
+            for(int row=OutOfBag.next(grown.oob,0);row>=0;row=OutOfBag.next(grown.oob,row+1)){
+                grown.oobPredictions[k++]=(sparse!=null)?flat.predict(sparse,row):flat.predict(X[row]);
+            }
         }
+        return grown;
     }
 
     public double predict_row(double[] x){
         double sum=0.0;
-        for(DecisionTreeRegressor tree:trees){
-            sum+=tree.predict_row(x);
+        for(FlatTree tree:compiled){
+            sum+=tree.predict(x);
         }
-        return sum/trees.size();
+        return sum/compiled.length;
     }
 
     public double[] predict(double[][] X){
@@ -62,8 +414,69 @@ public class RandomForestRegressor {
         return predictions;
     }
 
+    public double[] predict(SparseMatrix X){
+        double[] predictions=new double[X.numRows()];
+        for(int i=0;i<predictions.length;i++){
+            double sum=0.0;
+            for(FlatTree tree:compiled){
+                sum+=tree.predict(X,i);
+            }
+            predictions[i]=sum/compiled.length;
+        }
+        return predictions;
+    }
+
+    //collapses redundant splits in every tree (see compact of the tree class), predictions do not change.
+    //returns how many nodes were removed
+    public int compact(){
+        int removed=0;
+        for(DecisionTreeRegressor tree:trees){
+            removed+=tree.compact();
+        }
+        compile();
+        return removed;
+    }
+
+    //flat form of every tree in forest order
+    public FlatTree[] getFlatTrees(){
+        return compiled.clone();
+    }
+
+    //whole forest as generated bytecode, falls back to walking the flat trees if it is too large for a class file
+    public TreePredictor compileBytecode(){
+        TreePredictor predictor=generated;
+        if(predictor==null){
+            predictor=TreeCompiler.compile(compiled);
+            generated=predictor;
+        }
+        return predictor;
+    }
+
+    //same predictions as predict(X), QUICK_SCORER avoids per-node branches on large batches,
+    //COMPILED runs the trees as generated code. Forests with categorical splits ignore QUICK_SCORER
+    public double[] predict(double[][] X,ScoringMode mode){
+        if(mode==ScoringMode.COMPILED){
+            TreePredictor predictor=compileBytecode();
+            double[] predictions=new double[X.length];
+            for(int i=0;i<X.length;i++){
+                predictions[i]=predictor.mean(X[i]);
+            }
+            return predictions;
+        }
+        if(mode==ScoringMode.QUICK_SCORER && QuickScorer.supports(compiled)){
+            QuickScorer scorer=quickScorer;
+            if(scorer==null){
+                scorer=new QuickScorer(compiled);
+                quickScorer=scorer;
+            }
+            return scorer.mean(X);
+        }
+        return predict(X);
+    }
+
+    //trees actually in the forest (fewer than requested when early stopping ended fit)
     public int getNumberOfTrees() {
-        return numtrees;
+        return trees.size();
     }
 
     public String getForestJson() {
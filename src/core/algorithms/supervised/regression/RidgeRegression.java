@@ -11,15 +11,16 @@ public class RidgeRegression extends LinearRegression {
     }
 
     @Override
-    public void modify(double[] x,double y){
-        double y_pred=predict(x);
+    protected void modify(double[] x,int offset,int stride,double y){
+        double y_pred=predict(x,offset,stride);
         double e= y -y_pred;
-        for(int i=0;i<weights.length;i++){
+        for(int i=0,p=offset;i<weights.length;i++,p+=stride){
             //including the penalising term lambda 
-            weights[i]+=learning_rate*(e*x[i]-2*lambda*weights[i]);
+            double w=weight(i);
+            setWeight(i,w+learning_rate*(e*x[p]-2*lambda*w));
 
         }
         //modifying the bias 
-        bias+=learning_rate*e;
+        setBias(getBias()+learning_rate*e);
     }
 }
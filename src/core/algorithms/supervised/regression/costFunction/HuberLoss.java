@@ -43,6 +43,19 @@ public class HuberLoss implements CostFunction {
         }
     }
 
+    // the error clamped to [-delta, delta], calculateBiasGradient for every finite error, without the branch
+    @Override
+    public void calculateBiasGradients(double[] predicted, double[] actual, double[] residuals, int n) {
+        for (int i = 0; i < n; i++) {
+            residuals[i] = Math.max(-delta, Math.min(delta, predicted[i] - actual[i]));
+        }
+    }
+
+    @Override
+    public double calculateBiasHessian(double predicted, double actual) {
+        return Math.abs(predicted - actual) <= delta ? 1 : 0;
+    }
+
     @Override
     public String getName() {
         return "Huber Loss (δ=" + delta + ")";
@@ -21,6 +21,12 @@ public class LogCoshLoss implements CostFunction {
         return Math.tanh(error);
     }
 
+    @Override
+    public double calculateBiasHessian(double predicted, double actual) {
+        double t = Math.tanh(predicted - actual);
+        return 1 - t * t;
+    }
+
     @Override
     public String getName() {
         return "Log-Cosh Loss";
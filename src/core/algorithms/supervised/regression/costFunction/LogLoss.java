@@ -0,0 +1,39 @@
+package core.algorithms.supervised.regression.costFunction;
+
+import core.algorithms.supervised.regression.interfaces.CostFunction;
+
+// Binary cross-entropy on a raw score: predicted is the log-odds z, actual is 0 or 1,
+// cost = log(1 + e^z) - actual * z. Used by gradient boosted classifiers.
+public class LogLoss implements CostFunction {
+    @Override
+    public double calculateCost(double predicted, double actual) {
+        // log(1 + e^z) without overflow for large |z|
+        double softplus = Math.max(predicted, 0) + Math.log1p(Math.exp(-Math.abs(predicted)));
+        return softplus - actual * predicted;
+    }
+
+    @Override
+    public double calculateGradient(double predicted, double actual, double feature) {
+        return (sigmoid(predicted) - actual) * feature;
+    }
+
+    @Override
+    public double calculateBiasGradient(double predicted, double actual) {
+        return sigmoid(predicted) - actual;
+    }
+
+    @Override
+    public double calculateBiasHessian(double predicted, double actual) {
+        double p = sigmoid(predicted);
+        return p * (1 - p);
+    }
+
+    @Override
+    public String getName() {
+        return "Log Loss";
+    }
+
+    public static double sigmoid(double z) {
+        return 1.0 / (1.0 + Math.exp(-z));
+    }
+}
@@ -20,6 +20,11 @@ public class MeanAbsoluteError implements CostFunction {
         return (error > 0 ? 1 : -1);
     }
 
+    @Override
+    public double calculateBiasHessian(double predicted, double actual) {
+        return 0; // piecewise linear, no curvature
+    }
+
     @Override
     public String getName() {
         return "Mean Absolute Error";
@@ -19,6 +19,29 @@ public class MeanSquaredError implements CostFunction {
         return 2 * (predicted - actual);
     }
 
+    // branch-free loops the JIT can vectorize
+    @Override
+    public void calculateBiasGradients(double[] predicted, double[] actual, double[] residuals, int n) {
+        for (int i = 0; i < n; i++) {
+            residuals[i] = 2 * (predicted[i] - actual[i]);
+        }
+    }
+
+    @Override
+    public double calculateTotalCost(double[] predicted, double[] actual, int n) {
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            double error = predicted[i] - actual[i];
+            total += error * error;
+        }
+        return total;
+    }
+
+    @Override
+    public double calculateBiasHessian(double predicted, double actual) {
+        return 2;
+    }
+
     @Override
     public String getName() {
         return "Mean Squared Error";
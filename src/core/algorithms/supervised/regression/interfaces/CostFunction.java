@@ -2,7 +2,33 @@ package core.algorithms.supervised.regression.interfaces;
 
 public interface CostFunction {
     double calculateCost(double predicted, double actual);
+    // d cost / d weight for a linear model: calculateBiasGradient(predicted, actual) * feature;
+    // ModularLinearRegression relies on this and builds weight gradients from the bias gradient
     double calculateGradient(double predicted, double actual, double feature);
     double calculateBiasGradient(double predicted, double actual);
     String getName();
-}
\ No newline at end of file
+
+    // batch forms over the first n entries, for trainers that keep predictions in an array.
+    // residuals[i] = d cost / d predicted[i]; a linear model's weight gradient is then X^T residuals
+    default void calculateBiasGradients(double[] predicted, double[] actual, double[] residuals, int n) {
+        for (int i = 0; i < n; i++) {
+            residuals[i] = calculateBiasGradient(predicted[i], actual[i]);
+        }
+    }
+
+    // sum (not mean) of the costs
+    default double calculateTotalCost(double[] predicted, double[] actual, int n) {
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += calculateCost(predicted[i], actual[i]);
+        }
+        return total;
+    }
+
+    // second derivative of the cost with respect to predicted (used by gradient boosting for
+    // Newton steps); numerical by default, losses with a closed form override it
+    default double calculateBiasHessian(double predicted, double actual) {
+        double h = 1e-5 * Math.max(1.0, Math.abs(predicted));
+        return (calculateBiasGradient(predicted + h, actual) - calculateBiasGradient(predicted - h, actual)) / (2 * h);
+    }
+}
@@ -1,13 +1,12 @@
 package core.algorithms.supervised.regression.optimizer;
 
 import core.algorithms.supervised.regression.interfaces.Optimizer;
+import core.utils.VectorOps;
 
 public class BatchGradientDescent implements Optimizer {
     @Override
     public void updateWeights(double[] weights, double[] gradients, double learningRate) {
-        for (int i = 0; i < weights.length; i++) {
-            weights[i] -= learningRate * gradients[i];
-        }
+        VectorOps.step(weights, gradients, learningRate);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package core.algorithms.supervised.regression.optimizer;
 
 import core.algorithms.supervised.regression.interfaces.Optimizer;
+import core.utils.VectorOps;
 
 public class MiniBatchGradientDescent implements Optimizer {
     private int batchSize;
@@ -16,9 +17,7 @@ public class MiniBatchGradientDescent implements Optimizer {
     @Override
     public void updateWeights(double[] weights, double[] gradients, double learningRate) {
         // Average gradients over batch
-        for (int i = 0; i < weights.length; i++) {
-            weights[i] -= learningRate * gradients[i] / batchSize;
-        }
+        VectorOps.step(weights, gradients, learningRate, batchSize);
     }
 
     @Override
@@ -0,0 +1,113 @@
+package core.algorithms.supervised.tree;
+
+import java.util.Arrays;
+
+// Training matrix quantized to at most 256 bins per feature, one byte per value.
+// Codes are stored column by column so building a histogram for one feature is a linear scan.
+// edges[f][b] is the real threshold between bin b and bin b+1: x < edges[f][b] exactly when code <= b,
+// so a split found on bins maps back to an ordinary "x[f] < threshold" split.
+public class BinnedMatrix {
+    public static final int MAX_BINS = 256;
+
+    private final byte[][] codes;    // codes[feature][row]
+    private final double[][] edges;  // edges[feature], strictly increasing, length = bins - 1
+
+    private BinnedMatrix(byte[][] codes, double[][] edges) {
+        this.codes = codes;
+        this.edges = edges;
+    }
+
+    // quantize every column of X once, using quantile edges placed between distinct values
+    public static BinnedMatrix fromMatrix(double[][] X, int maxBins) {
+        if (maxBins < 2 || maxBins > MAX_BINS) {
+            throw new IllegalArgumentException("maxBins must be between 2 and " + MAX_BINS + ": " + maxBins);
+        }
+        int n = X.length;
+        int d = n == 0 ? 0 : X[0].length;
+        double[][] edges = new double[d][];
+        double[] column = new double[n];
+        for (int f = 0; f < d; f++) {
+            for (int i = 0; i < n; i++) {
+                column[i] = X[i][f];
+            }
+            Arrays.sort(column);
+            edges[f] = findEdges(column, maxBins);
+        }
+        return withEdges(X, edges);
+    }
+
+    // quantize X with edges computed elsewhere (e.g. on the full training set)
+    public static BinnedMatrix withEdges(double[][] X, double[][] edges) {
+        int n = X.length;
+        byte[][] codes = new byte[edges.length][n];
+        for (int f = 0; f < edges.length; f++) {
+            for (int i = 0; i < n; i++) {
+                codes[f][i] = (byte) binOf(edges[f], X[i][f]);
+            }
+        }
+        return new BinnedMatrix(codes, edges);
+    }
+
+    private static double[] findEdges(double[] sorted, int maxBins) {
+        int n = sorted.length;
+        double[] found = new double[maxBins - 1];
+        int count = 0;
+        int i = 0;
+        while (i < n && count < maxBins - 1) {
+            int j = i;
+            while (j + 1 < n && sorted[j + 1] == sorted[i]) {
+                j++;
+            }
+            // close a bin once it holds its share of the rows (or every distinct value gets its own bin)
+            if (j + 1 < n && (j + 1) >= (long) (count + 1) * n / maxBins) {
+                double lo = sorted[j], hi = sorted[j + 1];
+                double t = (lo + hi) / 2.0;
+                found[count++] = t > lo ? t : hi;
+            }
+            i = j + 1;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // number of edges <= x
+    private static int binOf(double[] e, double x) {
+        int lo = 0, hi = e.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (e[mid] <= x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int numRows() {
+        return codes.length == 0 ? 0 : codes[0].length;
+    }
+
+    public int numFeatures() {
+        return codes.length;
+    }
+
+    public int numBins(int feature) {
+        return edges[feature].length + 1;
+    }
+
+    public int code(int feature, int row) {
+        return codes[feature][row] & 0xFF;
+    }
+
+    public byte[] column(int feature) {
+        return codes[feature];
+    }
+
+    public double edge(int feature, int bin) {
+        return edges[feature][bin];
+    }
+
+    public double[][] getEdges() {
+        return edges;
+    }
+}
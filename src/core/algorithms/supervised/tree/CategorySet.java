@@ -0,0 +1,78 @@
+package core.algorithms.supervised.tree;
+
+import java.util.List;
+
+// Left side of a categorical split as a bitset over the category codes (bit c = code c goes left),
+// sized to the largest code on the left. A value that is not a non-negative integer, or a code
+// past the end of the set (e.g. a category never seen in training), goes right.
+public class CategorySet {
+    // codes above this are rejected at fit, so a set never needs more than 2 MB
+    public static final int MAX_CODE = (1 << 24) - 1;
+
+    public static boolean contains(long[] set, double value) {
+        int code = (int) value;
+        if (code != value || code < 0 || (code >>> 6) >= set.length) {
+            return false;
+        }
+        return (set[code >>> 6] & (1L << code)) != 0;
+    }
+
+    public static long[] of(int[] codes) {
+        int max = 0;
+        for (int c : codes) {
+            max = Math.max(max, c);
+        }
+        long[] set = new long[(max >>> 6) + 1];
+        for (int c : codes) {
+            set[c >>> 6] |= 1L << c;
+        }
+        return set;
+    }
+
+    // the json form: a list of numbers
+    public static long[] of(List<?> codes) {
+        int[] values = new int[codes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) codes.get(i)).intValue();
+        }
+        return of(values);
+    }
+
+    // codes in the set, ascending
+    public static int[] codes(long[] set) {
+        int n = 0;
+        for (long word : set) {
+            n += Long.bitCount(word);
+        }
+        int[] codes = new int[n];
+        int k = 0;
+        for (int w = 0; w < set.length; w++) {
+            for (long word = set[w]; word != 0; word &= word - 1) {
+                codes[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return codes;
+    }
+
+    public static String toJson(long[] set) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int c : codes(set)) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(c);
+        }
+        return sb.append(']').toString();
+    }
+
+    // rejects a column that does not hold category codes
+    static void checkCodes(double[][] X, int feature) {
+        for (int i = 0; i < X.length; i++) {
+            double v = X[i][feature];
+            if (v != (int) v || v < 0 || v > MAX_CODE) {
+                throw new IllegalArgumentException("Categorical feature " + feature + " must hold integer codes in [0, "
+                        + MAX_CODE + "], row " + i + " has " + v);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package core.algorithms.supervised.tree;
+
+// Classification criterion: a group is (weight, count of class 0, count of class 1, ...).
+// Counts are indexed by the dense ids of ClassLabels, so sweeping a threshold only moves
+// one row's weight between two flat arrays; subclasses only define the impurity of the counts.
+public abstract class ClassCriterion extends SplitCriterion {
+    protected final ClassLabels labels;
+    protected final int numClasses;
+
+    protected ClassCriterion(ClassLabels labels) {
+        this.labels = labels;
+        this.numClasses = labels.numClasses();
+    }
+
+    // "gini" or "entropy"
+    public static ClassCriterion of(String name, ClassLabels labels) {
+        switch (name) {
+            case "gini":
+                return new GiniCriterion(labels);
+            case "entropy":
+                return new EntropyCriterion(labels);
+            default:
+                throw new IllegalArgumentException("Unknown criterion: " + name);
+        }
+    }
+
+    @Override
+    public int statSize() {
+        return 1 + numClasses;
+    }
+
+    @Override
+    public void add(double[] stats, int off, int row, double w) {
+        stats[off] += w;
+        stats[off + 1 + labels.id(row)] += w;
+    }
+
+    // majority class, ties go to the smallest label
+    @Override
+    public double leafValue(double[] stats, int off) {
+        int best = 0;
+        for (int c = 1; c < numClasses; c++) {
+            if (stats[off + 1 + c] > stats[off + 1 + best]) {
+                best = c;
+            }
+        }
+        return labels.label(best);
+    }
+
+    // two classes: the share of the second class orders the categories optimally (Breiman).
+    // more classes: one order per class by its share, a one-vs-rest heuristic, not exhaustive
+    @Override
+    public int categoryOrders() {
+        return numClasses == 2 ? 1 : numClasses;
+    }
+
+    @Override
+    public double categoryKey(double[] stats, int off, int order) {
+        int c = numClasses == 2 ? 1 : order;
+        return stats[off + 1 + c] / stats[off];
+    }
+
+    // true when every row of the group has the same class
+    public boolean isPure(double[] stats, int off) {
+        for (int c = 1; c <= numClasses; c++) {
+            if (stats[off + c] == stats[off]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package core.algorithms.supervised.tree;
+
+import java.util.Arrays;
+
+// Class labels encoded once as dense ids 0..k-1 (in ascending label order), with the way back.
+// Built at fit time and shared by every tree of a forest so no tree re-encodes y.
+public class ClassLabels {
+    private final int[] ids;      // dense class id of every row
+    private final int[] classes;  // dense id -> original label (sorted ascending)
+
+    public ClassLabels(int[] y) {
+        int[] sorted = y.clone();
+        Arrays.sort(sorted);
+        int k = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[k++] = sorted[i];
+            }
+        }
+        this.classes = Arrays.copyOf(sorted, k);
+        this.ids = new int[y.length];
+        for (int i = 0; i < y.length; i++) {
+            ids[i] = Arrays.binarySearch(classes, y[i]);
+        }
+    }
+
+    public int numClasses() {
+        return classes.length;
+    }
+
+    public int numRows() {
+        return ids.length;
+    }
+
+    // dense id of row i
+    public int id(int row) {
+        return ids[row];
+    }
+
+    // original label of a dense id
+    public int label(int id) {
+        return classes[id];
+    }
+
+    public int[] getClasses() {
+        return classes.clone();
+    }
+}
@@ -0,0 +1,30 @@
+package core.algorithms.supervised.tree;
+
+// Shannon entropy -sum(p_c log2 p_c) of the class counts; the best split maximises information gain.
+public class EntropyCriterion extends ClassCriterion {
+    private static final double LN2 = Math.log(2);
+
+    public EntropyCriterion(int[] y) {
+        this(new ClassLabels(y));
+    }
+
+    public EntropyCriterion(ClassLabels labels) {
+        super(labels);
+    }
+
+    @Override
+    public double impurity(double[] stats, int off) {
+        double w = stats[off];
+        if (w <= 0) {
+            return 0;
+        }
+        double entropy = 0.0;
+        for (int c = 1; c <= numClasses; c++) {
+            double p = stats[off + c] / w;
+            if (p > 0) {
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / LN2;
+    }
+}
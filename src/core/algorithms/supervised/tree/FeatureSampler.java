@@ -0,0 +1,59 @@
+package core.algorithms.supervised.tree;
+
+import java.util.SplittableRandom;
+
+// Candidate features of a node, drawn without replacement.
+// max_features follows scikit-learn: "sqrt", "log2", a fraction of the features ("0.3") or a
+// count ("12"); null or "all" means every feature.
+public class FeatureSampler {
+
+    // number of features to try at each node, at least 1 and at most numFeatures
+    public static int resolve(String maxFeatures, int numFeatures) {
+        if (maxFeatures == null || maxFeatures.equals("all")) {
+            return numFeatures;
+        }
+        int k;
+        switch (maxFeatures) {
+            case "sqrt":
+                k = (int) Math.sqrt(numFeatures);
+                break;
+            case "log2":
+                k = (int) (Math.log(numFeatures) / Math.log(2));
+                break;
+            default:
+                try {
+                    if (maxFeatures.contains(".")) {
+                        double fraction = Double.parseDouble(maxFeatures);
+                        if (!(fraction > 0 && fraction <= 1)) {
+                            throw new IllegalArgumentException("max_features fraction must be in (0, 1]: " + maxFeatures);
+                        }
+                        k = (int) (fraction * numFeatures);
+                    } else {
+                        k = Integer.parseInt(maxFeatures);
+                        if (k < 1) {
+                            throw new IllegalArgumentException("max_features must be at least 1: " + maxFeatures);
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Unknown max_features: " + maxFeatures);
+                }
+        }
+        return Math.max(1, Math.min(k, numFeatures));
+    }
+
+    // features must hold every feature index; moves k random distinct ones to the front with a
+    // partial Fisher-Yates shuffle (k swaps, no rejection) and returns how many to try
+    public static int sample(int[] features, int k, SplittableRandom rng) {
+        int n = features.length;
+        if (k >= n) {
+            return n;
+        }
+        for (int i = 0; i < k; i++) {
+            int j = i + rng.nextInt(n - i);
+            int tmp = features[i];
+            features[i] = features[j];
+            features[j] = tmp;
+        }
+        return k;
+    }
+}
@@ -0,0 +1,168 @@
+package core.algorithms.supervised.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiled, read-only form of a trained tree used for prediction.
+// Nodes live in parallel primitive arrays in breadth-first order (root = 0), so the top
+// levels that every row visits sit next to each other in memory and traversal is a plain loop.
+// feature[n] < 0 marks a leaf. A categorical split sends x left when x[feature] is in its
+// CategorySet instead of comparing with the threshold.
+public class FlatTree {
+    private final int[] feature;
+    private final double[] threshold;
+    private final int[] left, right;
+    private final double[] leafValue;
+    private final long[][] categories;   // per node, null for threshold splits; null when the tree has none
+
+    // read access to a linked node type, so each tree class can keep its own Node
+    public interface NodeView<N> {
+        boolean isLeaf(N node);
+        int feature(N node);
+        double threshold(N node);
+        N left(N node);
+        N right(N node);
+        double value(N node);
+
+        // codes going left of a categorical split, null for a threshold split
+        default long[] categories(N node) {
+            return null;
+        }
+    }
+
+    private FlatTree(int[] feature, double[] threshold, int[] left, int[] right, double[] leafValue, long[][] categories) {
+        this.feature = feature;
+        this.threshold = threshold;
+        this.left = left;
+        this.right = right;
+        this.leafValue = leafValue;
+        this.categories = categories;
+    }
+
+    public static <N> FlatTree compile(N root, NodeView<N> view) {
+        // breadth-first numbering: a node's children get the next free slots in visit order
+        List<N> order = new ArrayList<>();
+        ArrayDeque<N> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            N node = queue.poll();
+            order.add(node);
+            if (!view.isLeaf(node)) {
+                queue.add(view.left(node));
+                queue.add(view.right(node));
+            }
+        }
+
+        int size = order.size();
+        int[] feature = new int[size];
+        double[] threshold = new double[size];
+        int[] left = new int[size];
+        int[] right = new int[size];
+        double[] leafValue = new double[size];
+        long[][] categories = null;
+        int next = 1;
+        for (int n = 0; n < size; n++) {
+            N node = order.get(n);
+            if (view.isLeaf(node)) {
+                feature[n] = -1;
+                leafValue[n] = view.value(node);
+            } else {
+                feature[n] = view.feature(node);
+                threshold[n] = view.threshold(node);
+                long[] set = view.categories(node);
+                if (set != null) {
+                    if (categories == null) {
+                        categories = new long[size][];
+                    }
+                    categories[n] = set;
+                }
+                left[n] = next++;
+                right[n] = next++;
+            }
+        }
+        return new FlatTree(feature, threshold, left, right, leafValue, categories);
+    }
+
+    public double predict(double[] x) {
+        int n = 0;
+        if (categories == null) {
+            while (feature[n] >= 0) {
+                n = (x[feature[n]] < threshold[n]) ? left[n] : right[n];
+            }
+        } else {
+            while (feature[n] >= 0) {
+                n = goesLeft(n, x[feature[n]]) ? left[n] : right[n];
+            }
+        }
+        return leafValue[n];
+    }
+
+    private boolean goesLeft(int n, double v) {
+        long[] set = categories == null ? null : categories[n];
+        return set != null ? CategorySet.contains(set, v) : v < threshold[n];
+    }
+
+    public double[] predict(double[][] X) {
+        double[] out = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            out[i] = predict(X[i]);
+        }
+        return out;
+    }
+
+    // one row of a sparse matrix, each visited feature is a binary search in the row's non-zeros
+    public double predict(SparseMatrix X, int row) {
+        int n = 0;
+        while (feature[n] >= 0) {
+            n = goesLeft(n, X.get(row, feature[n])) ? left[n] : right[n];
+        }
+        return leafValue[n];
+    }
+
+    public double[] predict(SparseMatrix X) {
+        double[] out = new double[X.numRows()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = predict(X, i);
+        }
+        return out;
+    }
+
+    public int size() {
+        return feature.length;
+    }
+
+    public boolean isLeaf(int node) {
+        return feature[node] < 0;
+    }
+
+    public int feature(int node) {
+        return feature[node];
+    }
+
+    public double threshold(int node) {
+        return threshold[node];
+    }
+
+    // true when some split tests category membership rather than a threshold
+    public boolean hasCategorical() {
+        return categories != null;
+    }
+
+    // codes going left at node, null for a threshold split or a leaf
+    public long[] categories(int node) {
+        return categories == null ? null : categories[node];
+    }
+
+    public int left(int node) {
+        return left[node];
+    }
+
+    public int right(int node) {
+        return right[node];
+    }
+
+    public double leafValue(int node) {
+        return leafValue[node];
+    }
+}
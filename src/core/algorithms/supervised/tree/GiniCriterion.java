@@ -0,0 +1,27 @@
+package core.algorithms.supervised.tree;
+
+// Gini impurity 1 - sum(p_c^2) of the class counts.
+public class GiniCriterion extends ClassCriterion {
+
+    public GiniCriterion(int[] y) {
+        this(new ClassLabels(y));
+    }
+
+    public GiniCriterion(ClassLabels labels) {
+        super(labels);
+    }
+
+    @Override
+    public double impurity(double[] stats, int off) {
+        double w = stats[off];
+        if (w <= 0) {
+            return 0;
+        }
+        double impurity = 1.0;
+        for (int c = 1; c <= numClasses; c++) {
+            double p = stats[off + c] / w;
+            impurity -= p * p;
+        }
+        return impurity;
+    }
+}
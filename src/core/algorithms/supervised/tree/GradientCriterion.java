@@ -0,0 +1,48 @@
+package core.algorithms.supervised.tree;
+
+// Gradient boosting criterion: a group is (weight, sum of gradients G, sum of hessians H) of the
+// rows' loss at the current prediction. A leaf predicts the Newton step -G / (H + lambda) and a
+// split is scored by the loss reduction it allows, G_L^2/(H_L+lambda) + G_R^2/(H_R+lambda) - G^2/(H+lambda)
+// (XGBoost/LightGBM gain): impurity is -G^2/(H+lambda) per unit weight, so the engines' weighted
+// impurity sum is exactly minus the children's gain terms.
+// The gradient and hessian arrays are read at fit time, a booster refills them between rounds.
+public class GradientCriterion extends SplitCriterion {
+    private final double[] gradient;
+    private final double[] hessian;
+    private final double lambda;   // L2 penalty on leaf values
+
+    public GradientCriterion(double[] gradient, double[] hessian, double lambda) {
+        this.gradient = gradient;
+        this.hessian = hessian;
+        this.lambda = lambda;
+    }
+
+    @Override
+    public int statSize() {
+        return 3;
+    }
+
+    @Override
+    public void add(double[] stats, int off, int row, double w) {
+        stats[off] += w;
+        stats[off + 1] += w * gradient[row];
+        stats[off + 2] += w * hessian[row];
+    }
+
+    @Override
+    public double impurity(double[] stats, int off) {
+        double w = stats[off];
+        double h = stats[off + 2] + lambda;
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        double g = stats[off + 1];
+        return -g * g / h / w;
+    }
+
+    @Override
+    public double leafValue(double[] stats, int off) {
+        double h = stats[off + 2] + lambda;
+        return h > 0 ? -stats[off + 1] / h : 0;
+    }
+}
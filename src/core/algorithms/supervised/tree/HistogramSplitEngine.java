@@ -0,0 +1,83 @@
+package core.algorithms.supervised.tree;
+
+import java.util.Arrays;
+
+// Split search on a BinnedMatrix (LightGBM-style).
+// Per candidate feature the node's rows are accumulated into one stats group per bin,
+// then only the bin boundaries are swept, so the cost after the histogram is built
+// depends on the number of bins instead of the number of rows. No sorting is needed.
+public class HistogramSplitEngine extends SplitEngine {
+    private final BinnedMatrix bins;
+    private final ThreadLocal<double[]> hist;   // numBins groups of stat doubles, one per thread searching this engine
+
+    public HistogramSplitEngine(BinnedMatrix bins, SplitCriterion criterion) {
+        this(bins, criterion, null);
+    }
+
+    public HistogramSplitEngine(BinnedMatrix bins, SplitCriterion criterion, int[] counts) {
+        super(null, bins.numRows(), bins.numFeatures(), criterion, true, counts);
+        this.bins = bins;
+        this.hist = ThreadLocal.withInitial(() -> new double[BinnedMatrix.MAX_BINS * stat]);
+    }
+
+    // rows are only read here, so isolated searches need nothing beyond their own histogram
+    @Override
+    protected Candidate searchFeature(int start, int end, int f, double[] total, boolean isolated) {
+        int numBins = bins.numBins(f);
+        byte[] column = bins.column(f);
+        double[] hist = this.hist.get();
+
+        Arrays.fill(hist, 0, numBins * stat, 0.0);
+        for (int i = start; i < end; i++) {
+            int row = rows[i];
+            criterion.add(hist, (column[row] & 0xFF) * stat, row, weight(row));
+        }
+
+        double n = total[0];
+        double best = Double.MAX_VALUE;
+        double bestThreshold = 0;
+        double[] left = new double[stat];
+        double[] right = new double[stat];
+        for (int b = 0; b < numBins - 1; b++) {
+            int off = b * stat;
+            if (hist[off] == 0) {
+                continue;   // empty bin gives the same partition as the previous boundary
+            }
+            for (int s = 0; s < stat; s++) {
+                left[s] += hist[off + s];
+                right[s] = total[s] - left[s];
+            }
+            if (right[0] <= 0 || right[0] < minLeafWeight) {
+                break;   // the right side only shrinks from here
+            }
+            if (left[0] < minLeafWeight) {
+                continue;
+            }
+            double score = (left[0] / n) * criterion.impurity(left, 0) + (right[0] / n) * criterion.impurity(right, 0);
+            if (score < best) {
+                best = score;
+                bestThreshold = bins.edge(f, b);
+            }
+        }
+        return best == Double.MAX_VALUE ? null : new Candidate(f, best, bestThreshold);
+    }
+
+    // x < edge(f, b) is the same as code <= b, so the byte codes are enough to partition
+    @Override
+    public int partition(int start, int end, Split split) {
+        byte[] column = bins.column(split.feature);
+        int lastLeftBin = Arrays.binarySearch(bins.getEdges()[split.feature], split.threshold);
+        int i = start, j = end - 1;
+        while (i <= j) {
+            int row = rows[i];
+            if ((column[row] & 0xFF) <= lastLeftBin) {
+                i++;
+            } else {
+                rows[i] = rows[j];
+                rows[j] = row;
+                j--;
+            }
+        }
+        return i;
+    }
+}
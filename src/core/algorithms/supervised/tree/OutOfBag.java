@@ -0,0 +1,45 @@
+package core.algorithms.supervised.tree;
+
+// Out-of-bag membership of one bootstrap as a bitset over the rows of X (bit i = row i was not drawn),
+// 1 bit per row instead of an index list.
+public class OutOfBag {
+
+    // rows whose bootstrap multiplicity is 0
+    public static long[] fromCounts(int[] counts) {
+        long[] bits = new long[(counts.length + 63) >>> 6];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    public static boolean contains(long[] bits, int row) {
+        return (bits[row >>> 6] & (1L << row)) != 0;
+    }
+
+    // first out-of-bag row >= from, or -1; loop with row = next(bits, row + 1)
+    public static int next(long[] bits, int from) {
+        int w = from >>> 6;
+        if (w >= bits.length) {
+            return -1;
+        }
+        long word = bits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == bits.length) {
+                return -1;
+            }
+            word = bits[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    public static int count(long[] bits) {
+        int n = 0;
+        for (long word : bits) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,57 @@
+package core.algorithms.supervised.tree;
+
+import core.utils.ParallelRunner;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Read-only index of a dense X: for every feature, all rows of X in ascending order of that
+// feature. Built once and shared by every tree of a forest (also concurrently); a SplitEngine
+// given the index reads a large node's rows in feature order from it instead of sorting them,
+// skipping rows outside the node, so the sort is paid once per forest. Bootstrap multiplicities
+// stay weights of the engine, the index always covers every row once.
+// Costs 4 bytes per value of X, half of X itself.
+public class PresortedColumns {
+    private final double[][] X;
+    private final int[][] order;   // order[f] = row indices by ascending X[row][f]
+
+    private PresortedColumns(double[][] X, int[][] order) {
+        this.X = X;
+        this.order = order;
+    }
+
+    // features are sorted on nJobs threads (n_jobs semantics, see ParallelRunner)
+    public static PresortedColumns of(double[][] X, int nJobs) {
+        return of(X, nJobs, null);
+    }
+
+    // as above, on pool when it is not null (see ParallelRunner.run)
+    public static PresortedColumns of(double[][] X, int nJobs, ForkJoinPool pool) {
+        int numRows = X.length;
+        int numFeatures = numRows == 0 ? 0 : X[0].length;
+        List<int[]> columns = ParallelRunner.run(numFeatures, f -> {
+            int[] rows = new int[numRows];
+            double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                rows[i] = i;
+                values[i] = X[i][f];
+            }
+            SplitEngine.sortByValue(values, rows, 0, numRows - 1);
+            return rows;
+        }, nJobs, pool);
+        return new PresortedColumns(X, columns.toArray(new int[0][]));
+    }
+
+    // true when the index was built on this very matrix
+    public boolean isFor(double[][] X) {
+        return this.X == X;
+    }
+
+    public int numRows() {
+        return X.length;
+    }
+
+    int[] order(int feature) {
+        return order[feature];
+    }
+}
@@ -0,0 +1,224 @@
+package core.algorithms.supervised.tree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// QuickScorer-style batch scorer for a forest of FlatTrees.
+// Leaves of every tree are numbered left to right and each tree keeps a bitvector of
+// leaves that can still be reached (bit i = leaf i). A split node whose test is false
+// for x (x >= threshold, so x goes right) rules out every leaf of its left subtree.
+// Instead of walking trees, each feature's split nodes are visited in ascending
+// threshold order and stop at the first threshold above x[f]: every node visited is
+// false, so its left-subtree bits are cleared. The exit leaf of a tree is then the
+// lowest bit still set, found with one AND per false node and a trailing-zero count.
+// Trees with more than 64 leaves simply use several words (RapidScorer-style).
+// Only threshold splits can be ordered this way, trees with categorical splits are not supported.
+public class QuickScorer {
+    private final int numTrees;
+    private final int numFeatures;
+
+    // split nodes of all trees grouped by feature, sorted by threshold inside a feature
+    private final int[] featureStart;   // nodes of feature f are [featureStart[f], featureStart[f+1])
+    private final double[] thresholds;
+    private final int[] nodeTree;
+    private final int[] clearFrom, clearTo;   // leaf range of the node's left subtree
+    private final int[] maskWord;   // absolute word to AND when the range fits in one word, else -1
+    private final long[] masks;
+
+    private final int[] wordOffset;   // first word of each tree's bitvector, plus one final entry
+    private final int[] leafOffset;   // first leaf value of each tree
+    private final double[] leafValues;
+
+    public QuickScorer(FlatTree[] trees) {
+        if (!supports(trees)) {
+            throw new IllegalArgumentException("QuickScorer cannot score categorical splits");
+        }
+        this.numTrees = trees.length;
+        int maxFeature = -1;
+        for (FlatTree ft : trees) {
+            for (int n = 0; n < ft.size(); n++) {
+                maxFeature = Math.max(maxFeature, ft.feature(n));
+            }
+        }
+        this.numFeatures = maxFeature + 1;
+        this.wordOffset = new int[numTrees + 1];
+        this.leafOffset = new int[numTrees + 1];
+
+        int totalSplits = 0, totalLeaves = 0;
+        for (int t = 0; t < numTrees; t++) {
+            int leaves = 0;
+            for (int n = 0; n < trees[t].size(); n++) {
+                if (trees[t].isLeaf(n)) {
+                    leaves++;
+                }
+            }
+            totalLeaves += leaves;
+            totalSplits += trees[t].size() - leaves;
+            leafOffset[t + 1] = totalLeaves;
+            wordOffset[t + 1] = wordOffset[t] + (leaves + 63) / 64;
+        }
+
+        this.leafValues = new double[totalLeaves];
+        int[] feat = new int[totalSplits];
+        double[] thr = new double[totalSplits];
+        int[] tree = new int[totalSplits];
+        int[] from = new int[totalSplits];
+        int[] to = new int[totalSplits];
+        int k = 0;
+        for (int t = 0; t < numTrees; t++) {
+            k = collect(trees[t], t, feat, thr, tree, from, to, k);
+        }
+
+        // order split nodes by (feature, threshold)
+        Integer[] order = new Integer[totalSplits];
+        for (int i = 0; i < totalSplits; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> feat[a] != feat[b] ? Integer.compare(feat[a], feat[b]) : Double.compare(thr[a], thr[b]));
+
+        this.thresholds = new double[totalSplits];
+        this.nodeTree = new int[totalSplits];
+        this.clearFrom = new int[totalSplits];
+        this.clearTo = new int[totalSplits];
+        this.maskWord = new int[totalSplits];
+        this.masks = new long[totalSplits];
+        this.featureStart = new int[numFeatures + 1];
+        for (int i = 0; i < totalSplits; i++) {
+            int src = order[i];
+            thresholds[i] = thr[src];
+            nodeTree[i] = tree[src];
+            clearFrom[i] = from[src];
+            clearTo[i] = to[src];
+            featureStart[feat[src] + 1]++;
+            int wl = from[src] >>> 6, wh = to[src] >>> 6;
+            if (wl == wh) {
+                maskWord[i] = wordOffset[tree[src]] + wl;
+                masks[i] = ~((-1L << (from[src] & 63)) & (-1L >>> (63 - (to[src] & 63))));
+            } else {
+                maskWord[i] = -1;
+            }
+        }
+        for (int f = 0; f < numFeatures; f++) {
+            featureStart[f + 1] += featureStart[f];
+        }
+    }
+
+    // false when some tree has a categorical split
+    public static boolean supports(FlatTree[] trees) {
+        for (FlatTree tree : trees) {
+            if (tree.hasCategorical()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // numbers the leaves of one tree left to right and records the left-subtree leaf range of every split
+    private int collect(FlatTree ft, int t, int[] feat, double[] thr, int[] tree, int[] from, int[] to, int k) {
+        int[] parentOfRight = new int[ft.size()];
+        Arrays.fill(parentOfRight, -1);
+        int[] slot = new int[ft.size()];   // index in the split arrays of each internal node
+        int nextLeaf = 0;
+
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(0);
+        while (!stack.isEmpty()) {
+            int n = stack.pop();
+            if (parentOfRight[n] >= 0) {
+                // the whole left subtree of the parent has been numbered
+                to[slot[parentOfRight[n]]] = nextLeaf - 1;
+            }
+            if (ft.isLeaf(n)) {
+                leafValues[leafOffset[t] + nextLeaf] = ft.leafValue(n);
+                nextLeaf++;
+            } else {
+                slot[n] = k;
+                feat[k] = ft.feature(n);
+                thr[k] = ft.threshold(n);
+                tree[k] = t;
+                from[k] = nextLeaf;
+                k++;
+                parentOfRight[ft.right(n)] = n;
+                stack.push(ft.right(n));
+                stack.push(ft.left(n));
+            }
+        }
+        return k;
+    }
+
+    public int numTrees() {
+        return numTrees;
+    }
+
+    // exit-leaf value of every tree for one row, written into out[0..numTrees)
+    public void treeValues(double[] x, long[] bits, double[] out) {
+        Arrays.fill(bits, -1L);
+        for (int f = 0; f < numFeatures; f++) {
+            double v = x[f];
+            int end = featureStart[f + 1];
+            int i = featureStart[f];
+            if (Double.isNaN(v)) {
+                // x < t is false for every threshold, so every node of this feature goes right
+                for (; i < end; i++) {
+                    falseNode(bits, i);
+                }
+                continue;
+            }
+            for (; i < end && thresholds[i] <= v; i++) {
+                falseNode(bits, i);
+            }
+        }
+        for (int t = 0; t < numTrees; t++) {
+            int w = wordOffset[t];
+            while (bits[w] == 0) {
+                w++;
+            }
+            int leaf = (w - wordOffset[t]) * 64 + Long.numberOfTrailingZeros(bits[w]);
+            out[t] = leafValues[leafOffset[t] + leaf];
+        }
+    }
+
+    // per-row mean of the tree values (regression forests)
+    public double[] mean(double[][] X) {
+        long[] bits = newBits();
+        double[] values = new double[numTrees];
+        double[] out = new double[X.length];
+        for (int r = 0; r < X.length; r++) {
+            treeValues(X[r], bits, values);
+            double sum = 0;
+            for (double v : values) {
+                sum += v;
+            }
+            out[r] = sum / numTrees;
+        }
+        return out;
+    }
+
+    // scratch bitvector sized for this forest, one per thread
+    public long[] newBits() {
+        return new long[wordOffset[numTrees]];
+    }
+
+    private void falseNode(long[] bits, int i) {
+        int w = maskWord[i];
+        if (w >= 0) {
+            bits[w] &= masks[i];
+        } else {
+            clear(bits, wordOffset[nodeTree[i]], clearFrom[i], clearTo[i]);
+        }
+    }
+
+    // clears leaf bits lo..hi (inclusive) of the tree whose words start at base
+    private static void clear(long[] bits, int base, int lo, int hi) {
+        int wl = lo >>> 6, wh = hi >>> 6;
+        if (wl == wh) {
+            bits[base + wl] &= ~((-1L << (lo & 63)) & (-1L >>> (63 - (hi & 63))));
+            return;
+        }
+        bits[base + wl] &= ~(-1L << (lo & 63));
+        for (int w = wl + 1; w < wh; w++) {
+            bits[base + w] = 0;
+        }
+        bits[base + wh] &= ~(-1L >>> (63 - (hi & 63)));
+    }
+}
@@ -0,0 +1,85 @@
+package core.algorithms.supervised.tree;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Split search of extremely randomized trees (Geurts et al., ExtraTrees).
+// Instead of sorting a node by every candidate feature and sweeping all boundaries, each feature
+// gets one threshold drawn uniformly between the node's min and max, so a feature costs one pass
+// for the range and one for the left-side stats. The best of these random splits is kept.
+// Rows are never reordered by the search, only by partition.
+public class RandomSplitEngine extends SplitEngine {
+
+    public RandomSplitEngine(double[][] X, SplitCriterion criterion) {
+        this(X, criterion, null);
+    }
+
+    public RandomSplitEngine(double[][] X, SplitCriterion criterion, int[] counts) {
+        super(X, X.length, X.length == 0 ? 0 : X[0].length, criterion, false, counts);
+    }
+
+    // without a node stream (public entry point) the draws come from a stream seeded by the node range
+    @Override
+    public Split findBestSplit(int start, int end, int[] features, int featureCount) {
+        return findBestSplit(start, end, features, featureCount, false, new SplittableRandom(((long) start << 32) | end));
+    }
+
+    @Override
+    Split findBestSplit(int start, int end, int[] features, int featureCount, boolean fork, SplittableRandom rng) {
+        if (end - start < 2) {
+            return null;
+        }
+        double[] total = new double[stat];
+        nodeStats(start, end, total);
+
+        double n = total[0];
+        double best = Double.MAX_VALUE;
+        int bestFeature = -1;
+        double bestThreshold = 0;
+        double[] left = new double[stat];
+        double[] right = new double[stat];
+        for (int fi = 0; fi < featureCount; fi++) {
+            int f = features[fi];
+            // one draw per feature, taken in feature order whether or not the feature is usable
+            double u = rng.nextDouble();
+            double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                double v = X[rows[i]][f];
+                if (v < lo) {
+                    lo = v;
+                }
+                if (v > hi) {
+                    hi = v;
+                }
+            }
+            if (!(lo < hi)) {
+                continue;   // constant in this node
+            }
+            double threshold = lo + u * (hi - lo);
+            if (threshold <= lo) {
+                threshold = Math.nextUp(lo);   // keep at least the minimum on the left
+            }
+
+            Arrays.fill(left, 0.0);
+            for (int i = start; i < end; i++) {
+                int row = rows[i];
+                if (X[row][f] < threshold) {
+                    criterion.add(left, 0, row, weight(row));
+                }
+            }
+            for (int s = 0; s < stat; s++) {
+                right[s] = total[s] - left[s];
+            }
+            if (left[0] < minLeafWeight || right[0] < minLeafWeight) {
+                continue;   // the drawn threshold leaves a side too small, the feature is not used here
+            }
+            double score = (left[0] / n) * criterion.impurity(left, 0) + (right[0] / n) * criterion.impurity(right, 0);
+            if (score < best) {
+                best = score;
+                bestFeature = f;
+                bestThreshold = threshold;
+            }
+        }
+        return bestFeature < 0 ? null : new Split(bestFeature, bestThreshold, best);
+    }
+}
@@ -0,0 +1,8 @@
+package core.algorithms.supervised.tree;
+
+// How a forest scores a batch of rows.
+public enum ScoringMode {
+    TREE_WALK,      // walk every FlatTree for every row
+    QUICK_SCORER,   // feature-by-feature bitvector scoring, see QuickScorer
+    COMPILED        // trees generated as JVM bytecode, see TreeCompiler
+}
@@ -0,0 +1,148 @@
+package core.algorithms.supervised.tree;
+
+import java.util.Arrays;
+
+// Read-only sparse feature matrix for the tree learners: compressed sparse rows (CSR) for
+// prediction, plus a compressed sparse column (CSC) copy of the same entries built once up front
+// for split search. Entries not stored are 0. Memory is about 2 * nonZeros * (8 + 4) bytes,
+// independent of the number of zeros.
+public class SparseMatrix {
+    private final int numRows, numCols;
+
+    // CSR: row r holds colIdx[rowPtr[r]..rowPtr[r+1]) with increasing column indices
+    private final int[] rowPtr;
+    private final int[] colIdx;
+    private final double[] rowValues;
+
+    // CSC: column c holds rowIdx[colPtr[c]..colPtr[c+1]) with increasing row indices
+    final int[] colPtr;
+    final int[] rowIdx;
+    final double[] colValues;
+
+    // CSR arrays, column indices within each row strictly increasing; the arrays are kept, not copied.
+    // explicit zeros are allowed and behave like implicit ones
+    public SparseMatrix(int numRows, int numCols, int[] rowPtr, int[] colIdx, double[] values) {
+        if (rowPtr.length != numRows + 1 || rowPtr[0] != 0 || colIdx.length != values.length
+                || rowPtr[numRows] != values.length) {
+            throw new IllegalArgumentException("Inconsistent CSR arrays for a " + numRows + " x " + numCols + " matrix");
+        }
+        for (int r = 0; r < numRows; r++) {
+            if (rowPtr[r] > rowPtr[r + 1]) {
+                throw new IllegalArgumentException("rowPtr is not non-decreasing at row " + r);
+            }
+            for (int k = rowPtr[r]; k < rowPtr[r + 1]; k++) {
+                if (colIdx[k] < 0 || colIdx[k] >= numCols || (k > rowPtr[r] && colIdx[k] <= colIdx[k - 1])) {
+                    throw new IllegalArgumentException("Column indices of row " + r + " must be increasing and below " + numCols);
+                }
+            }
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.rowValues = values;
+
+        // counting sort of the entries by column; rows are visited in order, so rows stay sorted per column
+        colPtr = new int[numCols + 1];
+        for (int c : colIdx) {
+            colPtr[c + 1]++;
+        }
+        for (int c = 0; c < numCols; c++) {
+            colPtr[c + 1] += colPtr[c];
+        }
+        rowIdx = new int[values.length];
+        colValues = new double[values.length];
+        int[] next = Arrays.copyOf(colPtr, numCols);
+        for (int r = 0; r < numRows; r++) {
+            for (int k = rowPtr[r]; k < rowPtr[r + 1]; k++) {
+                int at = next[colIdx[k]]++;
+                rowIdx[at] = r;
+                colValues[at] = values[k];
+            }
+        }
+    }
+
+    // CSC arrays (row indices within each column strictly increasing), converted to CSR
+    public static SparseMatrix fromCSC(int numRows, int numCols, int[] colPtr, int[] rowIdx, double[] values) {
+        if (colPtr.length != numCols + 1 || colPtr[0] != 0 || rowIdx.length != values.length
+                || colPtr[numCols] != values.length) {
+            throw new IllegalArgumentException("Inconsistent CSC arrays for a " + numRows + " x " + numCols + " matrix");
+        }
+        int[] rowPtr = new int[numRows + 1];
+        for (int r : rowIdx) {
+            if (r < 0 || r >= numRows) {
+                throw new IllegalArgumentException("Row index " + r + " out of range for " + numRows + " rows");
+            }
+            rowPtr[r + 1]++;
+        }
+        for (int r = 0; r < numRows; r++) {
+            rowPtr[r + 1] += rowPtr[r];
+        }
+        int[] colIdx = new int[values.length];
+        double[] rowValues = new double[values.length];
+        int[] next = Arrays.copyOf(rowPtr, numRows);
+        for (int c = 0; c < numCols; c++) {
+            for (int k = colPtr[c]; k < colPtr[c + 1]; k++) {
+                int at = next[rowIdx[k]]++;
+                colIdx[at] = c;
+                rowValues[at] = values[k];
+            }
+        }
+        // a repeated row inside a column shows up as a repeated column in that row and is rejected there
+        return new SparseMatrix(numRows, numCols, rowPtr, colIdx, rowValues);
+    }
+
+    // keeps only the non-zero entries of X
+    public static SparseMatrix fromDense(double[][] X) {
+        int numRows = X.length;
+        int numCols = numRows == 0 ? 0 : X[0].length;
+        int nnz = 0;
+        for (double[] row : X) {
+            for (double v : row) {
+                if (v != 0) {
+                    nnz++;
+                }
+            }
+        }
+        int[] rowPtr = new int[numRows + 1];
+        int[] colIdx = new int[nnz];
+        double[] values = new double[nnz];
+        int k = 0;
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                if (X[r][c] != 0) {
+                    colIdx[k] = c;
+                    values[k++] = X[r][c];
+                }
+            }
+            rowPtr[r + 1] = k;
+        }
+        return new SparseMatrix(numRows, numCols, rowPtr, colIdx, values);
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numCols() {
+        return numCols;
+    }
+
+    public int nonZeros() {
+        return rowValues.length;
+    }
+
+    // binary search within the row, O(log of the row's non-zeros)
+    public double get(int row, int col) {
+        int k = Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row + 1], col);
+        return k >= 0 ? rowValues[k] : 0.0;
+    }
+
+    public double[] denseRow(int row) {
+        double[] x = new double[numCols];
+        for (int k = rowPtr[row]; k < rowPtr[row + 1]; k++) {
+            x[colIdx[k]] = rowValues[k];
+        }
+        return x;
+    }
+}
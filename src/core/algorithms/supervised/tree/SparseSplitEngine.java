@@ -0,0 +1,147 @@
+package core.algorithms.supervised.tree;
+
+import java.util.Arrays;
+
+// Exact split search on a SparseMatrix. For each candidate feature only the node's non-zero
+// values are gathered and sorted; all rows whose value is 0 form a single bucket whose stats are
+// the node total minus the non-zero stats, and the sweep visits negatives, the zero bucket, then
+// positives. The boundaries are the same as SplitEngine on the dense matrix, but a feature costs
+// O(non-zeros in the node) instead of O(rows in the node). Class counts give the same scores too;
+// regression sums of the zero bucket come from that subtraction, so a score can differ from the
+// dense one in the last bits and a near tie between two candidates may go the other way.
+//
+// The non-zeros of a node are found either by scanning the feature's column and keeping the rows
+// whose position in the index lies inside the node, or, when the node is much smaller than the
+// column, by a binary search in each of its rows; whichever is cheaper.
+public class SparseSplitEngine extends SplitEngine {
+    // a binary search in a row is counted as this many column entries when choosing how to gather
+    private static final int ROW_LOOKUP_COST = 8;
+
+    private final SparseMatrix data;
+    // position of each row in rows, -1 for rows left out (multiplicity 0); kept up to date by partition
+    private final int[] where;
+
+    public SparseSplitEngine(SparseMatrix X, SplitCriterion criterion, boolean midpoint) {
+        this(X, criterion, midpoint, null);
+    }
+
+    public SparseSplitEngine(SparseMatrix X, SplitCriterion criterion, boolean midpoint, int[] counts) {
+        super(null, X.numRows(), X.numCols(), criterion, midpoint, counts);
+        this.data = X;
+        this.where = new int[X.numRows()];
+        Arrays.fill(where, -1);
+        for (int i = 0; i < rows.length; i++) {
+            where[rows[i]] = i;
+        }
+    }
+
+    // rows are only read here, so features are always safe to search concurrently
+    @Override
+    protected Candidate searchFeature(int start, int end, int f, double[] total, boolean isolated) {
+        int colStart = data.colPtr[f], colEnd = data.colPtr[f + 1];
+        int size = end - start;
+        int[] order;
+        double[] vals;
+        int m = 0;
+        if (colEnd - colStart <= (long) size * ROW_LOOKUP_COST) {
+            order = new int[Math.min(size, colEnd - colStart)];
+            vals = new double[order.length];
+            for (int k = colStart; k < colEnd; k++) {
+                int row = data.rowIdx[k];
+                int at = where[row];
+                if (at >= start && at < end && data.colValues[k] != 0) {
+                    order[m] = row;
+                    vals[m++] = data.colValues[k];
+                }
+            }
+        } else {
+            order = new int[size];
+            vals = new double[size];
+            for (int i = start; i < end; i++) {
+                double v = data.get(rows[i], f);
+                if (v != 0) {
+                    order[m] = rows[i];
+                    vals[m++] = v;
+                }
+            }
+        }
+        boolean hasZero = m < size;
+        int items = m + (hasZero ? 1 : 0);
+        if (items < 2) {
+            return null;
+        }
+        sortByValue(vals, order, 0, m - 1);
+
+        // the zero bucket is the node minus its non-zeros, it goes in front of the first positive value
+        double[] zero = null;
+        int zeroAt = -1;
+        if (hasZero) {
+            zero = total.clone();
+            double[] nonZero = new double[stat];
+            for (int i = 0; i < m; i++) {
+                criterion.add(nonZero, 0, order[i], weight(order[i]));
+            }
+            for (int s = 0; s < stat; s++) {
+                zero[s] -= nonZero[s];
+            }
+            zeroAt = 0;
+            while (zeroAt < m && vals[zeroAt] < 0) {
+                zeroAt++;
+            }
+        }
+
+        double n = total[0];
+        double best = Double.MAX_VALUE;
+        double bestThreshold = 0;
+        double[] left = new double[stat];
+        double[] right = new double[stat];
+        for (int t = 0; t < items - 1; t++) {
+            double a, b;
+            if (t == zeroAt) {
+                for (int s = 0; s < stat; s++) {
+                    left[s] += zero[s];
+                }
+                a = 0.0;
+            } else {
+                int e = (hasZero && t > zeroAt) ? t - 1 : t;
+                criterion.add(left, 0, order[e], weight(order[e]));
+                a = vals[e];
+            }
+            b = (t + 1 == zeroAt) ? 0.0 : vals[(hasZero && t + 1 > zeroAt) ? t : t + 1];
+            if (a == b) {
+                continue;   // same value on both sides, not a real boundary
+            }
+            for (int s = 0; s < stat; s++) {
+                right[s] = total[s] - left[s];
+            }
+            if (left[0] < minLeafWeight || right[0] < minLeafWeight) {
+                continue;
+            }
+            double score = (left[0] / n) * criterion.impurity(left, 0) + (right[0] / n) * criterion.impurity(right, 0);
+            if (score < best) {
+                best = score;
+                bestThreshold = threshold(a, b);
+            }
+        }
+        return best == Double.MAX_VALUE ? null : new Candidate(f, best, bestThreshold);
+    }
+
+    @Override
+    public int partition(int start, int end, Split split) {
+        int i = start, j = end - 1;
+        while (i <= j) {
+            int row = rows[i];
+            if (data.get(row, split.feature) < split.threshold) {
+                i++;
+            } else {
+                rows[i] = rows[j];
+                rows[j] = row;
+                j--;
+            }
+        }
+        for (int k = start; k < end; k++) {
+            where[rows[k]] = k;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,34 @@
+package core.algorithms.supervised.tree;
+
+// Describes how a group of rows is summarised while sweeping thresholds.
+// A group is a small block of doubles inside a stats array; slot 0 always holds
+// the total weight of the group so the engine can read counts without knowing the criterion.
+public abstract class SplitCriterion {
+
+    // how many doubles one group needs
+    public abstract int statSize();
+
+    // add one row (with multiplicity w) to the group starting at stats[off]
+    public abstract void add(double[] stats, int off, int row, double w);
+
+    // impurity of the group per unit of weight (variance, gini, ...)
+    public abstract double impurity(double[] stats, int off);
+
+    // value a leaf built from this group would predict
+    public abstract double leafValue(double[] stats, int off);
+
+    public double weight(double[] stats, int off) {
+        return stats[off];
+    }
+
+    // categorical splits sort the categories of a node by categoryKey and try every prefix of that
+    // order as the left set, once for each order 0..categoryOrders()-1. Ordering by the leaf value
+    // (mean target, or Newton step) finds the best subset for variance (Fisher) in a single order
+    public int categoryOrders() {
+        return 1;
+    }
+
+    public double categoryKey(double[] stats, int off, int order) {
+        return leafValue(stats, off);
+    }
+}
@@ -0,0 +1,461 @@
+package core.algorithms.supervised.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Exact split search shared by the decision trees.
+// Rows are never copied: a node is a range [start,end) of the rows index array.
+// For each candidate feature the range is sorted by that feature once, then every
+// threshold is scored in a single sweep using running stats of the left side
+// (right side = node total - left). The chosen split is applied by partitioning
+// the range in place, so the children are again just two sub-ranges.
+// An optional per-row multiplicity (e.g. a bootstrap) weights every row instead of
+// duplicating it; rows with multiplicity 0 are left out of the index entirely.
+// Nodes that are disjoint ranges can be searched and partitioned from different threads.
+//
+// Features declared categorical hold integer codes and are split by a set of codes instead of a
+// threshold: the node's rows are grouped by code, the groups are ordered by the criterion's
+// categoryKey and every prefix of that order is scored as the left set (see SplitCriterion).
+//
+// With a PresortedColumns index, large nodes are not sorted: their rows are read in feature order
+// from the index, keeping those whose position in rows lies inside the node (O(rows of X) instead
+// of O(m log m) for m node rows, which wins near the root). Small nodes still sort.
+public class SplitEngine {
+    protected final double[][] X;      // null for engines that search another representation
+    private final boolean midpoint;   // threshold between two values (true) or at the upper value (false)
+    protected final SplitCriterion criterion;
+    protected final int[] rows;
+    protected final int[] counts;     // multiplicity of each row of X, null = every row once
+    protected final int stat;
+    protected double minLeafWeight;   // min_samples_leaf: splits leaving less weight on a side are skipped
+    private final int numFeatures;
+    private boolean[] categorical;    // per feature, null = all numeric
+    private PresortedColumns presorted; // shared feature order of X, null = sort every node
+    private int[] where;              // with presorted: position of each row of X in rows, -1 = not used
+
+    // nodes with at least this many rows search their features on private buffers (see findBestSplit)
+    static final int PARALLEL_ROWS = 16384;
+
+    // feature values of rows[i] at position i; nodes are disjoint ranges, so concurrent nodes never share a slot
+    private final double[] values;
+
+    public static class Split {
+        public final int feature;
+        public final double threshold;
+        public final double impurity;   // weighted average impurity of the two children
+        public final long[] categories; // categorical split: codes going left (CategorySet), null = threshold split
+
+        Split(int feature, double threshold, double impurity) {
+            this(feature, threshold, impurity, null);
+        }
+
+        Split(int feature, double threshold, double impurity, long[] categories) {
+            this.feature = feature;
+            this.threshold = threshold;
+            this.impurity = impurity;
+            this.categories = categories;
+        }
+    }
+
+    public SplitEngine(double[][] X, SplitCriterion criterion, boolean midpoint) {
+        this(X, criterion, midpoint, null);
+    }
+
+    public SplitEngine(double[][] X, SplitCriterion criterion, boolean midpoint, int[] counts) {
+        this(X, X.length, X.length == 0 ? 0 : X[0].length, criterion, midpoint, counts);
+    }
+
+    // for engines that search a different representation of the data (X may be null)
+    protected SplitEngine(double[][] X, int numRows, int numFeatures, SplitCriterion criterion, boolean midpoint, int[] counts) {
+        this.X = X;
+        this.criterion = criterion;
+        this.midpoint = midpoint;
+        this.numFeatures = numFeatures;
+        this.counts = counts;
+        this.rows = selectRows(numRows, counts);
+        this.stat = criterion.statSize();
+        this.values = X == null ? null : new double[rows.length];
+    }
+
+    private static int[] selectRows(int numRows, int[] counts) {
+        int used = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (counts == null || counts[i] > 0) {
+                used++;
+            }
+        }
+        int[] selected = new int[used];
+        int k = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (counts == null || counts[i] > 0) {
+                selected[k++] = i;
+            }
+        }
+        return selected;
+    }
+
+    // every split must leave at least this much weight (samples, with multiplicities) on both sides
+    public void setMinSamplesLeaf(double minSamplesLeaf) {
+        this.minLeafWeight = minSamplesLeaf;
+    }
+
+    // these columns of X hold category codes (non-negative integers) and get subset splits
+    public void setCategoricalFeatures(int[] features) {
+        if (X == null) {
+            throw new UnsupportedOperationException("Categorical features need the exact search on dense X");
+        }
+        categorical = new boolean[numFeatures];
+        for (int f : features) {
+            if (f < 0 || f >= numFeatures) {
+                throw new IllegalArgumentException("No feature " + f + " to make categorical, X has " + numFeatures);
+            }
+            CategorySet.checkCodes(X, f);
+            categorical[f] = true;
+        }
+    }
+
+    // a feature order of X shared with other engines (a forest builds it once for all its trees)
+    public void setPresorted(PresortedColumns presorted) {
+        if (X == null || !presorted.isFor(X)) {
+            throw new IllegalArgumentException("Presorted index was built on another X");
+        }
+        this.presorted = presorted;
+        this.where = new int[X.length];
+        Arrays.fill(where, -1);
+        for (int i = 0; i < rows.length; i++) {
+            where[rows[i]] = i;
+        }
+    }
+
+    // number of distinct rows in the index (rows with multiplicity 0 excluded)
+    public int numRows() {
+        return rows.length;
+    }
+
+    public int numFeatures() {
+        return numFeatures;
+    }
+
+    // summary of the rows in [start,end) written into out
+    public void nodeStats(int start, int end, double[] out) {
+        Arrays.fill(out, 0, stat, 0.0);
+        for (int i = start; i < end; i++) {
+            criterion.add(out, 0, rows[i], weight(rows[i]));
+        }
+    }
+
+    // number of samples in [start,end), counting multiplicities
+    public double nodeWeight(int start, int end) {
+        if (counts == null) {
+            return end - start;
+        }
+        double w = 0;
+        for (int i = start; i < end; i++) {
+            w += counts[rows[i]];
+        }
+        return w;
+    }
+
+    public double leafValue(int start, int end) {
+        double[] total = new double[stat];
+        nodeStats(start, end, total);
+        return criterion.leafValue(total, 0);
+    }
+
+    // best split of [start,end) among the first featureCount entries of features, or null
+    public Split findBestSplit(int start, int end, int[] features, int featureCount) {
+        return findBestSplit(start, end, features, featureCount, false, null);
+    }
+
+    // fork = search the features of large nodes as concurrent tasks (caller runs inside a ForkJoinPool),
+    // rng = the node's random stream, for engines that randomize the search
+    Split findBestSplit(int start, int end, int[] features, int featureCount, boolean fork, SplittableRandom rng) {
+        if (end - start < 2) {
+            return null;
+        }
+        double[] total = new double[stat];
+        nodeStats(start, end, total);
+
+        // large nodes search every feature on its own buffers, whether or not they run concurrently,
+        // so the rows end up in the same order and the tree does not depend on the thread count
+        boolean isolated = end - start >= PARALLEL_ROWS && featureCount > 1;
+        Candidate[] found = new Candidate[featureCount];
+        if (isolated && fork) {
+            List<RecursiveAction> tasks = new ArrayList<>(featureCount);
+            for (int fi = 0; fi < featureCount; fi++) {
+                final int idx = fi;
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        found[idx] = searchFeature(start, end, features[idx], total, true);
+                    }
+                });
+            }
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (int fi = 0; fi < featureCount; fi++) {
+                found[fi] = searchFeature(start, end, features[fi], total, isolated);
+            }
+        }
+
+        // first best in feature order wins, exactly as in a single sweep over all features
+        Candidate best = null;
+        for (Candidate c : found) {
+            if (c != null && (best == null || c.score < best.score)) {
+                best = c;
+            }
+        }
+        return best == null ? null : new Split(best.feature, best.threshold, best.score, best.categories);
+    }
+
+    // best boundary of one feature: score and threshold, or null when every row has the same value
+    protected static final class Candidate {
+        final int feature;
+        final double score, threshold;
+        final long[] categories;
+
+        Candidate(int feature, double score, double threshold) {
+            this(feature, score, threshold, null);
+        }
+
+        Candidate(int feature, double score, double threshold, long[] categories) {
+            this.feature = feature;
+            this.score = score;
+            this.threshold = threshold;
+            this.categories = categories;
+        }
+    }
+
+    // isolated = leave rows untouched and sort a private copy instead, so features can be searched concurrently
+    protected Candidate searchFeature(int start, int end, int f, double[] total, boolean isolated) {
+        if (categorical != null && categorical[f]) {
+            return searchCategories(start, end, f, total, isolated);
+        }
+        int[] order = rows;
+        double[] vals = values;
+        int lo = start, hi = end;
+        if (isolated) {
+            order = Arrays.copyOfRange(rows, start, end);
+            vals = new double[end - start];
+            lo = 0;
+            hi = end - start;
+        }
+        sortRange(start, end, f, order, vals, lo);
+
+        double n = total[0];
+        double best = Double.MAX_VALUE;
+        double bestThreshold = 0;
+        double[] left = new double[stat];
+        double[] right = new double[stat];
+        for (int i = lo; i < hi - 1; i++) {
+            criterion.add(left, 0, order[i], weight(order[i]));
+            double a = vals[i], b = vals[i + 1];
+            if (a == b) {
+                continue;   // same value on both sides, not a real boundary
+            }
+            for (int s = 0; s < stat; s++) {
+                right[s] = total[s] - left[s];
+            }
+            if (left[0] < minLeafWeight || right[0] < minLeafWeight) {
+                continue;
+            }
+            // weighted average impurity of the two children
+            double score = (left[0] / n) * criterion.impurity(left, 0) + (right[0] / n) * criterion.impurity(right, 0);
+            if (score < best) {
+                best = score;
+                bestThreshold = threshold(a, b);
+            }
+        }
+        return best == Double.MAX_VALUE ? null : new Candidate(f, best, bestThreshold);
+    }
+
+    // rows sorted by code (as for a threshold) so each code is a run; the runs become groups that
+    // are ordered by categoryKey and swept like thresholds, the best prefix is the left set
+    private Candidate searchCategories(int start, int end, int f, double[] total, boolean isolated) {
+        int[] order = rows;
+        double[] vals = values;
+        int lo = start, hi = end;
+        if (isolated) {
+            order = Arrays.copyOfRange(rows, start, end);
+            vals = new double[end - start];
+            lo = 0;
+            hi = end - start;
+        }
+        sortRange(start, end, f, order, vals, lo);
+
+        int m = 0;
+        for (int i = lo; i < hi; i++) {
+            if (i == lo || vals[i] != vals[i - 1]) {
+                m++;
+            }
+        }
+        if (m < 2) {
+            return null;
+        }
+        double[] groups = new double[m * stat];
+        int[] codes = new int[m];
+        int g = -1;
+        for (int i = lo; i < hi; i++) {
+            if (i == lo || vals[i] != vals[i - 1]) {
+                codes[++g] = (int) vals[i];
+            }
+            criterion.add(groups, g * stat, order[i], weight(order[i]));
+        }
+
+        double n = total[0];
+        double best = Double.MAX_VALUE;
+        int[] bestGroups = null;
+        int bestCut = 0;
+        double[] keys = new double[m];
+        int[] sorted = new int[m];
+        double[] left = new double[stat];
+        double[] right = new double[stat];
+        for (int o = 0; o < criterion.categoryOrders(); o++) {
+            for (int k = 0; k < m; k++) {
+                keys[k] = criterion.categoryKey(groups, k * stat, o);
+                sorted[k] = k;
+            }
+            sortByValue(keys, sorted, 0, m - 1);
+            Arrays.fill(left, 0.0);
+            for (int k = 0; k < m - 1; k++) {
+                for (int s = 0; s < stat; s++) {
+                    left[s] += groups[sorted[k] * stat + s];
+                    right[s] = total[s] - left[s];
+                }
+                if (left[0] < minLeafWeight || right[0] < minLeafWeight) {
+                    continue;
+                }
+                double score = (left[0] / n) * criterion.impurity(left, 0) + (right[0] / n) * criterion.impurity(right, 0);
+                if (score < best) {
+                    best = score;
+                    bestGroups = sorted.clone();
+                    bestCut = k + 1;
+                }
+            }
+        }
+        if (bestGroups == null) {
+            return null;
+        }
+        int[] leftCodes = new int[bestCut];
+        for (int k = 0; k < bestCut; k++) {
+            leftCodes[k] = codes[bestGroups[k]];
+        }
+        return new Candidate(f, best, Double.NaN, CategorySet.of(leftCodes));
+    }
+
+    // rows of [start,end) in ascending order of feature f written to order[lo..], their values to vals[lo..];
+    // order[lo..] must hold the node's rows when the index is not used
+    private void sortRange(int start, int end, int f, int[] order, double[] vals, int lo) {
+        int m = end - start;
+        // scanning the index costs ~n, sorting ~m log2 m
+        if (presorted != null && (long) m * (32 - Integer.numberOfLeadingZeros(m)) >= presorted.numRows()) {
+            // where[] only has to place a row inside its node, so rewriting rows here keeps it valid
+            int k = lo;
+            for (int row : presorted.order(f)) {
+                int at = where[row];
+                if (at >= start && at < end) {
+                    order[k] = row;
+                    vals[k++] = X[row][f];
+                }
+            }
+            return;
+        }
+        for (int i = lo; i < lo + m; i++) {
+            vals[i] = X[order[i]][f];
+        }
+        sortByValue(vals, order, lo, lo + m - 1);
+    }
+
+    protected final double weight(int row) {
+        return counts == null ? 1.0 : counts[row];
+    }
+
+    protected final double threshold(double lo, double hi) {
+        if (!midpoint) {
+            return hi;
+        }
+        double t = (lo + hi) / 2.0;
+        // adjacent doubles can round the midpoint down onto lo, which would move lo to the right side
+        return t > lo ? t : hi;
+    }
+
+    // moves rows going left (x[feature] < threshold, or its code in the split's set) to the front,
+    // returns the first right position
+    public int partition(int start, int end, Split split) {
+        int i = start, j = end - 1;
+        while (i <= j) {
+            double v = X[rows[i]][split.feature];
+            if (split.categories != null ? CategorySet.contains(split.categories, v) : v < split.threshold) {
+                i++;
+            } else {
+                int tmp = rows[i];
+                rows[i] = rows[j];
+                rows[j] = tmp;
+                j--;
+            }
+        }
+        if (where != null) {
+            for (int k = start; k < end; k++) {
+                where[rows[k]] = k;
+            }
+        }
+        return i;
+    }
+
+    // 3-way quicksort of values[lo..hi] carrying rows along; recursion only on the smaller side
+    protected static void sortByValue(double[] values, int[] rows, int lo, int hi) {
+        while (hi - lo > 16) {
+            double pivot = medianOfThree(values[lo], values[(lo + hi) >>> 1], values[hi]);
+            int lt = lo, gt = hi, i = lo;
+            while (i <= gt) {
+                double v = values[i];
+                if (v < pivot) {
+                    swap(values, rows, lt++, i++);
+                } else if (v > pivot) {
+                    swap(values, rows, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (lt - lo < hi - gt) {
+                sortByValue(values, rows, lo, lt - 1);
+                lo = gt + 1;
+            } else {
+                sortByValue(values, rows, gt + 1, hi);
+                hi = lt - 1;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            double v = values[i];
+            int r = rows[i];
+            int j = i - 1;
+            while (j >= lo && values[j] > v) {
+                values[j + 1] = values[j];
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            values[j + 1] = v;
+            rows[j + 1] = r;
+        }
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        if (a < b) {
+            return b < c ? b : (a < c ? c : a);
+        }
+        return a < c ? a : (b < c ? c : b);
+    }
+
+    private static void swap(double[] values, int[] rows, int a, int b) {
+        double v = values[a];
+        values[a] = values[b];
+        values[b] = v;
+        int r = rows[a];
+        rows[a] = rows[b];
+        rows[b] = r;
+    }
+}
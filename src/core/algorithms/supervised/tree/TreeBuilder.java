@@ -0,0 +1,255 @@
+package core.algorithms.supervised.tree;
+
+import core.utils.ParallelRunner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Grows a tree on a SplitEngine with an explicit work stack instead of recursion, so depth is
+// only limited by memory. With a pool, every subtree of at least FORK_ROWS rows becomes its own
+// ForkJoin task (siblings grow concurrently) and nodes of at least SplitEngine.PARALLEL_ROWS rows
+// search their features concurrently; smaller work stays on the task that found it.
+// Each node draws from its own random stream split from its parent's, so the tree is the same
+// whatever the number of threads or the order in which nodes are expanded.
+//
+// With a max_leaf_nodes budget the tree grows best-first instead: every open leaf keeps its best
+// split in a priority queue keyed by weighted impurity decrease, and the best one is split until
+// the budget is used up or no split decreases impurity by at least min_impurity_decrease.
+public class TreeBuilder<N> {
+    static final int FORK_ROWS = 2048;
+
+    // what a tree class decides: when to stop, which features to try and how its nodes look
+    public interface Grower<N> {
+        // true when a node must be a leaf before any split is searched; stats is the node summary
+        boolean isLeaf(double[] stats, int depth);
+
+        // candidate features for one node: features holds 0..numFeatures-1 in order on entry,
+        // the first entries on return are tried (see FeatureSampler), returns how many
+        int features(int[] features, SplittableRandom rng);
+
+        // weight and impurity describe the rows that reached the node (see TreePruning),
+        // value is what the node would predict as a leaf
+        N leaf(double value, double weight, double impurity);
+
+        // categories != null for a categorical split: the codes going left (CategorySet), threshold is NaN then
+        N split(int feature, double threshold, long[] categories, N left, N right, double value, double weight, double impurity);
+    }
+
+    private final SplitEngine engine;
+    private final Grower<N> grower;
+    private boolean fork;
+    private int maxLeafNodes = -1;           // -1 = no budget, grow depth-first
+    private double minImpurityDecrease = 0;  // 0 = any split found is taken
+    private double rootWeight;
+    private long queued;                     // best-first: insertion order, breaks ties in the queue
+
+    // a node while the tree is growing; linked to its children once split
+    private static final class Pending {
+        final int start, end, depth;
+        final SplittableRandom rng;
+        SplitEngine.Split split;   // null for a leaf
+        double value;
+        double weight, impurity;   // node summary, kept for pruning
+        double decrease;           // weighted impurity decrease of split
+        long order;                // best-first: position in queue insertion order
+        Pending left, right;
+        Object built;              // the tree class's node, set while assembling
+
+        Pending(int start, int end, int depth, SplittableRandom rng) {
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.rng = rng;
+        }
+    }
+
+    public TreeBuilder(SplitEngine engine, Grower<N> grower) {
+        this.engine = engine;
+        this.grower = grower;
+    }
+
+    // grow best-first to at most this many leaves (>= 2), -1 = unlimited depth-first growth
+    public void setMaxLeafNodes(int maxLeafNodes) {
+        if (maxLeafNodes != -1 && maxLeafNodes < 2) {
+            throw new IllegalArgumentException("max_leaf_nodes must be at least 2 (or -1 for no limit): " + maxLeafNodes);
+        }
+        this.maxLeafNodes = maxLeafNodes;
+    }
+
+    // a node is only split when (node weight / total weight) * (impurity - children impurity) reaches this
+    public void setMinImpurityDecrease(double minImpurityDecrease) {
+        if (minImpurityDecrease < 0) {
+            throw new IllegalArgumentException("min_impurity_decrease must be non-negative: " + minImpurityDecrease);
+        }
+        this.minImpurityDecrease = minImpurityDecrease;
+    }
+
+    // pool may be null, then one with resolveJobs(nJobs) threads is created for this call (none for 1 thread)
+    public N build(SplittableRandom rng, int nJobs, ForkJoinPool pool) {
+        Pending root = new Pending(0, engine.numRows(), 0, rng);
+        rootWeight = engine.nodeWeight(0, engine.numRows());
+        int threads = ParallelRunner.resolveJobs(nJobs);
+        if (pool == null && threads == 1) {
+            fork = false;
+            grow(root);
+        } else {
+            // best-first growth splits one node at a time, there threads only share the feature search
+            fork = true;
+            ForkJoinPool owned = (pool == null) ? new ForkJoinPool(threads) : null;
+            try {
+                ((pool == null) ? owned : pool).invoke(new GrowTask(root));
+            } finally {
+                if (owned != null) {
+                    owned.shutdown();
+                }
+            }
+        }
+        return assemble(root);
+    }
+
+    private final class GrowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Pending node;
+
+        GrowTask(Pending node) {
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            grow(node);
+        }
+    }
+
+    // expands the subtree of top depth-first; large child subtrees are handed to new tasks when forking
+    private void grow(Pending top) {
+        int[] features = new int[engine.numFeatures()];
+        double[] stats = new double[engine.stat];
+        if (maxLeafNodes > 0) {
+            growBestFirst(top, features, stats);
+            return;
+        }
+        List<ForkJoinTask<?>> forked = new ArrayList<>();
+        ArrayDeque<Pending> stack = new ArrayDeque<>();
+        stack.push(top);
+        while (!stack.isEmpty()) {
+            Pending node = stack.pop();
+            if (!expand(node, features, stats)) {
+                continue;
+            }
+            for (Pending child : new Pending[]{node.right, node.left}) {
+                if (fork && child.end - child.start >= FORK_ROWS) {
+                    forked.add(new GrowTask(child).fork());
+                } else {
+                    stack.push(child);
+                }
+            }
+        }
+        for (ForkJoinTask<?> task : forked) {
+            task.join();
+        }
+    }
+
+    // leaf budget: always split the open leaf with the largest impurity decrease
+    private void growBestFirst(Pending root, int[] features, double[] stats) {
+        PriorityQueue<Pending> open = new PriorityQueue<>((a, b) -> a.decrease != b.decrease
+                ? Double.compare(b.decrease, a.decrease) : Long.compare(a.order, b.order));
+        if (evaluate(root, features, stats)) {
+            root.order = queued++;
+            open.add(root);
+        }
+        int leaves = 1;
+        while (leaves < maxLeafNodes && !open.isEmpty()) {
+            Pending node = open.poll();
+            split(node);
+            leaves++;
+            for (Pending child : new Pending[]{node.left, node.right}) {
+                if (evaluate(child, features, stats)) {
+                    child.order = queued++;
+                    open.add(child);
+                }
+            }
+        }
+        // whatever is still queued stays a leaf
+        for (Pending node : open) {
+            node.split = null;
+        }
+    }
+
+    // makes node a leaf or splits its rows in place, returns true when it got children
+    private boolean expand(Pending node, int[] features, double[] stats) {
+        if (!evaluate(node, features, stats)) {
+            return false;
+        }
+        split(node);
+        return true;
+    }
+
+    // leaf value and best split of node (if it may and should be split), returns true when it has a split
+    private boolean evaluate(Pending node, int[] features, double[] stats) {
+        engine.nodeStats(node.start, node.end, stats);
+        node.value = engine.criterion.leafValue(stats, 0);
+        node.weight = stats[0];
+        node.impurity = engine.criterion.impurity(stats, 0);
+        if (grower.isLeaf(stats, node.depth)) {
+            return false;
+        }
+        // reset per node so the draw does not depend on which task grew the previous nodes
+        for (int f = 0; f < features.length; f++) {
+            features[f] = f;
+        }
+        int count = grower.features(features, node.rng);
+        SplitEngine.Split split = engine.findBestSplit(node.start, node.end, features, count, fork, node.rng);
+        if (split == null) {
+            return false;
+        }
+        node.decrease = (stats[0] / rootWeight) * (engine.criterion.impurity(stats, 0) - split.impurity);
+        if (minImpurityDecrease > 0 && node.decrease < minImpurityDecrease) {
+            return false;
+        }
+        node.split = split;
+        return true;
+    }
+
+    // partitions node's rows by its split and creates the two children
+    private void split(Pending node) {
+        int mid = engine.partition(node.start, node.end, node.split);
+        node.left = new Pending(node.start, mid, node.depth + 1, node.rng.split());
+        node.right = new Pending(mid, node.end, node.depth + 1, node.rng.split());
+    }
+
+    // builds the tree class's nodes children-first; in pre-order every child comes after its parent
+    @SuppressWarnings("unchecked")
+    private N assemble(Pending root) {
+        List<Pending> preorder = new ArrayList<>();
+        ArrayDeque<Pending> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Pending node = stack.pop();
+            preorder.add(node);
+            if (node.split != null) {
+                stack.push(node.right);
+                stack.push(node.left);
+            }
+        }
+
+        for (int i = preorder.size() - 1; i >= 0; i--) {
+            Pending node = preorder.get(i);
+            if (node.split == null) {
+                node.built = grower.leaf(node.value, node.weight, node.impurity);
+            } else {
+                node.built = grower.split(node.split.feature, node.split.threshold, node.split.categories, (N) node.left.built, (N) node.right.built,
+                        node.value, node.weight, node.impurity);
+                node.left = node.right = null;
+            }
+        }
+        return (N) root.built;
+    }
+}
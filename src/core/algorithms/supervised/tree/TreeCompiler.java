@@ -0,0 +1,503 @@
+package core.algorithms.supervised.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns FlatTrees into generated JVM classes so the JIT can inline the whole tree.
+// Every split becomes "if (x[feature] < threshold) <left> else <right>" with the feature
+// and threshold as constants, every leaf a constant return; nothing is looked up at runtime.
+// Classes are loaded as hidden classes next to this one and are unloaded with their predictor.
+//
+// Methods are kept under METHOD_BUDGET bytes of bytecode (HotSpot does not JIT-compile
+// methods over 8000 bytes), so large subtrees are moved into their own static methods.
+// A class file holds at most 65535 constants, so a forest is spread over several classes
+// (blocks); a single tree with too many distinct constants for a class is walked as a FlatTree,
+// and so is every block holding a tree with categorical splits.
+public class TreeCompiler {
+    private static final int METHOD_BUDGET = 7000;
+    private static final int MAX_CODE = 65535;
+    private static final int MAX_POOL = 65535;
+    private static final int POOL_BUDGET = 65000;    // leaves room for the fixed entries of a block
+    private static final int MAX_BLOCK_TREES = 512;  // keeps sum() and values() small enough to JIT
+    private static final String CLASS_NAME = "core/algorithms/supervised/tree/GeneratedTreeBlock";
+    private static final String BLOCK = "core/algorithms/supervised/tree/TreeCompiler$Block";
+    private static final String NODE_DESC = "([D)D";
+
+    // what a generated class implements: a consecutive run of trees of the forest
+    interface Block {
+        // acc plus the value of every tree of the block, added in tree order
+        double sum(double[] x, double acc);
+        // value of every tree of the block, written to out[offset..]
+        void values(double[] x, double[] out, int offset);
+    }
+
+    public static TreePredictor compile(FlatTree[] trees) {
+        List<Block> blocks = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        boolean generated = true;
+        int start = 0;
+        while (start < trees.length) {
+            // take trees while the (over-)estimated constant pool still fits
+            int end = start, pool = 0;
+            while (end < trees.length && end - start < MAX_BLOCK_TREES) {
+                int need = poolEstimate(trees[end]);
+                if (end > start && pool + need > POOL_BUDGET) {
+                    break;
+                }
+                pool += need;
+                end++;
+            }
+            FlatTree[] part = Arrays.copyOfRange(trees, start, end);
+            Block block = null;
+            if (pool <= POOL_BUDGET && !hasCategorical(part)) {
+                block = load(part);
+            }
+            if (block == null) {
+                block = new Interpreted(part);
+                generated = false;
+            }
+            blocks.add(block);
+            offsets.add(start);
+            start = end;
+        }
+        int[] offset = new int[offsets.size()];
+        for (int b = 0; b < offset.length; b++) {
+            offset[b] = offsets.get(b);
+        }
+        return new Compiled(blocks.toArray(new Block[0]), offset, trees.length, generated);
+    }
+
+    // membership tests are not generated, such trees are interpreted
+    private static boolean hasCategorical(FlatTree[] trees) {
+        for (FlatTree tree : trees) {
+            if (tree.hasCategorical()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Block load(FlatTree[] trees) {
+        byte[] bytes;
+        try {
+            bytes = new TreeCompiler(trees).generate();
+        } catch (TooLargeException e) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (Block) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not load generated tree class", e);
+        }
+    }
+
+    // at most two slots per node (a double constant) plus a method ref per method of the tree
+    private static int poolEstimate(FlatTree tree) {
+        return 2 * tree.size() + 6 * (outline(tree, null) + 1);
+    }
+
+    private static class Compiled implements TreePredictor {
+        private final Block[] blocks;
+        private final int[] offsets;
+        private final int numTrees;
+        private final boolean generated;
+
+        Compiled(Block[] blocks, int[] offsets, int numTrees, boolean generated) {
+            this.blocks = blocks;
+            this.offsets = offsets;
+            this.numTrees = numTrees;
+            this.generated = generated;
+        }
+
+        @Override
+        public double mean(double[] x) {
+            double sum = 0.0;
+            for (Block block : blocks) {
+                sum = block.sum(x, sum);
+            }
+            return sum / numTrees;
+        }
+
+        @Override
+        public void treeValues(double[] x, double[] out) {
+            for (int b = 0; b < blocks.length; b++) {
+                blocks[b].values(x, out, offsets[b]);
+            }
+        }
+
+        @Override
+        public boolean isGenerated() {
+            return generated;
+        }
+    }
+
+    // fallback used for trees too large for a class file
+    private static class Interpreted implements Block {
+        private final FlatTree[] trees;
+
+        Interpreted(FlatTree[] trees) {
+            this.trees = trees;
+        }
+
+        @Override
+        public double sum(double[] x, double acc) {
+            for (FlatTree tree : trees) {
+                acc += tree.predict(x);
+            }
+            return acc;
+        }
+
+        @Override
+        public void values(double[] x, double[] out, int offset) {
+            for (int t = 0; t < trees.length; t++) {
+                out[offset + t] = trees[t].predict(x);
+            }
+        }
+    }
+
+    private static class TooLargeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    // marks the subtrees of tree that get their own method (outlined may be null), returns how many
+    private static int outline(FlatTree tree, boolean[] outlined) {
+        int size = tree.size();
+        int[] cost = new int[size];           // bytes the node takes when inlined into its parent's method
+        boolean[] moved = outlined != null ? outlined : new boolean[size];
+        int count = 0;
+
+        // children have larger breadth-first indices, so a reverse scan is bottom-up
+        for (int n = size - 1; n >= 0; n--) {
+            if (tree.isLeaf(n)) {
+                cost[n] = 4;                  // ldc2_w + dreturn
+                continue;
+            }
+            int l = tree.left(n), r = tree.right(n);
+            int header = 10 + pushIntSize(tree.feature(n));
+            int total = header + cost[l] + cost[r];
+            // move the bigger child into its own method until this node fits
+            while (total > METHOD_BUDGET) {
+                int big = (!moved[l] && (moved[r] || cost[l] >= cost[r])) ? l : r;
+                moved[big] = true;
+                count++;
+                total = header + (moved[l] ? 5 : cost[l]) + (moved[r] ? 5 : cost[r]);
+            }
+            cost[n] = total;
+        }
+        return count;
+    }
+
+    // ---- code generation ----
+
+    private final FlatTree[] trees;
+    private final ConstantPool pool = new ConstantPool();
+    private final List<byte[]> methods = new ArrayList<>();
+    private int nextMethod = 0;
+
+    private TreeCompiler(FlatTree[] trees) {
+        this.trees = trees;
+    }
+
+    private byte[] generate() throws TooLargeException {
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int iface = pool.classRef(BLOCK);
+
+        // one static method per tree root, more for outlined subtrees
+        String[] roots = new String[trees.length];
+        for (int t = 0; t < trees.length; t++) {
+            boolean[] outlined = new boolean[trees[t].size()];
+            outline(trees[t], outlined);
+            roots[t] = emitMethod(trees[t], 0, outlined);
+        }
+
+        Code init = new Code();
+        init.u1(0x2a);                                                   // aload_0
+        init.u1(0xb7);                                                   // invokespecial Object.<init>
+        init.u2(pool.methodRef("java/lang/Object", "<init>", "()V"));
+        init.u1(0xb1);                                                   // return
+        addMethod(0x0001, "<init>", "()V", init, 1, 1);
+
+        Code sum = new Code();
+        sum.u1(0x28);                                                    // dload_2
+        for (String root : roots) {
+            sum.u1(0x2b);                                                // aload_1
+            sum.u1(0xb8);                                                // invokestatic root
+            sum.u2(pool.methodRef(CLASS_NAME, root, NODE_DESC));
+            sum.u1(0x63);                                                // dadd
+        }
+        sum.u1(0xaf);                                                    // dreturn
+        addMethod(0x0001, "sum", "([DD)D", sum, 4, 4);
+
+        Code values = new Code();
+        for (int t = 0; t < roots.length; t++) {
+            values.u1(0x2c);                                             // aload_2
+            values.u1(0x1d);                                             // iload_3
+            pushInt(values, t);
+            values.u1(0x60);                                             // iadd
+            values.u1(0x2b);                                             // aload_1
+            values.u1(0xb8);                                             // invokestatic root
+            values.u2(pool.methodRef(CLASS_NAME, roots[t], NODE_DESC));
+            values.u1(0x52);                                             // dastore
+        }
+        values.u1(0xb1);                                                 // return
+        addMethod(0x0001, "values", "([D[DI)V", values, 5, 4);
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);          // Java 5 format: no stack map frames needed for the branches
+            out.writeShort(pool.count);
+            pool.bytes.writeTo(out);
+            out.writeShort(0x0031);      // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(iface);
+            out.writeShort(0);           // no fields
+            out.writeShort(methods.size());
+            for (byte[] m : methods) {
+                out.write(m);
+            }
+            out.writeShort(0);           // no class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String emitMethod(FlatTree tree, int root, boolean[] outlined) throws TooLargeException {
+        String name = "n" + (nextMethod++);
+        List<Integer> pending = new ArrayList<>();
+        Code code = new Code();
+        emitNode(tree, root, root, outlined, code, pending);
+        addMethod(0x000a, name, NODE_DESC, code, 4, 1);    // private static
+        for (int child : pending) {
+            String childName = emitMethod(tree, child, outlined);
+            code.patchName(child, pool.methodRef(CLASS_NAME, childName, NODE_DESC));
+        }
+        return name;
+    }
+
+    private void emitNode(FlatTree tree, int n, int methodRoot, boolean[] outlined, Code code, List<Integer> pending) throws TooLargeException {
+        if (n != methodRoot && outlined[n]) {
+            // call the subtree's own method; the ref is filled in once that method exists
+            code.u1(0x2a);                                   // aload_0
+            code.u1(0xb8);                                   // invokestatic
+            code.markName(n);
+            code.u2(0);
+            code.u1(0xaf);                                   // dreturn
+            pending.add(n);
+            return;
+        }
+        if (tree.isLeaf(n)) {
+            code.u1(0x14);                                   // ldc2_w value
+            code.u2(pool.doubleConst(tree.leafValue(n)));
+            code.u1(0xaf);                                   // dreturn
+            return;
+        }
+        code.u1(0x2a);                                       // aload_0
+        pushInt(code, tree.feature(n));
+        code.u1(0x31);                                       // daload
+        code.u1(0x14);                                       // ldc2_w threshold
+        code.u2(pool.doubleConst(tree.threshold(n)));
+        code.u1(0x98);                                       // dcmpg (NaN -> 1, goes right)
+        int jump = code.size();
+        code.u1(0x9c);                                       // ifge right
+        code.u2(0);
+        emitNode(tree, tree.left(n), methodRoot, outlined, code, pending);
+        code.patchJump(jump, code.size() - jump);
+        emitNode(tree, tree.right(n), methodRoot, outlined, code, pending);
+    }
+
+    private void pushInt(Code code, int v) throws TooLargeException {
+        if (v >= -1 && v <= 5) {
+            code.u1(0x03 + v);                               // iconst_<v>
+        } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+            code.u1(0x10);                                   // bipush
+            code.u1(v);
+        } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+            code.u1(0x11);                                   // sipush
+            code.u2(v);
+        } else {
+            code.u1(0x13);                                   // ldc_w
+            code.u2(pool.intConst(v));
+        }
+    }
+
+    private static int pushIntSize(int v) {
+        if (v >= -1 && v <= 5) {
+            return 1;
+        }
+        return (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) ? 2 : 3;
+    }
+
+    private void addMethod(int access, String name, String desc, Code code, int maxStack, int maxLocals) throws TooLargeException {
+        if (code.size() > MAX_CODE) {
+            throw new TooLargeException();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(desc));
+            out.writeShort(1);
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            int start = bytes.size();
+            code.writeTo(out);
+            out.writeShort(0);       // no exception table
+            out.writeShort(0);       // no code attributes
+            methods.add(bytes.toByteArray());
+            // invokestatic refs to outlined children are patched after the fact, remember where the code starts
+            code.attach(methods.size() - 1, start);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // growable bytecode buffer with back-patching for jumps and outlined calls
+    private class Code {
+        private byte[] buf = new byte[64];
+        private int len = 0;
+        private final Map<Integer, Integer> namePatches = new HashMap<>();   // subtree node -> position of its method ref
+        private int methodIndex = -1, methodStart;
+
+        void u1(int v) {
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, len * 2);
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void u2(int v) {
+            u1(v >>> 8);
+            u1(v);
+        }
+
+        int size() {
+            return len;
+        }
+
+        void patchJump(int at, int offset) {
+            buf[at + 1] = (byte) (offset >>> 8);
+            buf[at + 2] = (byte) offset;
+        }
+
+        void markName(int node) {
+            namePatches.put(node, len);
+        }
+
+        void attach(int methodIndex, int methodStart) {
+            this.methodIndex = methodIndex;
+            this.methodStart = methodStart;
+        }
+
+        void patchName(int node, int ref) {
+            int at = namePatches.get(node);
+            byte[] method = methods.get(methodIndex);
+            method[methodStart + at] = (byte) (ref >>> 8);
+            method[methodStart + at + 1] = (byte) ref;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.write(buf, 0, len);
+        }
+    }
+
+    // constant pool with de-duplicated entries; count is the next free index (as written in the class file)
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> index = new HashMap<>();
+        private int count = 1;
+
+        private int add(String key, int slots, Entry entry) throws TooLargeException {
+            Integer existing = index.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (count + slots > MAX_POOL) {
+                throw new TooLargeException();
+            }
+            try {
+                entry.write(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            int idx = count;
+            count += slots;
+            index.put(key, idx);
+            return idx;
+        }
+
+        private interface Entry {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        int utf8(String s) throws TooLargeException {
+            return add("U" + s, 1, o -> {
+                o.writeByte(1);
+                o.writeUTF(s);
+            });
+        }
+
+        int classRef(String name) throws TooLargeException {
+            int nameIdx = utf8(name);
+            return add("C" + name, 1, o -> {
+                o.writeByte(7);
+                o.writeShort(nameIdx);
+            });
+        }
+
+        int methodRef(String owner, String name, String desc) throws TooLargeException {
+            int ownerIdx = classRef(owner);
+            int nameIdx = utf8(name);
+            int descIdx = utf8(desc);
+            int nat = add("N" + name + ":" + desc, 1, o -> {
+                o.writeByte(12);
+                o.writeShort(nameIdx);
+                o.writeShort(descIdx);
+            });
+            return add("M" + owner + "." + name + desc, 1, o -> {
+                o.writeByte(10);
+                o.writeShort(ownerIdx);
+                o.writeShort(nat);
+            });
+        }
+
+        int doubleConst(double v) throws TooLargeException {
+            long bits = Double.doubleToRawLongBits(v);
+            return add("D" + bits, 2, o -> {
+                o.writeByte(6);
+                o.writeLong(bits);
+            });
+        }
+
+        int intConst(int v) throws TooLargeException {
+            return add("I" + v, 1, o -> {
+                o.writeByte(3);
+                o.writeInt(v);
+            });
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package core.algorithms.supervised.tree;
+
+// Prediction entry points of a compiled set of trees (one tree or a whole forest).
+public interface TreePredictor {
+
+    // average of all tree values; for a single tree simply its value
+    double mean(double[] x);
+
+    // value of every tree, out[t] for tree t
+    void treeValues(double[] x, double[] out);
+
+    // false when some trees were too large for a class file and are walked as FlatTrees instead
+    boolean isGenerated();
+}
@@ -0,0 +1,197 @@
+package core.algorithms.supervised.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Shrinks fitted trees without knowing their node class (read through a View, like FlatTree).
+// Every function only decides which subtrees to replace by a single leaf and returns their roots,
+// outermost first; the tree class applies the change to its own nodes.
+//
+// Minimal cost-complexity pruning (CART): with R(t) = (weight of t / root weight) * impurity of t,
+// a split t is worth alpha_eff(t) = (R(t) - R(leaves under t)) / (leaves under t - 1). The weakest
+// link (smallest alpha_eff) is collapsed again and again while alpha_eff <= alpha.
+public class TreePruning {
+
+    public interface View<N> extends FlatTree.NodeView<N> {
+        // weight (sample count) of the rows that reached the node during fit, NaN when unknown
+        double weight(N node);
+
+        // impurity of those rows per unit weight
+        double impurity(N node);
+    }
+
+    // a tree laid out in pre-order, with -1 children for leaves
+    private static final class Indexed<N> {
+        final List<N> nodes = new ArrayList<>();
+        int[] left, right;
+        double[] risk;   // R(t)
+
+        Indexed(N root, FlatTree.NodeView<N> view) {
+            ArrayDeque<N> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                N node = stack.pop();
+                nodes.add(node);
+                if (!view.isLeaf(node)) {
+                    stack.push(view.right(node));
+                    stack.push(view.left(node));
+                }
+            }
+            int size = nodes.size();
+            left = new int[size];
+            right = new int[size];
+            // pre-order: the left child follows its parent, the right child follows the left subtree
+            int[] end = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                if (view.isLeaf(nodes.get(i))) {
+                    left[i] = right[i] = -1;
+                    end[i] = i + 1;
+                } else {
+                    left[i] = i + 1;
+                    right[i] = end[i + 1];
+                    end[i] = end[right[i]];
+                }
+            }
+        }
+
+        void risks(View<N> view) {
+            int size = nodes.size();
+            risk = new double[size];
+            double total = view.weight(nodes.get(0));
+            for (int i = 0; i < size; i++) {
+                double w = view.weight(nodes.get(i));
+                if (Double.isNaN(w)) {
+                    throw new IllegalStateException("Tree has no fit statistics (loaded from json?), it cannot be cost-complexity pruned");
+                }
+                risk[i] = (w / total) * view.impurity(nodes.get(i));
+            }
+        }
+    }
+
+    // subtrees to collapse for the given alpha (>= 0)
+    public static <N> List<N> costComplexity(N root, View<N> view, double alpha) {
+        Indexed<N> tree = new Indexed<>(root, view);
+        tree.risks(view);
+        boolean[] collapsed = new boolean[tree.nodes.size()];
+        double pruned;
+        do {
+            pruned = weakestLink(tree, collapsed, alpha);
+        } while (pruned >= 0);
+        return outermost(tree, collapsed);
+    }
+
+    // effective alphas at which the tree loses its weakest links, from 0 up to the alpha that leaves
+    // only the root, and the total leaf impurity sum R(leaves) after each step: {alphas, impurities}
+    public static <N> double[][] pruningPath(N root, View<N> view) {
+        Indexed<N> tree = new Indexed<>(root, view);
+        tree.risks(view);
+        boolean[] collapsed = new boolean[tree.nodes.size()];
+        List<double[]> steps = new ArrayList<>();
+        steps.add(new double[]{0, leafRisk(tree, collapsed)});
+        double alpha;
+        while ((alpha = weakestLink(tree, collapsed, Double.POSITIVE_INFINITY)) >= 0) {
+            steps.add(new double[]{alpha, leafRisk(tree, collapsed)});
+        }
+        double[][] path = new double[2][steps.size()];
+        for (int s = 0; s < steps.size(); s++) {
+            path[0][s] = steps.get(s)[0];
+            path[1][s] = steps.get(s)[1];
+        }
+        return path;
+    }
+
+    // collapses every reachable split whose alpha_eff is the smallest one, if that is <= limit;
+    // returns that alpha_eff, or -1 when nothing was collapsed
+    private static <N> double weakestLink(Indexed<N> tree, boolean[] collapsed, double limit) {
+        int size = tree.nodes.size();
+        double[] subtreeRisk = new double[size];
+        int[] leaves = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            if (tree.left[i] < 0 || collapsed[i]) {
+                subtreeRisk[i] = tree.risk[i];
+                leaves[i] = 1;
+            } else {
+                subtreeRisk[i] = subtreeRisk[tree.left[i]] + subtreeRisk[tree.right[i]];
+                leaves[i] = leaves[tree.left[i]] + leaves[tree.right[i]];
+            }
+        }
+        boolean[] reachable = reachable(tree, collapsed);
+        double[] effective = new double[size];
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            if (reachable[i] && tree.left[i] >= 0 && !collapsed[i]) {
+                // clamped at 0: rounding can make a useless split look very slightly harmful
+                effective[i] = Math.max(0, (tree.risk[i] - subtreeRisk[i]) / (leaves[i] - 1));
+                min = Math.min(min, effective[i]);
+            }
+        }
+        if (min == Double.POSITIVE_INFINITY || min > limit) {
+            return -1;
+        }
+        // ties are collapsed together, a tolerance absorbs rounding in the risk sums
+        double tie = min + 1e-12 * Math.max(1, Math.abs(min));
+        for (int i = 0; i < size; i++) {
+            if (reachable[i] && tree.left[i] >= 0 && !collapsed[i] && effective[i] <= tie) {
+                collapsed[i] = true;
+            }
+        }
+        return min;
+    }
+
+    private static <N> boolean[] reachable(Indexed<N> tree, boolean[] collapsed) {
+        boolean[] reachable = new boolean[tree.nodes.size()];
+        reachable[0] = true;
+        // pre-order: parents come first
+        for (int i = 0; i < reachable.length; i++) {
+            if (reachable[i] && tree.left[i] >= 0 && !collapsed[i]) {
+                reachable[tree.left[i]] = true;
+                reachable[tree.right[i]] = true;
+            }
+        }
+        return reachable;
+    }
+
+    private static <N> double leafRisk(Indexed<N> tree, boolean[] collapsed) {
+        boolean[] reachable = reachable(tree, collapsed);
+        double sum = 0;
+        for (int i = 0; i < reachable.length; i++) {
+            if (reachable[i] && (tree.left[i] < 0 || collapsed[i])) {
+                sum += tree.risk[i];
+            }
+        }
+        return sum;
+    }
+
+    private static <N> List<N> outermost(Indexed<N> tree, boolean[] collapsed) {
+        boolean[] reachable = reachable(tree, collapsed);
+        List<N> roots = new ArrayList<>();
+        for (int i = 0; i < reachable.length; i++) {
+            if (reachable[i] && tree.left[i] >= 0 && collapsed[i]) {
+                roots.add(tree.nodes.get(i));
+            }
+        }
+        return roots;
+    }
+
+    // splits whose leaves all predict the same value: they can become that leaf without changing
+    // any prediction (works on loaded trees too, only leaf values are read)
+    public static <N> List<N> redundantSplits(N root, FlatTree.NodeView<N> view) {
+        Indexed<N> tree = new Indexed<>(root, view);
+        int size = tree.nodes.size();
+        boolean[] uniform = new boolean[size];
+        double[] value = new double[size];
+        for (int i = size - 1; i >= 0; i--) {
+            N node = tree.nodes.get(i);
+            if (tree.left[i] < 0) {
+                uniform[i] = true;
+                value[i] = view.value(node);
+            } else {
+                int l = tree.left[i], r = tree.right[i];
+                uniform[i] = uniform[l] && uniform[r] && Double.compare(value[l], value[r]) == 0;
+                value[i] = value[l];
+            }
+        }
+        return outermost(tree, uniform);
+    }
+}
@@ -0,0 +1,41 @@
+package core.algorithms.supervised.tree;
+
+// Regression criterion: a group is (weight, sum of y, sum of y^2),
+// which is enough to get the mean and the squared error of any prefix of a sorted column.
+public class VarianceCriterion extends SplitCriterion {
+    private final double[] y;
+
+    public VarianceCriterion(double[] y) {
+        this.y = y;
+    }
+
+    @Override
+    public int statSize() {
+        return 3;
+    }
+
+    @Override
+    public void add(double[] stats, int off, int row, double w) {
+        double v = y[row];
+        stats[off] += w;
+        stats[off + 1] += w * v;
+        stats[off + 2] += w * v * v;
+    }
+
+    @Override
+    public double impurity(double[] stats, int off) {
+        double w = stats[off];
+        if (w <= 0) {
+            return 0;
+        }
+        // variance = E[y^2] - mean^2
+        double mean = stats[off + 1] / w;
+        double variance = stats[off + 2] / w - mean * mean;
+        return variance > 0 ? variance : 0;
+    }
+
+    @Override
+    public double leafValue(double[] stats, int off) {
+        return stats[off + 1] / stats[off];
+    }
+}
@@ -0,0 +1,100 @@
+package core.algorithms.supervised.tree.distributed;
+
+import core.algorithms.supervised.tree.CategorySet;
+import core.algorithms.supervised.tree.FlatTree;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary equivalent of getForestJson: trees travel as their flat node arrays with full double
+// precision (the json keeps 4 decimals) and are read back into the map form fromJson takes.
+// A split is followed by the word count of its category set (0 for a threshold split) and the words.
+class ForestCodec {
+
+    static void write(DataOutputStream out, FlatTree[] trees) throws IOException {
+        out.writeInt(trees.length);
+        for (FlatTree tree : trees) {
+            out.writeInt(tree.size());
+            for (int n = 0; n < tree.size(); n++) {
+                if (tree.isLeaf(n)) {
+                    out.writeInt(-1);
+                    out.writeDouble(tree.leafValue(n));
+                } else {
+                    out.writeInt(tree.feature(n));
+                    out.writeDouble(tree.threshold(n));
+                    out.writeInt(tree.left(n));
+                    out.writeInt(tree.right(n));
+                    long[] set = tree.categories(n);
+                    out.writeInt(set == null ? 0 : set.length);
+                    if (set != null) {
+                        for (long word : set) {
+                            out.writeLong(word);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // one fromJson map per tree, in the order they were written
+    static List<Map<String, Object>> read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Map<String, Object>> trees = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            int size = in.readInt();
+            int[] feature = new int[size];
+            double[] value = new double[size];
+            int[] left = new int[size];
+            int[] right = new int[size];
+            long[][] categories = new long[size][];
+            for (int n = 0; n < size; n++) {
+                feature[n] = in.readInt();
+                value[n] = in.readDouble();
+                if (feature[n] >= 0) {
+                    left[n] = in.readInt();
+                    right[n] = in.readInt();
+                    int words = in.readInt();
+                    if (words > 0) {
+                        categories[n] = new long[words];
+                        for (int w = 0; w < words; w++) {
+                            categories[n][w] = in.readLong();
+                        }
+                    }
+                }
+            }
+            // children always come after their parent, so building backwards needs no recursion
+            List<Map<String, Object>> nodes = new ArrayList<>(size);
+            for (int n = 0; n < size; n++) {
+                nodes.add(new HashMap<>());
+            }
+            for (int n = size - 1; n >= 0; n--) {
+                Map<String, Object> node = nodes.get(n);
+                if (feature[n] < 0) {
+                    node.put("type", "leaf");
+                    node.put("value", value[n]);
+                } else {
+                    node.put("type", "split");
+                    node.put("feature_index", (double) feature[n]);
+                    if (categories[n] != null) {
+                        List<Object> codes = new ArrayList<>();
+                        for (int c : CategorySet.codes(categories[n])) {
+                            codes.add((double) c);
+                        }
+                        node.put("categories", codes);
+                    } else {
+                        node.put("threshold", value[n]);
+                    }
+                    node.put("left", nodes.get(left[n]));
+                    node.put("right", nodes.get(right[n]));
+                }
+            }
+            trees.add(nodes.get(0));
+        }
+        return trees;
+    }
+}
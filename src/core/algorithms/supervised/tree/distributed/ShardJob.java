@@ -0,0 +1,185 @@
+package core.algorithms.supervised.tree.distributed;
+
+import core.algorithms.supervised.classification.RandomForestClassifier;
+import core.algorithms.supervised.regression.RandomForestRegressor;
+import core.algorithms.supervised.tree.FeatureSampler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+// Settings of a forest trained by ShardedForestTrainer, the same ones the forest classes take.
+// Every worker builds its forest from a copy of these, so all shards grow alike.
+public class ShardJob {
+    private final int numtrees;
+    private final int maxdepth;
+    private final int minsamplesplit;
+    private long seed = new Random().nextLong();
+    private int maxBins;
+    private int nJobs = 1;              // threads inside each worker
+    private int maxLeafNodes = -1;
+    private double minImpurityDecrease;
+    private int minSamplesLeaf = 1;
+    private double ccpAlpha;
+    private boolean bootstrap = true;
+    private boolean presort = true;
+    private String splitter = "best";
+    private String maxFeatures;         // null = the forest's default
+    private String criterion = "gini";  // classifiers only
+    private int[] categoricalFeatures;  // null = all numeric
+
+    public ShardJob(int numtrees, int maxdepth, int minsamplesplit) {
+        this.numtrees = numtrees;
+        this.maxdepth = maxdepth;
+        this.minsamplesplit = minsamplesplit;
+    }
+
+    public int getNumberOfTrees() {
+        return numtrees;
+    }
+
+    // the merged forest equals a single-JVM fit with this seed, whatever the number of workers
+    public void setRandomState(long seed) {
+        this.seed = seed;
+    }
+
+    public void setMaxBins(int maxBins) {
+        this.maxBins = maxBins;
+    }
+
+    public void setNJobs(int nJobs) {
+        this.nJobs = nJobs;
+    }
+
+    public void setMaxLeafNodes(int maxLeafNodes) {
+        this.maxLeafNodes = maxLeafNodes;
+    }
+
+    public void setMinImpurityDecrease(double minImpurityDecrease) {
+        this.minImpurityDecrease = minImpurityDecrease;
+    }
+
+    public void setMinSamplesLeaf(int minSamplesLeaf) {
+        this.minSamplesLeaf = minSamplesLeaf;
+    }
+
+    public void setCcpAlpha(double ccpAlpha) {
+        this.ccpAlpha = ccpAlpha;
+    }
+
+    public void setBootstrap(boolean bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    // memory/speed trade-off only, the trees are the same either way
+    public void setPresort(boolean presort) {
+        this.presort = presort;
+    }
+
+    public void setSplitter(String splitter) {
+        if (!splitter.equals("best") && !splitter.equals("random")) {
+            throw new IllegalArgumentException("Unknown splitter: " + splitter);
+        }
+        this.splitter = splitter;
+    }
+
+    public void setMaxFeatures(String maxFeatures) {
+        FeatureSampler.resolve(maxFeatures, 1); // rejects unknown settings before anything is sent
+        this.maxFeatures = maxFeatures;
+    }
+
+    public void setCriterion(String criterion) {
+        this.criterion = criterion;
+    }
+
+    public void setCategoricalFeatures(int... features) {
+        this.categoricalFeatures = (features == null || features.length == 0) ? null : features.clone();
+    }
+
+    RandomForestRegressor newRegressor(int count) {
+        RandomForestRegressor forest = new RandomForestRegressor(count, maxdepth, minsamplesplit);
+        forest.setRandomState(seed);
+        forest.setMaxBins(maxBins);
+        forest.setNJobs(nJobs);
+        forest.setMaxLeafNodes(maxLeafNodes);
+        forest.setMinImpurityDecrease(minImpurityDecrease);
+        forest.setMinSamplesLeaf(minSamplesLeaf);
+        forest.setCcpAlpha(ccpAlpha);
+        forest.setBootstrap(bootstrap);
+        forest.setPresort(presort);
+        forest.setSplitter(splitter);
+        forest.setMaxFeatures(maxFeatures);
+        forest.setCategoricalFeatures(categoricalFeatures);
+        return forest;
+    }
+
+    RandomForestClassifier newClassifier(int count) {
+        RandomForestClassifier forest = new RandomForestClassifier(count, maxdepth, minsamplesplit);
+        forest.setRandomState(seed);
+        forest.setMaxBins(maxBins);
+        forest.setNJobs(nJobs);
+        forest.setMaxLeafNodes(maxLeafNodes);
+        forest.setMinImpurityDecrease(minImpurityDecrease);
+        forest.setMinSamplesLeaf(minSamplesLeaf);
+        forest.setCcpAlpha(ccpAlpha);
+        forest.setBootstrap(bootstrap);
+        forest.setPresort(presort);
+        forest.setSplitter(splitter);
+        forest.setMaxFeatures(maxFeatures);
+        forest.setCriterion(criterion);
+        forest.setCategoricalFeatures(categoricalFeatures);
+        return forest;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(numtrees);
+        out.writeInt(maxdepth);
+        out.writeInt(minsamplesplit);
+        out.writeLong(seed);
+        out.writeInt(maxBins);
+        out.writeInt(nJobs);
+        out.writeInt(maxLeafNodes);
+        out.writeDouble(minImpurityDecrease);
+        out.writeInt(minSamplesLeaf);
+        out.writeDouble(ccpAlpha);
+        out.writeBoolean(bootstrap);
+        out.writeBoolean(presort);
+        out.writeUTF(splitter);
+        out.writeBoolean(maxFeatures != null);
+        if (maxFeatures != null) {
+            out.writeUTF(maxFeatures);
+        }
+        out.writeUTF(criterion);
+        out.writeInt(categoricalFeatures == null ? 0 : categoricalFeatures.length);
+        if (categoricalFeatures != null) {
+            for (int f : categoricalFeatures) {
+                out.writeInt(f);
+            }
+        }
+    }
+
+    static ShardJob read(DataInputStream in) throws IOException {
+        ShardJob job = new ShardJob(in.readInt(), in.readInt(), in.readInt());
+        job.seed = in.readLong();
+        job.maxBins = in.readInt();
+        job.nJobs = in.readInt();
+        job.maxLeafNodes = in.readInt();
+        job.minImpurityDecrease = in.readDouble();
+        job.minSamplesLeaf = in.readInt();
+        job.ccpAlpha = in.readDouble();
+        job.bootstrap = in.readBoolean();
+        job.presort = in.readBoolean();
+        job.splitter = in.readUTF();
+        job.maxFeatures = in.readBoolean() ? in.readUTF() : null;
+        job.criterion = in.readUTF();
+        int categorical = in.readInt();
+        if (categorical > 0) {
+            job.categoricalFeatures = new int[categorical];
+            for (int i = 0; i < categorical; i++) {
+                job.categoricalFeatures[i] = in.readInt();
+            }
+        }
+        return job;
+    }
+}
@@ -0,0 +1,25 @@
+package core.algorithms.supervised.tree.distributed;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// How the coordinator reaches its workers. A request is one encoded shard job, the reply the
+// worker's answer from ShardWorker.handle; the transport only moves the bytes.
+public interface ShardTransport extends Closeable {
+
+    // one shard job; written straight to the connection, so the training data is never held
+    // in memory once per worker
+    interface Request {
+        // exact number of bytes writeTo produces
+        long length();
+
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    int workers();
+
+    // sends request to worker (0..workers()-1) and blocks for its reply; called concurrently,
+    // at most one call per worker at a time
+    byte[] exchange(int worker, Request request) throws IOException;
+}
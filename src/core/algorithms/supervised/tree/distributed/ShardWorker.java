@@ -0,0 +1,148 @@
+package core.algorithms.supervised.tree.distributed;
+
+import core.algorithms.supervised.classification.RandomForestClassifier;
+import core.algorithms.supervised.regression.RandomForestRegressor;
+import core.algorithms.supervised.tree.FlatTree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+// Trains one shard of a forest per request: trees firstTree..firstTree+count-1 of the job's seed,
+// on the data sent along. Runs in its own JVM (main) so every shard gets its own heap and GC.
+//
+// Request: header length, header (kind, ShardJob, firstTree, count), rows, columns, X row-major, y.
+// Reply: true + the shard's trees (ForestCodec), or false + the error message.
+public class ShardWorker {
+    static final int REGRESSOR = 0, CLASSIFIER = 1;
+    static final String READY = "shard worker listening on port ";
+
+    // larger requests are refused before anything is allocated: X could not fit in this heap
+    private static final long MAX_REQUEST = Runtime.getRuntime().maxMemory();
+    private static final int MAX_HEADER = 1 << 20;
+
+    // usage: ShardWorker [port] [bind address]; port 0 (default) picks a free one, announced on stdout
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 0;
+        InetAddress bind = (args.length > 1) ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        try (ServerSocket server = new ServerSocket(port, 50, bind)) {
+            System.out.println(READY + server.getLocalPort());
+            System.out.flush();
+            serve(server);
+        }
+    }
+
+    // answers framed requests (SocketTransport) one connection at a time until the socket is closed.
+    // A broken connection or a malformed request only ends that connection: the error is sent
+    // back while the peer still listens, and the worker goes on with the next one
+    public static void serve(ServerSocket server) throws IOException {
+        while (!server.isClosed()) {
+            Socket socket = server.accept();
+            try (socket) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                byte[] reply;
+                try {
+                    reply = handle(in, in.readLong());
+                } catch (IOException e) {
+                    reply = failure("Unreadable request: " + e);
+                }
+                out.writeInt(reply.length);
+                out.write(reply);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Shard worker dropped a connection: " + e);
+            }
+        }
+    }
+
+    // in-process form of a request, for transports that do not go through serve
+    public static byte[] handle(byte[] request) throws IOException {
+        return handle(new DataInputStream(new ByteArrayInputStream(request)), request.length);
+    }
+
+    // one request of length bytes read from in, one reply out. Sizes are checked against length
+    // before anything is allocated; a request that cannot be read throws IOException, training
+    // errors are sent back instead of killing the worker
+    public static byte[] handle(DataInputStream in, long length) throws IOException {
+        if (length < Integer.BYTES || length > MAX_REQUEST) {
+            throw new IOException("Request of " + length + " bytes, this worker takes at most " + MAX_REQUEST);
+        }
+        int headerLength = in.readInt();
+        if (headerLength < 0 || headerLength > Math.min(MAX_HEADER, length - Integer.BYTES)) {
+            throw new IOException("Header of " + headerLength + " bytes in a request of " + length);
+        }
+        byte[] header = new byte[headerLength];
+        in.readFully(header);
+        try {
+            FlatTree[] trees = train(new DataInputStream(new ByteArrayInputStream(header)), in,
+                    length - Integer.BYTES - headerLength);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeBoolean(true);
+            ForestCodec.write(out, trees);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (RuntimeException | OutOfMemoryError e) {
+            return failure(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static byte[] failure(String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBoolean(false);
+        out.writeUTF(message);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // data is the rest of the request: rows, columns, X and y, dataLength bytes in all
+    private static FlatTree[] train(DataInputStream header, DataInputStream data, long dataLength) throws IOException {
+        int kind = header.readInt();
+        ShardJob job = ShardJob.read(header);
+        int firstTree = header.readInt();
+        int count = header.readInt();
+        if (kind != REGRESSOR && kind != CLASSIFIER) {
+            throw new IOException("Unknown forest kind " + kind);
+        }
+
+        int rows = data.readInt();
+        int cols = data.readInt();
+        int targetBytes = (kind == CLASSIFIER) ? Integer.BYTES : Double.BYTES;
+        long values = (long) rows * cols;
+        if (rows < 0 || cols < 0 || values > dataLength / Double.BYTES
+                || 2 * Integer.BYTES + values * Double.BYTES + (long) rows * targetBytes != dataLength) {
+            throw new IOException(rows + " x " + cols + " values do not fill the " + dataLength + " bytes sent");
+        }
+        double[][] X = new double[rows][cols];
+        for (double[] row : X) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = data.readDouble();
+            }
+        }
+        if (kind == CLASSIFIER) {
+            int[] y = new int[X.length];
+            for (int i = 0; i < y.length; i++) {
+                y[i] = data.readInt();
+            }
+            RandomForestClassifier forest = job.newClassifier(count);
+            forest.fitShard(X, y, firstTree, count);
+            return forest.getFlatTrees();
+        }
+        double[] y = new double[X.length];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = data.readDouble();
+        }
+        RandomForestRegressor forest = job.newRegressor(count);
+        forest.fitShard(X, y, firstTree, count);
+        return forest.getFlatTrees();
+    }
+}
@@ -0,0 +1,142 @@
+package core.algorithms.supervised.tree.distributed;
+
+import core.algorithms.supervised.classification.RandomForestClassifier;
+import core.algorithms.supervised.regression.RandomForestRegressor;
+import core.utils.ParallelRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Coordinator of sharded forest training: the trees of a ShardJob are split into one contiguous
+// range per worker, every worker grows its range in its own process (the forest's fitShard, see
+// ShardWorker) and the partial forests are concatenated in range order into one model.
+// Tree t always uses the t-th random stream of the seed, so the merged forest is the one a single
+// fit with the same seed would grow, for any number of workers.
+public class ShardedForestTrainer {
+    private final ShardTransport transport;
+
+    public ShardedForestTrainer(ShardTransport transport) {
+        this.transport = transport;
+    }
+
+    public RandomForestRegressor fitRegressor(ShardJob job, double[][] X, double[] y) {
+        checkShape(X, y.length);
+        List<Map<String, Object>> trees = run(job, X, Double.BYTES, (out) -> {
+            for (double v : y) {
+                out.writeDouble(v);
+            }
+        }, ShardWorker.REGRESSOR);
+        return RandomForestRegressor.fromJson(trees);
+    }
+
+    public RandomForestClassifier fitClassifier(ShardJob job, double[][] X, int[] y) {
+        checkShape(X, y.length);
+        List<Map<String, Object>> trees = run(job, X, Integer.BYTES, (out) -> {
+            for (int v : y) {
+                out.writeInt(v);
+            }
+        }, ShardWorker.CLASSIFIER);
+        return RandomForestClassifier.fromJson(trees);
+    }
+
+    // checked here, before every worker is sent a job it can only fail
+    private static void checkShape(double[][] X, int targets) {
+        if (X.length == 0) {
+            throw new IllegalArgumentException("Cannot train a forest on an empty X");
+        }
+        for (int i = 0; i < X.length; i++) {
+            if (X[i].length != X[0].length) {
+                throw new IllegalArgumentException("Row " + i + " has " + X[i].length + " values, expected " + X[0].length);
+            }
+        }
+        if (targets != X.length) {
+            throw new IllegalArgumentException("y has " + targets + " values, X has " + X.length + " rows");
+        }
+    }
+
+    private interface Targets {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // sends every shard at once (one thread per worker, they only wait on the network)
+    // and returns all trees in forest order
+    private List<Map<String, Object>> run(ShardJob job, double[][] X, int targetBytes, Targets y, int kind) {
+        int total = job.getNumberOfTrees();
+        int shards = Math.max(1, Math.min(transport.workers(), total));
+        List<List<Map<String, Object>>> parts = ParallelRunner.run(shards, w -> {
+            int first = (int) ((long) total * w / shards);
+            int count = (int) ((long) total * (w + 1) / shards) - first;
+            try {
+                byte[] reply = transport.exchange(w, new Request(header(job, kind, first, count), X, targetBytes, y));
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(reply));
+                if (!in.readBoolean()) {
+                    throw new IllegalStateException("Shard " + w + " failed: " + in.readUTF());
+                }
+                return ForestCodec.read(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Shard " + w + " unreachable", e);
+            }
+        }, shards, null);
+
+        List<Map<String, Object>> trees = new ArrayList<>(total);
+        for (List<Map<String, Object>> part : parts) {
+            trees.addAll(part);
+        }
+        return trees;
+    }
+
+    // the part of a request that differs between shards
+    private static byte[] header(ShardJob job, int kind, int first, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(kind);
+        job.write(out);
+        out.writeInt(first);
+        out.writeInt(count);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // header, then X and y encoded on the fly while the transport writes, so every shard reads
+    // the caller's arrays and nothing is copied per worker (or limited to 2 GB)
+    private static class Request implements ShardTransport.Request {
+        private final byte[] header;
+        private final double[][] X;
+        private final int targetBytes;
+        private final Targets y;
+
+        Request(byte[] header, double[][] X, int targetBytes, Targets y) {
+            this.header = header;
+            this.X = X;
+            this.targetBytes = targetBytes;
+            this.y = y;
+        }
+
+        @Override
+        public long length() {
+            return Integer.BYTES + header.length + 2 * Integer.BYTES
+                    + (long) X.length * X[0].length * Double.BYTES + (long) X.length * targetBytes;
+        }
+
+        @Override
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(header.length);
+            out.write(header);
+            out.writeInt(X.length);
+            out.writeInt(X[0].length);
+            for (double[] row : X) {
+                for (double v : row) {
+                    out.writeDouble(v);
+                }
+            }
+            y.write(out);
+        }
+    }
+}
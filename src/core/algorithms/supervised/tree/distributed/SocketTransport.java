@@ -0,0 +1,100 @@
+package core.algorithms.supervised.tree.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Default transport: one TCP connection per request to ShardWorker.serve; a request is its long
+// length followed by its bytes, the reply an int length followed by its bytes. Workers are either started here as child JVMs on this machine
+// (launchLocal) or already running elsewhere and given by address.
+public class SocketTransport implements ShardTransport {
+    private final List<InetSocketAddress> addresses;
+    private final List<Process> processes; // workers this transport started, stopped by close
+
+    public SocketTransport(List<InetSocketAddress> addresses) {
+        this(addresses, new ArrayList<>());
+    }
+
+    private SocketTransport(List<InetSocketAddress> addresses, List<Process> processes) {
+        this.addresses = new ArrayList<>(addresses);
+        this.processes = processes;
+    }
+
+    // starts that many JVMs running ShardWorker on free localhost ports, with this JVM's classpath;
+    // jvmArgs go to every worker (e.g. "-Xmx4g")
+    public static SocketTransport launchLocal(int workers, String... jvmArgs) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int w = 0; w < workers; w++) {
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(List.of(jvmArgs));
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(ShardWorker.class.getName());
+                Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                processes.add(process);
+                addresses.add(new InetSocketAddress("127.0.0.1", awaitPort(process)));
+            }
+        } catch (IOException e) {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            throw e;
+        }
+        return new SocketTransport(addresses, processes);
+    }
+
+    // the worker announces its port on the first line of stdout
+    private static int awaitPort(Process process) throws IOException {
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = out.readLine();
+        if (line == null || !line.startsWith(ShardWorker.READY)) {
+            throw new IOException("Shard worker did not start: " + line);
+        }
+        return Integer.parseInt(line.substring(ShardWorker.READY.length()).trim());
+    }
+
+    @Override
+    public int workers() {
+        return addresses.size();
+    }
+
+    @Override
+    public byte[] exchange(int worker, Request request) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(addresses.get(worker));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeLong(request.length());
+            request.writeTo(out);
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Worker " + worker + " sent a reply of " + length + " bytes");
+            }
+            byte[] reply = new byte[length];
+            in.readFully(reply);
+            return reply;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package core.utils;
+
+import java.util.Arrays;
+
+// Dense matrix stored in one flat double[]: element (i, j) is data[offset + i * rowStride + j * colStride].
+// A fresh matrix is row-major (rowStride = cols, colStride = 1), so a row is a contiguous run
+// of the array; row(), rows() and transpose() are views on the same array, nothing is copied.
+// Kernels read data(), rowOffset(i) and colStride() directly instead of going through get().
+public class DenseMatrix {
+    private final double[] data;
+    private final int rows, cols;
+    private final int offset, rowStride, colStride;
+
+    public DenseMatrix(int rows, int cols) {
+        this(new double[Math.multiplyExact(rows, cols)], rows, cols);
+    }
+
+    // wraps data (row-major, rows * cols values) without copying
+    public DenseMatrix(double[] data, int rows, int cols) {
+        this(data, 0, rows, cols, cols, 1);
+    }
+
+    // any strided view of data
+    public DenseMatrix(double[] data, int offset, int rows, int cols, int rowStride, int colStride) {
+        if (rows < 0 || cols < 0 || offset < 0) {
+            throw new IllegalArgumentException("Invalid shape " + rows + " x " + cols + " at offset " + offset);
+        }
+        if (rows > 0 && cols > 0) {
+            long last = offset + (long) (rows - 1) * rowStride + (long) (cols - 1) * colStride;
+            if (rowStride < 0 || colStride < 0 || last >= data.length) {
+                throw new IllegalArgumentException("A " + rows + " x " + cols + " view with strides (" + rowStride + ", "
+                        + colStride + ") at offset " + offset + " does not fit in " + data.length + " values");
+            }
+        }
+        this.data = data;
+        this.offset = offset;
+        this.rows = rows;
+        this.cols = cols;
+        this.rowStride = rowStride;
+        this.colStride = colStride;
+    }
+
+    // copies a jagged array into one row-major block, every row must have the same length
+    public static DenseMatrix fromRows(double[][] X) {
+        int rows = X.length;
+        int cols = rows == 0 ? 0 : X[0].length;
+        DenseMatrix m = new DenseMatrix(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            if (X[i].length != cols) {
+                throw new IllegalArgumentException("Row " + i + " has " + X[i].length + " values, expected " + cols);
+            }
+            System.arraycopy(X[i], 0, m.data, i * cols, cols);
+        }
+        return m;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public double get(int i, int j) {
+        return data[index(i, j)];
+    }
+
+    public void set(int i, int j, double value) {
+        data[index(i, j)] = value;
+    }
+
+    private int index(int i, int j) {
+        if (i < 0 || i >= rows || j < 0 || j >= cols) {
+            throw new IndexOutOfBoundsException("(" + i + ", " + j + ") outside " + rows + " x " + cols);
+        }
+        return offset + i * rowStride + j * colStride;
+    }
+
+    // backing array shared by every view, for kernels
+    public double[] data() {
+        return data;
+    }
+
+    // position of (i, 0) in data()
+    public int rowOffset(int i) {
+        return offset + i * rowStride;
+    }
+
+    public int rowStride() {
+        return rowStride;
+    }
+
+    // distance between two neighbouring values of a row, 1 for row-major
+    public int colStride() {
+        return colStride;
+    }
+
+    // 1 x cols view of row i
+    public DenseMatrix row(int i) {
+        return rows(i, i + 1);
+    }
+
+    // rows [from, to) as a view
+    public DenseMatrix rows(int from, int to) {
+        if (from < 0 || to > rows || from > to) {
+            throw new IndexOutOfBoundsException("Rows [" + from + ", " + to + ") outside " + rows);
+        }
+        return new DenseMatrix(data, offset + from * rowStride, to - from, cols, rowStride, colStride);
+    }
+
+    // cols x rows view, strides swapped
+    public DenseMatrix transpose() {
+        return new DenseMatrix(data, offset, cols, rows, colStride, rowStride);
+    }
+
+    // out = this * x + start (out has rows entries, x has cols); every row's sum begins at start,
+    // so a linear model's bias rounds as in bias + w . x
+    public void multiply(double[] x, double start, double[] out) {
+        for (int i = 0; i < rows; i++) {
+            out[i] = VectorOps.dot(start, x, data, rowOffset(i), colStride, cols);
+        }
+    }
+
+    // out = transpose(this) * v, accumulated row by row (out has cols entries, v has rows)
+    public void multiplyTransposed(double[] v, double[] out) {
+        Arrays.fill(out, 0, cols, 0.0);
+        for (int i = 0; i < rows; i++) {
+            VectorOps.axpy(v[i], data, rowOffset(i), colStride, out, cols);
+        }
+    }
+
+    public double[] copyRow(int i) {
+        double[] out = new double[cols];
+        for (int j = 0, p = rowOffset(i); j < cols; j++, p += colStride) {
+            out[j] = data[p];
+        }
+        return out;
+    }
+
+    public double[][] toArray() {
+        double[][] out = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            out[i] = copyRow(i);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,51 @@
+package core.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+
+// Runs independent jobs 0..count-1 on a ForkJoin pool and returns their results in job order,
+// so the output never depends on how many threads were used or which one finished first.
+public class ParallelRunner {
+
+    // n_jobs semantics: positive = that many threads, -1 = all cores, -2 = all but one, ...
+    public static int resolveJobs(int nJobs) {
+        if (nJobs > 0) {
+            return nJobs;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, cores + 1 + nJobs);
+    }
+
+    // pool may be null, then a pool with resolveJobs(nJobs) threads is created for this call
+    public static <T> List<T> run(int count, IntFunction<T> job, int nJobs, ForkJoinPool pool) {
+        List<T> results = new ArrayList<>(count);
+        int threads = resolveJobs(nJobs);
+        if (pool == null && (threads == 1 || count <= 1)) {
+            for (int i = 0; i < count; i++) {
+                results.add(job.apply(i));
+            }
+            return results;
+        }
+
+        ForkJoinPool owned = (pool == null) ? new ForkJoinPool(threads) : null;
+        ForkJoinPool used = (pool == null) ? owned : pool;
+        try {
+            List<ForkJoinTask<T>> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final int idx = i;
+                tasks.add(used.submit(() -> job.apply(idx)));
+            }
+            for (ForkJoinTask<T> task : tasks) {
+                results.add(task.join());
+            }
+        } finally {
+            if (owned != null) {
+                owned.shutdown();
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,104 @@
+package core.utils;
+
+// Dense kernels of the linear models: dot products, axpy (y += alpha * x) and gradient steps.
+// At class load the SIMD implementation (SimdKernels, jdk.incubator.vector) is picked when it was
+// compiled (it lives in the optional src/simd source root, see README), the module is resolved
+// (run with --add-modules jdk.incubator.vector) and the platform has vectors of at least two
+// doubles; otherwise, or with -Dcore.utils.vector=scalar, plain loops are used.
+// The scalar loops round exactly like the plain loops they replaced. axpy and step give the same
+// bits on both paths; dot adds in lanes on the SIMD path, so its last bits can differ.
+// Strided rows (see DenseMatrix) always take the scalar loops.
+public final class VectorOps {
+
+    interface Kernels {
+        double dot(double sum, double[] a, double[] x, int offset, int n);
+
+        void axpy(double alpha, double[] x, int offset, double[] y, int n);
+
+        void step(double[] weights, double[] gradients, double rate, double divisor);
+    }
+
+    private static final Kernels KERNELS = load();
+
+    private VectorOps() {
+    }
+
+    private static Kernels load() {
+        if (!"scalar".equals(System.getProperty("core.utils.vector"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // loaded by name so nothing links against the module when it is absent
+                return (Kernels) Class.forName("core.utils.SimdKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not compiled with the module, or no real vectors here: the scalar loops
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    // true when the SIMD kernels are in use
+    public static boolean isVectorized() {
+        return !(KERNELS instanceof ScalarKernels);
+    }
+
+    // sum of a[i] * x[offset + i * stride] for i < n
+    public static double dot(double[] a, double[] x, int offset, int stride, int n) {
+        return dot(0.0, a, x, offset, stride, n);
+    }
+
+    // the same products added onto sum, in order on the scalar path (e.g. a bias first, then w . x)
+    public static double dot(double sum, double[] a, double[] x, int offset, int stride, int n) {
+        if (stride != 1) {
+            for (int i = 0, p = offset; i < n; i++, p += stride) {
+                sum += a[i] * x[p];
+            }
+            return sum;
+        }
+        return KERNELS.dot(sum, a, x, offset, n);
+    }
+
+    // y[i] += alpha * x[offset + i * stride] for i < n
+    public static void axpy(double alpha, double[] x, int offset, int stride, double[] y, int n) {
+        if (stride != 1) {
+            for (int i = 0, p = offset; i < n; i++, p += stride) {
+                y[i] += alpha * x[p];
+            }
+            return;
+        }
+        KERNELS.axpy(alpha, x, offset, y, n);
+    }
+
+    // gradient step weights[i] -= rate * gradients[i]
+    public static void step(double[] weights, double[] gradients, double rate) {
+        KERNELS.axpy(-rate, gradients, 0, weights, weights.length);
+    }
+
+    // weights[i] -= rate * gradients[i] / divisor, e.g. a summed gradient averaged over a batch
+    public static void step(double[] weights, double[] gradients, double rate, double divisor) {
+        KERNELS.step(weights, gradients, rate, divisor);
+    }
+
+    static final class ScalarKernels implements Kernels {
+        @Override
+        public double dot(double sum, double[] a, double[] x, int offset, int n) {
+            for (int i = 0; i < n; i++) {
+                sum += a[i] * x[offset + i];
+            }
+            return sum;
+        }
+
+        @Override
+        public void axpy(double alpha, double[] x, int offset, double[] y, int n) {
+            for (int i = 0; i < n; i++) {
+                y[i] += alpha * x[offset + i];
+            }
+        }
+
+        @Override
+        public void step(double[] weights, double[] gradients, double rate, double divisor) {
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] -= rate * gradients[i] / divisor;
+            }
+        }
+    }
+}
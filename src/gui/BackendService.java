@@ -1,8 +1,12 @@
 package gui;
 
 import core.algorithms.supervised.classification.DecisionTreeClassifier;
+import core.algorithms.supervised.classification.ExtraTreesClassifier;
+import core.algorithms.supervised.classification.GradientBoostingClassifier;
 import core.algorithms.supervised.classification.RandomForestClassifier;
 import core.algorithms.supervised.regression.DecisionTreeRegressor;
+import core.algorithms.supervised.regression.ExtraTreesRegressor;
+import core.algorithms.supervised.regression.GradientBoostingRegressor;
 import core.algorithms.supervised.regression.ModularLinearRegression;
 import core.algorithms.supervised.regression.RandomForestRegressor;
 import core.algorithms.supervised.regression.costFunction.*;
@@ -79,6 +83,9 @@ public class BackendService {
             if (valueStr.equals("true") || valueStr.equals("false")) {
                 return Boolean.parseBoolean(valueStr);
             }
+            if (valueStr.equals("null")) {
+                return null; // e.g. oobScore of a forest trained without OOB tracking
+            }
             return Double.parseDouble(valueStr);
         }
     }
@@ -94,8 +101,8 @@ public class BackendService {
             Map<String, Object> trainingData = (Map<String, Object>) request.get("trainingData");
 
             // 4. Extract training data
-            List<List<Double>> xDataList = (List<List<Double>>) (Object) trainingData.get("X");
-            List<Double> yDataList = (List<Double>) (Object) trainingData.get("y");
+            List<List<Double>> xDataList = (List<List<Double>>) trainingData.get("X");
+            List<Double> yDataList = (List<Double>) trainingData.get("y");
             double[][] X = xDataList.stream().map(l -> l.stream().mapToDouble(Double::doubleValue).toArray()).toArray(double[][]::new);
             double[] y_double = yDataList.stream().mapToDouble(Double::doubleValue).toArray();
 
@@ -135,7 +142,32 @@ public class BackendService {
                     int max_depth = ((Double) params.get("max_depth")).intValue();
                     int min_samples_split = ((Double) params.get("min_samples_split")).intValue();
                     DecisionTreeRegressor model = new DecisionTreeRegressor(max_depth, min_samples_split);
+                    if (params.containsKey("max_features")) {
+                        model.setMaxFeatures(maxFeatures(params.get("max_features")));
+                    }
+                    if (params.containsKey("max_leaf_nodes")) {
+                        model.setMaxLeafNodes(((Double) params.get("max_leaf_nodes")).intValue());
+                    }
+                    if (params.containsKey("min_impurity_decrease")) {
+                        model.setMinImpurityDecrease((Double) params.get("min_impurity_decrease"));
+                    }
+                    if (params.containsKey("min_samples_leaf")) {
+                        model.setMinSamplesLeaf(((Double) params.get("min_samples_leaf")).intValue());
+                    }
+                    if (params.containsKey("ccp_alpha")) {
+                        model.setCcpAlpha((Double) params.get("ccp_alpha"));
+                    }
+                    if (params.containsKey("categorical_features")) {
+                        model.setCategoricalFeatures(intArray(params.get("categorical_features")));
+                    }
+                    if (params.containsKey("n_jobs")) {
+                        model.setNJobs(((Double) params.get("n_jobs")).intValue());
+                    }
+                    if (params.containsKey("max_bins")) {
+                        model.setMaxBins(((Double) params.get("max_bins")).intValue());
+                    }
                     model.fit(X, y_double);
+                    model.compact(); // drops splits that cannot change a prediction before the tree is serialized
                     int depth = model.getDepth();
                     String treeJson = model.getTreeJson();
                     return """
@@ -151,7 +183,35 @@ public class BackendService {
                     int max_depth = ((Double) params.get("max_depth")).intValue();
                     int min_samples_split = ((Double) params.get("min_samples_split")).intValue();
                     DecisionTreeClassifier model = new DecisionTreeClassifier(max_depth, min_samples_split);
+                    if (params.containsKey("max_features")) {
+                        model.setMaxFeatures(maxFeatures(params.get("max_features")));
+                    }
+                    if (params.containsKey("max_leaf_nodes")) {
+                        model.setMaxLeafNodes(((Double) params.get("max_leaf_nodes")).intValue());
+                    }
+                    if (params.containsKey("min_impurity_decrease")) {
+                        model.setMinImpurityDecrease((Double) params.get("min_impurity_decrease"));
+                    }
+                    if (params.containsKey("min_samples_leaf")) {
+                        model.setMinSamplesLeaf(((Double) params.get("min_samples_leaf")).intValue());
+                    }
+                    if (params.containsKey("ccp_alpha")) {
+                        model.setCcpAlpha((Double) params.get("ccp_alpha"));
+                    }
+                    if (params.containsKey("categorical_features")) {
+                        model.setCategoricalFeatures(intArray(params.get("categorical_features")));
+                    }
+                    if (params.containsKey("n_jobs")) {
+                        model.setNJobs(((Double) params.get("n_jobs")).intValue());
+                    }
+                    if (params.containsKey("criterion")) {
+                        model.setCriterion((String) params.get("criterion"));
+                    }
+                    if (params.containsKey("max_bins")) {
+                        model.setMaxBins(((Double) params.get("max_bins")).intValue());
+                    }
                     model.fit(X, y_int);
+                    model.compact(); // drops splits that cannot change a prediction before the tree is serialized
                     int depth = model.getDepth();
                     String treeJson = model.getTreeJson();
                     return """
@@ -162,38 +222,206 @@ public class BackendService {
                       "treeStructure": %s
                     }""".formatted(depth, treeJson);
                 }
-                case "randomForestRegressor": {
+                case "randomForestRegressor":
+                case "extraTreesRegressor": {
+                    boolean extra = algorithm.equals("extraTreesRegressor");
                     int n_estimators = ((Double) params.get("n_estimators")).intValue();
                     int max_depth = ((Double) params.get("max_depth")).intValue();
                     int min_samples_split = ((Double) params.get("min_samples_split")).intValue();
-                    RandomForestRegressor model = new RandomForestRegressor(n_estimators, max_depth, min_samples_split);
-                    model.fit(X, y_double);
+                    // warm start: a previously returned forestStructure gets n_estimators more trees
+                    List<Map<String, Object>> warmStart = (List<Map<String, Object>>) params.get("warm_start_forest");
+                    RandomForestRegressor model;
+                    if (warmStart != null) {
+                        model = extra ? ExtraTreesRegressor.fromJson(warmStart) : RandomForestRegressor.fromJson(warmStart);
+                        model.setMaxDepth(max_depth);
+                        model.setMinSamplesSplit(min_samples_split);
+                    } else {
+                        model = extra
+                                ? new ExtraTreesRegressor(n_estimators, max_depth, min_samples_split)
+                                : new RandomForestRegressor(n_estimators, max_depth, min_samples_split);
+                    }
+                    if (params.containsKey("max_features")) {
+                        model.setMaxFeatures(maxFeatures(params.get("max_features")));
+                    }
+                    if (params.containsKey("max_leaf_nodes")) {
+                        model.setMaxLeafNodes(((Double) params.get("max_leaf_nodes")).intValue());
+                    }
+                    if (params.containsKey("min_impurity_decrease")) {
+                        model.setMinImpurityDecrease((Double) params.get("min_impurity_decrease"));
+                    }
+                    if (params.containsKey("min_samples_leaf")) {
+                        model.setMinSamplesLeaf(((Double) params.get("min_samples_leaf")).intValue());
+                    }
+                    if (params.containsKey("ccp_alpha")) {
+                        model.setCcpAlpha((Double) params.get("ccp_alpha"));
+                    }
+                    if (params.containsKey("categorical_features")) {
+                        model.setCategoricalFeatures(intArray(params.get("categorical_features")));
+                    }
+                    if (params.containsKey("n_jobs")) {
+                        model.setNJobs(((Double) params.get("n_jobs")).intValue());
+                    }
+                    if (params.containsKey("random_state")) {
+                        model.setRandomState(((Double) params.get("random_state")).longValue());
+                    }
+                    if (params.containsKey("max_bins")) {
+                        model.setMaxBins(((Double) params.get("max_bins")).intValue());
+                    }
+                    if (params.containsKey("oob_score")) {
+                        model.setOobScore((Boolean) params.get("oob_score"));
+                    }
+                    if (params.containsKey("n_iter_no_change")) {
+                        int check_every = params.containsKey("check_every") ? ((Double) params.get("check_every")).intValue() : 10;
+                        double tol = params.containsKey("tol") ? (Double) params.get("tol") : 1e-4;
+                        model.setEarlyStopping(check_every, ((Double) params.get("n_iter_no_change")).intValue(), tol);
+                    }
+                    if (warmStart != null) {
+                        model.addTrees(X, y_double, n_estimators);
+                    } else {
+                        model.fit(X, y_double);
+                    }
+                    model.compact();
                     int numTrees = model.getNumberOfTrees();
                     String forestJson = model.getForestJson();
+                    boolean oob = params.containsKey("oob_score") && (Boolean) params.get("oob_score");
+                    String oobScore = oob ? String.valueOf(model.getOobScore()) : "null";
                     return """
                     {
                       "status": "success",
-                      "message": "Random Forest Regressor trained successfully!",
+                      "message": "%s Regressor trained successfully!",
                       "numberOfTrees": %d,
+                      "oobScore": %s,
                       "forestStructure": %s
-                    }""".formatted(numTrees, forestJson);
+                    }""".formatted(extra ? "Extra Trees" : "Random Forest", numTrees, oobScore, forestJson);
                 }
-                case "randomForestClassifier": {
+                case "randomForestClassifier":
+                case "extraTreesClassifier": {
+                    boolean extra = algorithm.equals("extraTreesClassifier");
                     int[] y_int = Arrays.stream(y_double).mapToInt(d -> (int) d).toArray();
                     int n_estimators = ((Double) params.get("n_estimators")).intValue();
                     int max_depth = ((Double) params.get("max_depth")).intValue();
                     int min_samples_split = ((Double) params.get("min_samples_split")).intValue();
-                    RandomForestClassifier model = new RandomForestClassifier(n_estimators, max_depth, min_samples_split);
-                    model.fit(X, y_int);
+                    // warm start: a previously returned forestStructure gets n_estimators more trees
+                    List<Map<String, Object>> warmStart = (List<Map<String, Object>>) params.get("warm_start_forest");
+                    RandomForestClassifier model;
+                    if (warmStart != null) {
+                        model = extra ? ExtraTreesClassifier.fromJson(warmStart) : RandomForestClassifier.fromJson(warmStart);
+                        model.setMaxDepth(max_depth);
+                        model.setMinSamplesSplit(min_samples_split);
+                    } else {
+                        model = extra
+                                ? new ExtraTreesClassifier(n_estimators, max_depth, min_samples_split)
+                                : new RandomForestClassifier(n_estimators, max_depth, min_samples_split);
+                    }
+                    if (params.containsKey("max_features")) {
+                        model.setMaxFeatures(maxFeatures(params.get("max_features")));
+                    }
+                    if (params.containsKey("max_leaf_nodes")) {
+                        model.setMaxLeafNodes(((Double) params.get("max_leaf_nodes")).intValue());
+                    }
+                    if (params.containsKey("min_impurity_decrease")) {
+                        model.setMinImpurityDecrease((Double) params.get("min_impurity_decrease"));
+                    }
+                    if (params.containsKey("min_samples_leaf")) {
+                        model.setMinSamplesLeaf(((Double) params.get("min_samples_leaf")).intValue());
+                    }
+                    if (params.containsKey("ccp_alpha")) {
+                        model.setCcpAlpha((Double) params.get("ccp_alpha"));
+                    }
+                    if (params.containsKey("categorical_features")) {
+                        model.setCategoricalFeatures(intArray(params.get("categorical_features")));
+                    }
+                    if (params.containsKey("criterion")) {
+                        model.setCriterion((String) params.get("criterion"));
+                    }
+                    if (params.containsKey("n_jobs")) {
+                        model.setNJobs(((Double) params.get("n_jobs")).intValue());
+                    }
+                    if (params.containsKey("random_state")) {
+                        model.setRandomState(((Double) params.get("random_state")).longValue());
+                    }
+                    if (params.containsKey("max_bins")) {
+                        model.setMaxBins(((Double) params.get("max_bins")).intValue());
+                    }
+                    if (params.containsKey("oob_score")) {
+                        model.setOobScore((Boolean) params.get("oob_score"));
+                    }
+                    if (params.containsKey("n_iter_no_change")) {
+                        int check_every = params.containsKey("check_every") ? ((Double) params.get("check_every")).intValue() : 10;
+                        double tol = params.containsKey("tol") ? (Double) params.get("tol") : 1e-4;
+                        model.setEarlyStopping(check_every, ((Double) params.get("n_iter_no_change")).intValue(), tol);
+                    }
+                    if (warmStart != null) {
+                        model.addTrees(X, y_int, n_estimators);
+                    } else {
+                        model.fit(X, y_int);
+                    }
+                    model.compact();
                     int numTrees = model.getNumberOfTrees();
                     String forestJson = model.getForestJson();
+                    boolean oob = params.containsKey("oob_score") && (Boolean) params.get("oob_score");
+                    String oobScore = oob ? String.valueOf(model.getOobScore()) : "null";
                     return """
                     {
                       "status": "success",
-                      "message": "Random Forest Classifier trained successfully!",
+                      "message": "%s Classifier trained successfully!",
                       "numberOfTrees": %d,
+                      "oobScore": %s,
                       "forestStructure": %s
-                    }""".formatted(numTrees, forestJson);
+                    }""".formatted(extra ? "Extra Trees" : "Random Forest", numTrees, oobScore, forestJson);
+                }
+                case "gradientBoostingRegressor":
+                case "gradientBoostingClassifier": {
+                    boolean classifier = algorithm.equals("gradientBoostingClassifier");
+                    int n_estimators = ((Double) params.get("n_estimators")).intValue();
+                    int max_depth = ((Double) params.get("max_depth")).intValue();
+                    int min_samples_split = ((Double) params.get("min_samples_split")).intValue();
+                    double learning_rate = params.containsKey("learning_rate") ? (Double) params.get("learning_rate") : 0.1;
+                    double subsample = params.containsKey("subsample") ? (Double) params.get("subsample") : 1.0;
+                    // early stopping holds out the last validation_fraction of the rows
+                    int n_iter_no_change = params.containsKey("n_iter_no_change") ? ((Double) params.get("n_iter_no_change")).intValue() : 0;
+                    double validation_fraction = params.containsKey("validation_fraction") ? (Double) params.get("validation_fraction") : 0.1;
+                    int trainRows = n_iter_no_change > 0 ? X.length - Math.max(1, (int) (X.length * validation_fraction)) : X.length;
+                    double[][] X_train = Arrays.copyOfRange(X, 0, trainRows);
+                    double[][] X_val = n_iter_no_change > 0 ? Arrays.copyOfRange(X, trainRows, X.length) : null;
+                    String modelJson;
+                    int numTrees;
+                    if (classifier) {
+                        int[] y_int = Arrays.stream(y_double).mapToInt(d -> (int) d).toArray();
+                        GradientBoostingClassifier model = new GradientBoostingClassifier(n_estimators, max_depth, min_samples_split);
+                        model.setLearningRate(learning_rate);
+                        model.setSubsample(subsample);
+                        model.setEarlyStopping(n_iter_no_change, 1e-7);
+                        if (params.containsKey("random_state")) {
+                            model.setRandomState(((Double) params.get("random_state")).longValue());
+                        }
+                        model.fit(X_train, Arrays.copyOfRange(y_int, 0, trainRows),
+                                X_val, X_val == null ? null : Arrays.copyOfRange(y_int, trainRows, X.length));
+                        modelJson = model.getModelJson();
+                        numTrees = model.getNumberOfTrees();
+                    } else {
+                        GradientBoostingRegressor model = new GradientBoostingRegressor(n_estimators, max_depth, min_samples_split);
+                        model.setLearningRate(learning_rate);
+                        model.setSubsample(subsample);
+                        model.setEarlyStopping(n_iter_no_change, 1e-7);
+                        if (params.containsKey("loss")) {
+                            model.setLoss(createCostFunction((String) params.get("loss"), params));
+                        }
+                        if (params.containsKey("random_state")) {
+                            model.setRandomState(((Double) params.get("random_state")).longValue());
+                        }
+                        model.fit(X_train, Arrays.copyOfRange(y_double, 0, trainRows),
+                                X_val, X_val == null ? null : Arrays.copyOfRange(y_double, trainRows, X.length));
+                        modelJson = model.getModelJson();
+                        numTrees = model.getNumberOfTrees();
+                    }
+                    return """
+                    {
+                      "status": "success",
+                      "message": "Gradient Boosting %s trained successfully!",
+                      "numberOfTrees": %d,
+                      "modelStructure": %s
+                    }""".formatted(classifier ? "Classifier" : "Regressor", numTrees, modelJson);
                 }
                 default:
                     throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
@@ -217,7 +445,7 @@ public class BackendService {
             Map<String, Object> request = (Map<String, Object>) parseValue(jsonRequest.trim());
 
             Map<String, Object> trainedModel = (Map<String, Object>) request.get("trainedModel");
-            List<Double> predictionDataList = (List<Double>) (Object) request.get("predictionData");
+            List<Double> predictionDataList = (List<Double>) request.get("predictionData");
             double[] predictionData = predictionDataList.stream().mapToDouble(Double::doubleValue).toArray();
 
             String algorithm = (String) trainedModel.get("algorithm");
@@ -227,7 +455,7 @@ public class BackendService {
 
             switch (algorithm) {
                 case "linearRegression": {
-                    List<Double> weightsList = (List<Double>) (Object) modelDetails.get("learnedWeights");
+                    List<Double> weightsList = (List<Double>) modelDetails.get("learnedWeights");
                     double[] weights = weightsList.stream().mapToDouble(Double::doubleValue).toArray();
                     double bias = (Double) modelDetails.get("learnedBias");
                     ModularLinearRegression model = new ModularLinearRegression(0, 0, 0, null, null);
@@ -248,18 +476,30 @@ public class BackendService {
                     prediction = model.predict(predictionData);
                     break;
                 }
-                case "randomForestRegressor": {
-                    List<Map<String, Object>> forestStructure = (List<Map<String, Object>>) (Object) modelDetails.get("forestStructure");
+                case "randomForestRegressor":
+                case "extraTreesRegressor": {
+                    List<Map<String, Object>> forestStructure = (List<Map<String, Object>>) modelDetails.get("forestStructure");
                     RandomForestRegressor model = RandomForestRegressor.fromJson(forestStructure);
                     prediction = model.predict_row(predictionData);
                     break;
                 }
-                case "randomForestClassifier": {
-                    List<Map<String, Object>> forestStructure = (List<Map<String, Object>>) (Object) modelDetails.get("forestStructure");
+                case "randomForestClassifier":
+                case "extraTreesClassifier": {
+                    List<Map<String, Object>> forestStructure = (List<Map<String, Object>>) modelDetails.get("forestStructure");
                     RandomForestClassifier model = RandomForestClassifier.fromJson(forestStructure);
                     prediction = model.predict(predictionData);
                     break;
                 }
+                case "gradientBoostingRegressor": {
+                    Map<String, Object> modelStructure = (Map<String, Object>) modelDetails.get("modelStructure");
+                    prediction = GradientBoostingRegressor.fromJson(modelStructure).predict_row(predictionData);
+                    break;
+                }
+                case "gradientBoostingClassifier": {
+                    Map<String, Object> modelStructure = (Map<String, Object>) modelDetails.get("modelStructure");
+                    prediction = GradientBoostingClassifier.fromJson(modelStructure).predict(predictionData);
+                    break;
+                }
                 default:
                     throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
             }
@@ -286,6 +526,25 @@ public class BackendService {
         }
     }
 
+    // json list of numbers, e.g. the column indices of "categorical_features"
+    private static int[] intArray(Object value) {
+        List<?> list = (List<?>) value;
+        int[] out = new int[list.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = ((Double) list.get(i)).intValue();
+        }
+        return out;
+    }
+
+    // max_features arrives as a name ("sqrt", "log2") or a number: <= 1 is a fraction, above that a count
+    private static String maxFeatures(Object value) {
+        if (value instanceof Double) {
+            double d = (Double) value;
+            return d <= 1.0 ? String.valueOf(d) : String.valueOf((int) d);
+        }
+        return (String) value;
+    }
+
     private Optimizer createOptimizer(String type, Map<String, Object> params) {
         if (params == null) params = new HashMap<>(); // Ensure params is not null
         switch (type) {
@@ -5,6 +5,10 @@ document.addEventListener('DOMContentLoaded', () => {
     const decisionTreeClassifierParams = document.getElementById('decisionTreeClassifierParams');
     const randomForestRegressorParams = document.getElementById('randomForestRegressorParams');
     const randomForestClassifierParams = document.getElementById('randomForestClassifierParams');
+    const extraTreesRegressorParams = document.getElementById('extraTreesRegressorParams');
+    const extraTreesClassifierParams = document.getElementById('extraTreesClassifierParams');
+    const gradientBoostingRegressorParams = document.getElementById('gradientBoostingRegressorParams');
+    const gradientBoostingClassifierParams = document.getElementById('gradientBoostingClassifierParams');
     const costFunctionSelect = document.getElementById('costFunctionSelect');
     const costFunctionParams = document.getElementById('costFunctionParams');
     const optimizerSelect = document.getElementById('optimizerSelect');
@@ -26,6 +30,10 @@ document.addEventListener('DOMContentLoaded', () => {
         decisionTreeClassifierParams.style.display = 'none';
         randomForestRegressorParams.style.display = 'none';
         randomForestClassifierParams.style.display = 'none';
+        extraTreesRegressorParams.style.display = 'none';
+        extraTreesClassifierParams.style.display = 'none';
+        gradientBoostingRegressorParams.style.display = 'none';
+        gradientBoostingClassifierParams.style.display = 'none';
 
         const selectedAlgorithm = algorithmSelect.value;
         if (selectedAlgorithm === 'linearRegression') {
@@ -38,6 +46,14 @@ document.addEventListener('DOMContentLoaded', () => {
             randomForestRegressorParams.style.display = 'block';
         } else if (selectedAlgorithm === 'randomForestClassifier') {
             randomForestClassifierParams.style.display = 'block';
+        } else if (selectedAlgorithm === 'extraTreesRegressor') {
+            extraTreesRegressorParams.style.display = 'block';
+        } else if (selectedAlgorithm === 'extraTreesClassifier') {
+            extraTreesClassifierParams.style.display = 'block';
+        } else if (selectedAlgorithm === 'gradientBoostingRegressor') {
+            gradientBoostingRegressorParams.style.display = 'block';
+        } else if (selectedAlgorithm === 'gradientBoostingClassifier') {
+            gradientBoostingClassifierParams.style.display = 'block';
         }
     });
 
@@ -208,6 +224,33 @@ document.addEventListener('DOMContentLoaded', () => {
                 max_depth: parseInt(document.getElementById('rf_clf_max_depth').value),
                 min_samples_split: parseInt(document.getElementById('rf_clf_min_samples_split').value)
             };
+        } else if (selectedAlgorithm === 'extraTreesRegressor') {
+            params = {
+                n_estimators: parseInt(document.getElementById('et_reg_n_estimators').value),
+                max_depth: parseInt(document.getElementById('et_reg_max_depth').value),
+                min_samples_split: parseInt(document.getElementById('et_reg_min_samples_split').value)
+            };
+        } else if (selectedAlgorithm === 'extraTreesClassifier') {
+            params = {
+                n_estimators: parseInt(document.getElementById('et_clf_n_estimators').value),
+                max_depth: parseInt(document.getElementById('et_clf_max_depth').value),
+                min_samples_split: parseInt(document.getElementById('et_clf_min_samples_split').value)
+            };
+        } else if (selectedAlgorithm === 'gradientBoostingRegressor') {
+            params = {
+                n_estimators: parseInt(document.getElementById('gb_reg_n_estimators').value),
+                max_depth: parseInt(document.getElementById('gb_reg_max_depth').value),
+                min_samples_split: parseInt(document.getElementById('gb_reg_min_samples_split').value),
+                learning_rate: parseFloat(document.getElementById('gb_reg_learning_rate').value),
+                loss: document.getElementById('gb_reg_loss').value
+            };
+        } else if (selectedAlgorithm === 'gradientBoostingClassifier') {
+            params = {
+                n_estimators: parseInt(document.getElementById('gb_clf_n_estimators').value),
+                max_depth: parseInt(document.getElementById('gb_clf_max_depth').value),
+                min_samples_split: parseInt(document.getElementById('gb_clf_min_samples_split').value),
+                learning_rate: parseFloat(document.getElementById('gb_clf_learning_rate').value)
+            };
         }
 
         const reader = new FileReader();
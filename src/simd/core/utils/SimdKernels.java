@@ -0,0 +1,64 @@
+package core.utils;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// VectorOps kernels on jdk.incubator.vector, only loaded through VectorOps when the module is
+// present. Kept out of the main source set because compiling it needs
+// --add-modules jdk.incubator.vector; the rest of the tree builds and runs without it.
+final class SimdKernels implements VectorOps.Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // single-lane species are emulated and slower than the scalar loops, VectorOps falls back then
+    SimdKernels() {
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("No SIMD registers for doubles");
+        }
+    }
+
+    // lane-wise fused multiply-add, lanes summed at the end, scalar tail
+    @Override
+    public double dot(double sum, double[] a, double[] x, int offset, int n) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, offset + i);
+            acc = va.fma(vx, acc);
+        }
+        sum += acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += a[i] * x[offset + i];
+        }
+        return sum;
+    }
+
+    // multiply then add (not fma) so every element rounds exactly like the scalar loop
+    @Override
+    public void axpy(double alpha, double[] x, int offset, double[] y, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, offset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+            vx.mul(alpha).add(vy).intoArray(y, i);
+        }
+        for (; i < n; i++) {
+            y[i] += alpha * x[offset + i];
+        }
+    }
+
+    // multiply then divide per lane, the same rounding as the scalar loop
+    @Override
+    public void step(double[] weights, double[] gradients, double rate, double divisor) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(weights.length); i < bound; i += SPECIES.length()) {
+            DoubleVector vw = DoubleVector.fromArray(SPECIES, weights, i);
+            DoubleVector vg = DoubleVector.fromArray(SPECIES, gradients, i);
+            vw.sub(vg.mul(rate).div(divisor)).intoArray(weights, i);
+        }
+        for (; i < weights.length; i++) {
+            weights[i] -= rate * gradients[i] / divisor;
+        }
+    }
+}